@@ -0,0 +1,104 @@
+#include <jni.h>
+#include <jsi/jsi.h>
+
+#include <cstdint>
+#include <cstring>
+#include <mutex>
+#include <vector>
+
+using namespace facebook;
+
+namespace {
+
+// Latest frame published by PreviewFrameFeed.java
+struct Frame {
+    std::mutex lock;
+    std::vector<uint8_t> pixels;
+    int width = 0;
+    int height = 0;
+    double timestamp = 0;
+    int64_t sequence = 0;
+    bool valid = false;
+};
+
+Frame &latestFrame() {
+    static Frame frame;
+    return frame;
+}
+
+// __larixPreviewFrame(since?: number, target?: ArrayBuffer)
+// Returns {width, height, format, timestamp, sequence, data} or null when there is no frame
+// newer than since. Pixels are copied into target if it is large enough, so JS can reuse
+// one buffer instead of getting a new ArrayBuffer for every frame.
+jsi::Value readFrame(jsi::Runtime &rt, const jsi::Value *args, size_t count) {
+    Frame &frame = latestFrame();
+    std::lock_guard<std::mutex> guard(frame.lock);
+    const double since = count > 0 && args[0].isNumber() ? args[0].getNumber() : 0;
+    if (!frame.valid || static_cast<double>(frame.sequence) <= since) {
+        return jsi::Value::null();
+    }
+    const size_t size = frame.pixels.size();
+
+    jsi::Object data = count > 1 && args[1].isObject()
+            ? args[1].getObject(rt) : jsi::Object(rt);
+    if (!data.isArrayBuffer(rt) || data.getArrayBuffer(rt).size(rt) < size) {
+        data = rt.global()
+                .getPropertyAsFunction(rt, "ArrayBuffer")
+                .callAsConstructor(rt, static_cast<double>(size))
+                .getObject(rt);
+    }
+    std::memcpy(data.getArrayBuffer(rt).data(rt), frame.pixels.data(), size);
+
+    jsi::Object result(rt);
+    result.setProperty(rt, "width", frame.width);
+    result.setProperty(rt, "height", frame.height);
+    result.setProperty(rt, "format", jsi::String::createFromAscii(rt, "rgba"));
+    result.setProperty(rt, "timestamp", frame.timestamp);
+    result.setProperty(rt, "sequence", static_cast<double>(frame.sequence));
+    result.setProperty(rt, "data", std::move(data));
+    return result;
+}
+
+} // namespace
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_wmspanel_reactstreamer_PreviewFrameFeed_nativeInstall(JNIEnv *, jclass, jlong runtime) {
+    auto *rt = reinterpret_cast<jsi::Runtime *>(runtime);
+    if (rt == nullptr) {
+        return JNI_FALSE;
+    }
+    auto name = jsi::PropNameID::forAscii(*rt, "__larixPreviewFrame");
+    auto function = jsi::Function::createFromHostFunction(*rt, name, 2,
+            [](jsi::Runtime &rt, const jsi::Value &, const jsi::Value *args, size_t count) {
+                return readFrame(rt, args, count);
+            });
+    rt->global().setProperty(*rt, name, std::move(function));
+    return JNI_TRUE;
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_wmspanel_reactstreamer_PreviewFrameFeed_nativePublish(JNIEnv *env, jclass, jobject buffer,
+                                                               jint width, jint height, jlong timestamp) {
+    const auto *pixels = static_cast<const uint8_t *>(env->GetDirectBufferAddress(buffer));
+    const size_t size = static_cast<size_t>(width) * height * 4;
+    Frame &frame = latestFrame();
+    std::lock_guard<std::mutex> guard(frame.lock);
+    if (pixels == nullptr || static_cast<size_t>(env->GetDirectBufferCapacity(buffer)) < size) {
+        return frame.sequence;
+    }
+    // keeps the allocation while the size doesn't change
+    frame.pixels.assign(pixels, pixels + size);
+    frame.width = width;
+    frame.height = height;
+    frame.timestamp = static_cast<double>(timestamp);
+    frame.sequence++;
+    frame.valid = true;
+    return frame.sequence;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_wmspanel_reactstreamer_PreviewFrameFeed_nativeClear(JNIEnv *, jclass) {
+    Frame &frame = latestFrame();
+    std::lock_guard<std::mutex> guard(frame.lock);
+    frame.valid = false;
+}
@@ -0,0 +1,190 @@
+package com.wmspanel.reactstreamer;
+
+import java.util.Arrays;
+
+// Adaptive bitrate policy for the live encoder.
+// Fed once per statistics tick with the worst connection (lowest delivered bandwidth,
+// packet loss growth), returns the bitrate to switch to or NO_CHANGE.
+//   "ladder" - moves one step at a time over a fixed list of bitrates
+//   "aimd"   - multiplicative decrease on congestion, additive increase while stable
+// Hysteresis: congestion must persist for downTicks and stability for upTicks before
+// a switch, and nothing changes for cooldownTicks after a switch. Each failed probe up
+// (congestion right after an increase) doubles the time before the next one, each probe
+// that holds for upTicks halves it again.
+// A ceiling below maxBitrate (set while a lower video level is active) caps both the
+// current bitrate and every probe up.
+final class AbrController {
+
+    static final int NO_CHANGE = -1;
+
+    static final int MODE_LADDER = 0;
+    static final int MODE_AIMD = 1;
+
+    static final class Config {
+        int mode = MODE_LADDER;
+        int minBitrate;
+        int maxBitrate;
+        // ascending, bps
+        int[] ladder;
+        int additiveStep = 100_000;
+        float decreaseFactor = 0.7f;
+        // delivered bandwidth below bitrate * congestionRatio counts as congestion
+        float congestionRatio = 0.8f;
+        int downTicks = 2;
+        int upTicks = 10;
+        int cooldownTicks = 3;
+        int maxProbeBackoff = 8;
+
+        // Ladder of 4 steps between min and max when none is given
+        int[] ladderOrDefault() {
+            if (ladder != null && ladder.length > 0) {
+                return ladder;
+            }
+            final int steps = 4;
+            int[] result = new int[steps];
+            for (int i = 0; i < steps; i++) {
+                result[i] = minBitrate + (maxBitrate - minBitrate) * i / (steps - 1);
+            }
+            return result;
+        }
+    }
+
+    private final Config mConfig;
+    private final int[] mLadder;
+
+    private int mBitrate;
+    // 0 for none
+    private int mCeiling = 0;
+    private int mCongestedTicks;
+    private int mStableTicks;
+    private int mCooldown;
+    private int mProbeBackoff = 1;
+    private int mTicksSinceIncrease = Integer.MAX_VALUE;
+    // the last increase has neither held nor failed yet
+    private boolean mProbePending = false;
+    private String mLastReason = "";
+
+    AbrController(Config config, int initialBitrate) {
+        mConfig = config;
+        int[] ladder = config.ladderOrDefault().clone();
+        Arrays.sort(ladder);
+        mLadder = ladder;
+        mBitrate = clamp(initialBitrate);
+    }
+
+    int getBitrate() {
+        return mBitrate;
+    }
+
+    // Lowers the current bitrate to the ceiling at once, 0 removes it. Returns the bitrate.
+    int setCeiling(int ceiling) {
+        mCeiling = Math.max(0, ceiling);
+        mBitrate = clamp(mBitrate);
+        return mBitrate;
+    }
+
+    int getProbeBackoff() {
+        return mProbeBackoff;
+    }
+
+    int getMode() {
+        return mConfig.mode;
+    }
+
+    String getLastReason() {
+        return mLastReason;
+    }
+
+    // bandwidth: lowest delivered bandwidth among live connections, bps
+    int onTick(long bandwidth, boolean lossIncreasing) {
+        if (mTicksSinceIncrease != Integer.MAX_VALUE) {
+            mTicksSinceIncrease++;
+        }
+        if (mCooldown > 0) {
+            mCooldown--;
+            return NO_CHANGE;
+        }
+        final boolean lowBandwidth = bandwidth < (long) (mBitrate * mConfig.congestionRatio);
+        if (lossIncreasing || lowBandwidth) {
+            mStableTicks = 0;
+            mCongestedTicks++;
+            if (mCongestedTicks < mConfig.downTicks) {
+                return NO_CHANGE;
+            }
+            if (mProbePending && mTicksSinceIncrease <= mConfig.upTicks) {
+                // the last probe up did not hold
+                mProbeBackoff = Math.min(mProbeBackoff * 2, mConfig.maxProbeBackoff);
+            }
+            mProbePending = false;
+            return apply(decrease(bandwidth), lossIncreasing ? "loss" : "bandwidth");
+        }
+        mCongestedTicks = 0;
+        if (mProbePending && mTicksSinceIncrease >= mConfig.upTicks) {
+            // the last probe up held
+            mProbePending = false;
+            mProbeBackoff = Math.max(1, mProbeBackoff / 2);
+        }
+        mStableTicks++;
+        if (mStableTicks < mConfig.upTicks * mProbeBackoff) {
+            return NO_CHANGE;
+        }
+        final int result = apply(increase(), "probe");
+        if (result != NO_CHANGE) {
+            mTicksSinceIncrease = 0;
+            mProbePending = true;
+        }
+        return result;
+    }
+
+    private int decrease(long bandwidth) {
+        if (mConfig.mode == MODE_AIMD) {
+            return (int) (mBitrate * mConfig.decreaseFactor);
+        }
+        // highest step below the current one that fits measured bandwidth,
+        // or just the next step down
+        int next = NO_CHANGE;
+        for (int i = mLadder.length - 1; i >= 0; i--) {
+            if (mLadder[i] >= mBitrate) {
+                continue;
+            }
+            if (next == NO_CHANGE) {
+                next = mLadder[i];
+            }
+            if (mLadder[i] <= bandwidth) {
+                next = mLadder[i];
+                break;
+            }
+        }
+        return next == NO_CHANGE ? mLadder[0] : next;
+    }
+
+    private int increase() {
+        if (mConfig.mode == MODE_AIMD) {
+            return mBitrate + mConfig.additiveStep;
+        }
+        for (int step : mLadder) {
+            if (step > mBitrate) {
+                return step;
+            }
+        }
+        return mBitrate;
+    }
+
+    private int apply(int bitrate, String reason) {
+        bitrate = clamp(bitrate);
+        mCongestedTicks = 0;
+        mStableTicks = 0;
+        if (bitrate == mBitrate) {
+            return NO_CHANGE;
+        }
+        mBitrate = bitrate;
+        mCooldown = mConfig.cooldownTicks;
+        mLastReason = reason;
+        return bitrate;
+    }
+
+    private int clamp(int bitrate) {
+        final int max = mCeiling > 0 ? Math.min(mConfig.maxBitrate, mCeiling) : mConfig.maxBitrate;
+        return Math.max(mConfig.minBitrate, Math.min(max, bitrate));
+    }
+}
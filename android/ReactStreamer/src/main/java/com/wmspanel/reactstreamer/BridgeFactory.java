@@ -0,0 +1,26 @@
+package com.wmspanel.reactstreamer;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+// Creates the containers payloads are built in. NATIVE makes the bridge ones,
+// JavaOnlyMap / JavaOnlyArray let the same code run off device in tests and benchmarks.
+public interface BridgeFactory {
+
+    WritableMap createMap();
+
+    WritableArray createArray();
+
+    BridgeFactory NATIVE = new BridgeFactory() {
+        @Override
+        public WritableMap createMap() {
+            return Arguments.createMap();
+        }
+
+        @Override
+        public WritableArray createArray() {
+            return Arguments.createArray();
+        }
+    };
+}
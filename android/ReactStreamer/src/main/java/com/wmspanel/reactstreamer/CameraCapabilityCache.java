@@ -0,0 +1,283 @@
+package com.wmspanel.reactstreamer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.wmspanel.libcommon.CameraInfo;
+import com.wmspanel.libcommon.CameraRegistry;
+import com.wmspanel.libstream.Streamer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Persistent cache of camera metadata: camera lists for both camera APIs and Camera2
+// hardware levels, stored in a compact binary file keyed by Build.FINGERPRINT.
+// An OS update changes the fingerprint and drops the file; a camera id that is not in
+// the cache (e.g. an external camera was attached) reported by AvailabilityCallback
+// invalidates it as well.
+public final class CameraCapabilityCache {
+
+    private static final String TAG = "CameraCapabilityCache";
+
+    private static final String FILE_NAME = "camera_caps.bin";
+    private static final int MAGIC = 0x4c435043; // "LCPC"
+    private static final int VERSION = 1;
+
+    private static CameraCapabilityCache sInstance;
+
+    private final Context mContext;
+    private final FingerprintedFile mFile;
+
+    private boolean mLoaded;
+    // camera id -> INFO_SUPPORTED_HARDWARE_LEVEL, null until queried
+    @Nullable private Map<String, Integer> mHardwareLevels;
+    @Nullable private List<CameraInfo> mCamera1List;
+    @Nullable private List<CameraInfo> mCamera2List;
+
+    public static synchronized CameraCapabilityCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CameraCapabilityCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CameraCapabilityCache(Context context) {
+        mContext = context;
+        mFile = new FingerprintedFile(TAG, new File(context.getNoBackupFilesDir(), FILE_NAME), MAGIC, VERSION);
+        registerAvailabilityCallback();
+    }
+
+    // Loads (or queries and stores) metadata in background, so the first view does not wait for it
+    public void prefetch() {
+        StreamerScheduler.getInstance().runInBackground(() -> {
+            getHardwareLevels();
+            getCameraList(SettingsUtils.isUsingCamera2(mContext));
+        });
+    }
+
+    public synchronized List<CameraInfo> getCameraList(boolean useCamera2) {
+        ensureLoaded();
+        List<CameraInfo> list = useCamera2 ? mCamera2List : mCamera1List;
+        if (list == null) {
+            final long start = SystemClock.elapsedRealtime();
+            list = CameraRegistry.getCameraList(mContext, useCamera2);
+            Log.d(TAG, "Camera list queried in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            list = Collections.unmodifiableList(list);
+            if (useCamera2) {
+                mCamera2List = list;
+            } else {
+                mCamera1List = list;
+            }
+            save();
+        }
+        return list;
+    }
+
+    @NonNull
+    public synchronized Map<String, Integer> getHardwareLevels() {
+        ensureLoaded();
+        if (mHardwareLevels == null) {
+            mHardwareLevels = queryHardwareLevels();
+            save();
+        }
+        return mHardwareLevels;
+    }
+
+    public synchronized void invalidate() {
+        Log.d(TAG, "invalidate");
+        mHardwareLevels = null;
+        mCamera1List = null;
+        mCamera2List = null;
+        mFile.delete();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private Map<String, Integer> queryHardwareLevels() {
+        Map<String, Integer> levels = new LinkedHashMap<>();
+        CameraManager manager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            for (String cameraId : manager.getCameraIdList()) {
+                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+                Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+                levels.put(cameraId, level == null ? -1 : level);
+            }
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+            // don't persist partial results
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(levels);
+    }
+
+    private void registerAvailabilityCallback() {
+        CameraManager manager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        if (manager == null) {
+            return;
+        }
+        manager.registerAvailabilityCallback(new CameraManager.AvailabilityCallback() {
+            @Override
+            public void onCameraAvailable(@NonNull String cameraId) {
+                // Called for every camera on registration and after each close,
+                // only ids we have not seen before mean the camera set has changed.
+                // Checked in background, as the cache may be locked by a running query
+                StreamerScheduler.getInstance().runInBackground(() -> {
+                    synchronized (CameraCapabilityCache.this) {
+                        if (mHardwareLevels != null && !mHardwareLevels.isEmpty()
+                                && !mHardwareLevels.containsKey(cameraId)) {
+                            Log.d(TAG, "New camera " + cameraId);
+                            invalidate();
+                        }
+                    }
+                });
+            }
+        }, new Handler(Looper.getMainLooper()));
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        final long start = SystemClock.elapsedRealtime();
+        if (mFile.load(this::read)) {
+            Log.d(TAG, "Cache loaded in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        } else {
+            mHardwareLevels = null;
+            mCamera1List = null;
+            mCamera2List = null;
+        }
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            final int count = in.readInt();
+            Map<String, Integer> levels = new LinkedHashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                levels.put(in.readUTF(), in.readInt());
+            }
+            mHardwareLevels = Collections.unmodifiableMap(levels);
+        }
+        mCamera1List = readCameraListIfPresent(in);
+        mCamera2List = readCameraListIfPresent(in);
+    }
+
+    private void save() {
+        mFile.save(this::write);
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        // empty levels mean the query failed, so they are not stored
+        final boolean hasLevels = mHardwareLevels != null && !mHardwareLevels.isEmpty();
+        out.writeBoolean(hasLevels);
+        if (hasLevels) {
+            out.writeInt(mHardwareLevels.size());
+            for (Map.Entry<String, Integer> entry : mHardwareLevels.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        writeCameraListIfPresent(out, mCamera1List);
+        writeCameraListIfPresent(out, mCamera2List);
+    }
+
+    private static void writeCameraListIfPresent(DataOutputStream out, @Nullable List<CameraInfo> list) throws IOException {
+        out.writeBoolean(list != null);
+        if (list != null) {
+            writeCameraList(out, list);
+        }
+    }
+
+    @Nullable
+    private static List<CameraInfo> readCameraListIfPresent(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        final List<CameraInfo> list = readCameraList(in);
+        return list == null ? null : Collections.unmodifiableList(list);
+    }
+
+    private static void writeCameraList(DataOutputStream out, @Nullable List<CameraInfo> list) throws IOException {
+        if (list == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(list.size());
+        for (CameraInfo info : list) {
+            out.writeUTF(info.cameraId);
+            out.writeInt(info.lensFacing);
+            out.writeInt(info.recordSizes.size());
+            for (Streamer.Size size : info.recordSizes) {
+                out.writeInt(size.width);
+                out.writeInt(size.height);
+            }
+            out.writeInt(info.fpsRanges.size());
+            for (Streamer.FpsRange range : info.fpsRanges) {
+                out.writeInt(range.fpsMin);
+                out.writeInt(range.fpsMax);
+            }
+            out.writeInt(info.minExposure);
+            out.writeInt(info.maxExposure);
+            out.writeFloat(info.exposureStep);
+            out.writeFloat(info.fov);
+            out.writeBoolean(info.isZoomSupported);
+            out.writeFloat(info.maxZoom);
+            out.writeBoolean(info.isTorchSupported);
+            out.writeFloat(info.minimumFocusDistance);
+            writeCameraList(out, info.physicalCameras);
+        }
+    }
+
+    @Nullable
+    private static List<CameraInfo> readCameraList(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        List<CameraInfo> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CameraInfo info = new CameraInfo();
+            info.cameraId = in.readUTF();
+            info.lensFacing = in.readInt();
+            final int sizes = in.readInt();
+            for (int j = 0; j < sizes; j++) {
+                info.recordSizes.add(new Streamer.Size(in.readInt(), in.readInt()));
+            }
+            final int ranges = in.readInt();
+            for (int j = 0; j < ranges; j++) {
+                info.fpsRanges.add(new Streamer.FpsRange(in.readInt(), in.readInt()));
+            }
+            info.minExposure = in.readInt();
+            info.maxExposure = in.readInt();
+            info.exposureStep = in.readFloat();
+            info.fov = in.readFloat();
+            info.isZoomSupported = in.readBoolean();
+            info.maxZoom = in.readFloat();
+            info.isTorchSupported = in.readBoolean();
+            info.minimumFocusDistance = in.readFloat();
+            info.physicalCameras = readCameraList(in);
+            list.add(info);
+        }
+        return list;
+    }
+}
@@ -1,49 +1,161 @@
 package com.wmspanel.reactstreamer;
 
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.bridge.WritableNativeArray;
-import com.facebook.react.bridge.WritableNativeMap;
 import com.wmspanel.libstream.Streamer;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import com.wmspanel.libcommon.CameraInfo;
 
+// Camera info for JS. Every CameraInfo is serialized once into a Descriptor: CameraCapabilityCache
+// hands out the same instances until it is invalidated, so repeated getCameraInfo calls and
+// onCameraChanged events only copy prepared strings into bridge maps (which are single use).
 public final class CameraInfoReact {
 
+    // Serialized CameraInfo, immutable
+    static final class Descriptor {
+        final String cameraId;
+        final String lensFacing;
+        // id of the logical camera for a physical one, null otherwise
+        @Nullable final String logicalCameraId;
+        final boolean isTorchSupported;
+        final boolean isZoomSupported;
+        final float maxZoom;
+        final int[] widths;
+        final int[] heights;
+        final String[] recordSizes;
+        final int[] fpsMax;
+        final String[] fpsRanges;
+
+        Descriptor(CameraInfo info, String cameraId, @Nullable String logicalCameraId) {
+            this.cameraId = cameraId;
+            this.logicalCameraId = logicalCameraId;
+            if (info.lensFacing == CameraInfo.LENS_FACING_FRONT) {
+                lensFacing = "front";
+            } else if (info.lensFacing == CameraInfo.LENS_FACING_BACK) {
+                lensFacing = "back";
+            } else {
+                lensFacing = "unspecified";
+            }
+            isTorchSupported = info.isTorchSupported;
+            isZoomSupported = info.isZoomSupported;
+            maxZoom = info.maxZoom;
+            final int sizeCount = info.recordSizes.size();
+            widths = new int[sizeCount];
+            heights = new int[sizeCount];
+            recordSizes = new String[sizeCount];
+            for (int i = 0; i < sizeCount; i++) {
+                final Streamer.Size size = info.recordSizes.get(i);
+                widths[i] = size.width;
+                heights[i] = size.height;
+                recordSizes[i] = size.width + "x" + size.height;
+            }
+            final int rangeCount = info.fpsRanges.size();
+            fpsMax = new int[rangeCount];
+            fpsRanges = new String[rangeCount];
+            for (int i = 0; i < rangeCount; i++) {
+                final Streamer.FpsRange range = info.fpsRanges.get(i);
+                fpsMax[i] = range.fpsMax;
+                fpsRanges[i] = range.fpsMin == range.fpsMax
+                        ? Integer.toString(range.fpsMax) : range.fpsMin + "-" + range.fpsMax;
+            }
+        }
+    }
+
+    // Filter for queryCameraInfo, zero values don't filter
+    static final class Query {
+        // record sizes within the bounds
+        int minWidth = 0;
+        int minHeight = 0;
+        int maxWidth = 0;
+        int maxHeight = 0;
+        // fps ranges reaching minFps
+        int minFps = 0;
+        // at most this many record sizes per camera, in the camera order
+        int maxSizes = 0;
+        // "front", "back" or "unspecified"
+        @Nullable String lensFacing;
+        // physical cameras of logical multi-camera devices, flattened as in toMap
+        boolean physical = false;
+        // page of the matching cameras
+        int offset = 0;
+        int limit = 0;
+
+        static final Query ALL = new Query();
+    }
+
+    // Weak keys: descriptors of an invalidated camera list go with it
+    private static final Map<CameraInfo, Descriptor> sDescriptors = new WeakHashMap<>();
+
     public static WritableMap toReactMap(CameraInfo info) {
-        WritableNativeMap infoMap = new WritableNativeMap();
-        String facing;
-        if (info.lensFacing == CameraInfo.LENS_FACING_FRONT) {
-            facing = "front";
-        } else if (info.lensFacing == CameraInfo.LENS_FACING_BACK)  {
-            facing = "back";
-        } else {
-            facing = "unspecified";
-        }
-        infoMap.putString("cameraId", info.cameraId);
-        infoMap.putString("lensFacing", facing);
-        infoMap.putBoolean("isTorchSupported", info.isTorchSupported);
-        WritableNativeArray resArray = new WritableNativeArray();
-        for(Streamer.Size res: info.recordSizes) {
-            String resStr = String.format("%dx%d", res.width, res.height);
-            resArray.pushString(resStr);
+        return toReactMap(info, BridgeFactory.NATIVE);
+    }
+
+    public static WritableMap toReactMap(CameraInfo info, BridgeFactory factory) {
+        return toReactMap(describe(info, info.cameraId, null), Query.ALL, factory);
+    }
+
+    // {cameraInfo: [...], total} where total is the count of matching cameras before paging
+    static WritableMap query(List<CameraInfo> cameraList, Query query, BridgeFactory factory) {
+        final List<Descriptor> matching = new ArrayList<>();
+        for (Descriptor descriptor : describe(cameraList, query.physical)) {
+            if (query.lensFacing == null || query.lensFacing.equals(descriptor.lensFacing)) {
+                matching.add(descriptor);
+            }
+        }
+        final int from = Math.min(Math.max(0, query.offset), matching.size());
+        final int to = query.limit > 0 ? Math.min(matching.size(), from + query.limit) : matching.size();
+        final WritableArray cameras = factory.createArray();
+        for (int i = from; i < to; i++) {
+            cameras.pushMap(toReactMap(matching.get(i), query, factory));
+        }
+        final WritableMap result = factory.createMap();
+        result.putArray("cameraInfo", cameras);
+        result.putInt("total", matching.size());
+        return result;
+    }
+
+    static WritableMap toReactMap(Descriptor descriptor, Query query, BridgeFactory factory) {
+        WritableMap infoMap = factory.createMap();
+        infoMap.putString("cameraId", descriptor.cameraId);
+        infoMap.putString("lensFacing", descriptor.lensFacing);
+        if (descriptor.logicalCameraId != null) {
+            infoMap.putString("logicalCameraId", descriptor.logicalCameraId);
+        }
+        infoMap.putBoolean("isTorchSupported", descriptor.isTorchSupported);
+        WritableArray resArray = factory.createArray();
+        int sizes = 0;
+        for (int i = 0; i < descriptor.recordSizes.length; i++) {
+            if (query.maxSizes > 0 && sizes == query.maxSizes) {
+                break;
+            }
+            final int width = descriptor.widths[i];
+            final int height = descriptor.heights[i];
+            if (width < query.minWidth || height < query.minHeight
+                    || (query.maxWidth > 0 && width > query.maxWidth)
+                    || (query.maxHeight > 0 && height > query.maxHeight)) {
+                continue;
+            }
+            resArray.pushString(descriptor.recordSizes[i]);
+            sizes++;
         }
         infoMap.putArray("recordSizes", resArray);
-        WritableNativeArray fpsArray = new WritableNativeArray();
-        for(Streamer.FpsRange range: info.fpsRanges) {
-            String rangeStr;
-            if (range.fpsMin == range.fpsMax) {
-                rangeStr = String.format("%d", range.fpsMax);
-            } else {
-                rangeStr = String.format("%d-%d", range.fpsMin, range.fpsMax);
+        WritableArray fpsArray = factory.createArray();
+        for (int i = 0; i < descriptor.fpsRanges.length; i++) {
+            if (descriptor.fpsMax[i] >= query.minFps) {
+                fpsArray.pushString(descriptor.fpsRanges[i]);
             }
-            fpsArray.pushString(rangeStr);
         }
         infoMap.putArray("fpsRanges", fpsArray);
-        if (info.isZoomSupported) {
-            infoMap.putDouble("maxZoom", info.maxZoom);
+        if (descriptor.isZoomSupported) {
+            infoMap.putDouble("maxZoom", descriptor.maxZoom);
         }
         return infoMap;
     }
@@ -53,11 +165,43 @@ public final class CameraInfoReact {
         final Map<String, CameraInfo> map = new LinkedHashMap<>();
         for (CameraInfo info : cameraList) {
             map.put(info.cameraId, info);
-            for (CameraInfo subInfo : info.physicalCameras) {
+            for (CameraInfo subInfo : physicalCameras(info)) {
                 map.put(info.cameraId.concat(subInfo.cameraId), subInfo);
             }
         }
         return map;
     }
 
+    // Same order as toMap
+    private static List<Descriptor> describe(List<CameraInfo> cameraList, boolean physical) {
+        final List<Descriptor> descriptors = new ArrayList<>();
+        for (CameraInfo info : cameraList) {
+            descriptors.add(describe(info, info.cameraId, null));
+            if (!physical) {
+                continue;
+            }
+            for (CameraInfo subInfo : physicalCameras(info)) {
+                descriptors.add(describe(subInfo, info.cameraId.concat(subInfo.cameraId), info.cameraId));
+            }
+        }
+        return descriptors;
+    }
+
+    // A physical camera is described with its flattened id, toReactMap(info) describes it with its own
+    private static Descriptor describe(CameraInfo info, String cameraId, @Nullable String logicalCameraId) {
+        synchronized (sDescriptors) {
+            Descriptor descriptor = sDescriptors.get(info);
+            if (descriptor == null || !descriptor.cameraId.equals(cameraId)) {
+                descriptor = new Descriptor(info, cameraId, logicalCameraId);
+                sDescriptors.put(info, descriptor);
+            }
+            return descriptor;
+        }
+    }
+
+    // Null when the camera list was read back from CameraCapabilityCache without them
+    private static List<CameraInfo> physicalCameras(CameraInfo info) {
+        return info.physicalCameras != null ? info.physicalCameras : Collections.<CameraInfo>emptyList();
+    }
+
 }
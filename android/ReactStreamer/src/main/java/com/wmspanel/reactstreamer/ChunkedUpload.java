@@ -0,0 +1,242 @@
+package com.wmspanel.reactstreamer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Sends one journaled file as a sequence of requests, each carrying a chunk of at most
+// chunkSize bytes with "Content-Range: bytes first-last/total". Chunk bytes go from the
+// FileChannel to the connection in slices with transferTo, so no part of the file is
+// held in memory. Every slice is paced by the Throttle.
+//
+// Server contract: 308 or 2xx acknowledges a chunk; a 308 "Range: bytes=0-N" header
+// tells how much the server actually has, and sending continues from N + 1. A 2xx to
+// the last chunk completes the upload.
+final class ChunkedUpload {
+
+    static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final int SLICE_BYTES = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final long PAUSE_POLL_MS = 500;
+    private static final int HTTP_RESUME_INCOMPLETE = 308;
+    // chunks in a row the server acknowledged without taking any bytes
+    private static final int MAX_STALLS = 3;
+    private static final Pattern RANGE = Pattern.compile("bytes=\\d+-(\\d+)");
+
+    // Bytes per second allowed right now, UNLIMITED or 0 to pause
+    interface Throttle {
+        long bytesPerSecond();
+    }
+
+    interface Listener {
+        // sent counts bytes of the chunk in flight, offset only acknowledged ones
+        void onProgress(UploadJournal.Entry entry, long sent);
+    }
+
+    static final class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        HttpException(int code) {
+            super("HTTP " + code);
+            this.code = code;
+        }
+
+        // Client errors won't go away by retrying, except timeouts and rate limits
+        boolean isPermanent() {
+            return code >= 400 && code < 500 && code != 408 && code != 429;
+        }
+    }
+
+    private final UploadJournal mJournal;
+    private final UploadJournal.Entry mEntry;
+    private final Throttle mThrottle;
+    private final Listener mListener;
+    private volatile boolean mCancelled = false;
+    private long mNextSliceNs = 0;
+
+    ChunkedUpload(UploadJournal journal, UploadJournal.Entry entry, Throttle throttle, Listener listener) {
+        mJournal = journal;
+        mEntry = entry;
+        mThrottle = throttle;
+        mListener = listener;
+    }
+
+    UploadJournal.Entry getEntry() {
+        return mEntry;
+    }
+
+    void cancel() {
+        mCancelled = true;
+    }
+
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    // Blocks until the file is sent, returns the final response code. The journal entry
+    // is removed on success and keeps the acknowledged offset on failure. Once cancelled
+    // the entry is no longer written, the caller removes it.
+    int run() throws IOException {
+        final File file = new File(mEntry.path);
+        try (FileInputStream stream = new FileInputStream(file);
+             FileChannel channel = stream.getChannel()) {
+            final long length = channel.size();
+            if (length != mEntry.length || file.lastModified() != mEntry.lastModified) {
+                // new upload or the file was replaced since the offset was stored
+                mEntry.length = length;
+                mEntry.lastModified = file.lastModified();
+                mEntry.offset = 0;
+                saveEntry();
+            }
+            int stalls = 0;
+            while (true) {
+                final long start = mEntry.offset;
+                final long end = Math.min(start + mEntry.chunkSize, length);
+                final HttpURLConnection connection = open(start, end, length);
+                final int code;
+                final String range;
+                try {
+                    send(connection, channel, start, end);
+                    code = connection.getResponseCode();
+                    range = connection.getHeaderField("Range");
+                    drain(connection, code);
+                } catch (IOException e) {
+                    connection.disconnect();
+                    throw e;
+                }
+                if (code / 100 == 2 && end == length) {
+                    mEntry.offset = length;
+                    mJournal.remove(mEntry.id);
+                    mListener.onProgress(mEntry, 0);
+                    return code;
+                }
+                if (code / 100 != 2 && code != HTTP_RESUME_INCOMPLETE) {
+                    throw new HttpException(code);
+                }
+                mEntry.offset = acknowledged(range, end, length);
+                stalls = mEntry.offset > start ? 0 : stalls + 1;
+                if (stalls == MAX_STALLS) {
+                    throw new IOException("Server doesn't accept data at " + start);
+                }
+                saveEntry();
+                mListener.onProgress(mEntry, 0);
+            }
+        }
+    }
+
+    // A cancelled upload's entry is already removed, saving it would bring the upload back
+    private void saveEntry() throws IOException {
+        checkCancelled();
+        mJournal.save(mEntry);
+    }
+
+    private HttpURLConnection open(long start, long end, long length) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(mEntry.url).openConnection();
+        connection.setRequestMethod(mEntry.method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // 308 is an acknowledgement here, not a redirect
+        connection.setInstanceFollowRedirects(false);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(end - start);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        for (Map.Entry<String, String> header : mEntry.headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        connection.setRequestProperty("Content-Range", length == 0
+                ? "bytes */0" : "bytes " + start + "-" + (end - 1) + "/" + length);
+        return connection;
+    }
+
+    private void send(HttpURLConnection connection, FileChannel channel, long start, long end) throws IOException {
+        try (OutputStream out = connection.getOutputStream();
+             WritableByteChannel target = Channels.newChannel(out)) {
+            long position = start;
+            while (position < end) {
+                final long count = Math.min(SLICE_BYTES, end - position);
+                pace(count);
+                final long sent = channel.transferTo(position, count, target);
+                if (sent <= 0) {
+                    throw new IOException("File truncated at " + position);
+                }
+                position += sent;
+                mListener.onProgress(mEntry, position - start);
+            }
+        }
+    }
+
+    // Keeps the connection reusable
+    private static void drain(HttpURLConnection connection, int code) throws IOException {
+        final InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in == null) {
+            return;
+        }
+        try {
+            final byte[] buffer = new byte[4096];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long acknowledged(String range, long end, long length) {
+        if (range != null) {
+            final Matcher matcher = RANGE.matcher(range);
+            if (matcher.find()) {
+                return Math.min(Long.parseLong(matcher.group(1)) + 1, length);
+            }
+        }
+        return end;
+    }
+
+    private void pace(long bytes) throws IOException {
+        checkCancelled();
+        long rate;
+        while ((rate = mThrottle.bytesPerSecond()) <= 0) {
+            sleep(PAUSE_POLL_MS);
+            checkCancelled();
+            mNextSliceNs = 0;
+        }
+        if (rate == UNLIMITED) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (mNextSliceNs > now) {
+            sleep((mNextSliceNs - now) / 1_000_000);
+            checkCancelled();
+        }
+        mNextSliceNs = Math.max(now, mNextSliceNs) + bytes * 1_000_000_000L / rate;
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (mCancelled) {
+            throw new InterruptedIOException("Upload cancelled");
+        }
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.wmspanel.reactstreamer;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Persistent cache of video encoder capabilities: every AVC / HEVC encoder with its
+// hardware flag, profile/levels, size limits and max frame rates for common sizes.
+// MediaCodecList is slow to enumerate (it instantiates codec plugins), so it is probed
+// once in background and stored in a FingerprintedFile, like CameraCapabilityCache.
+public final class CodecCapabilityCache {
+
+    private static final String TAG = "CodecCapabilityCache";
+
+    private static final String FILE_NAME = "codec_caps.bin";
+    private static final int MAGIC = 0x4c434443; // "LCDC"
+    private static final int VERSION = 1;
+
+    static final String[] MIME_TYPES = {MediaFormat.MIMETYPE_VIDEO_AVC, MediaFormat.MIMETYPE_VIDEO_HEVC};
+
+    // landscape sizes frame rates are probed for, ascending
+    static final int[][] PROBE_SIZES = {
+            {640, 360}, {854, 480}, {1280, 720}, {1920, 1080}, {2560, 1440}, {3840, 2160}};
+
+    public static final class EncoderInfo {
+        public final String name;
+        public final String mimeType;
+        public final boolean hardware;
+        public final int maxWidth;
+        public final int maxHeight;
+        // profile, level pairs
+        public final int[] profileLevels;
+        // per PROBE_SIZES entry: max supported fps, 0 if the size is not supported
+        public final float[] maxFps;
+        // per PROBE_SIZES entry: measured fps reported by the vendor, 0 if unknown
+        public final float[] achievableFps;
+
+        EncoderInfo(String name, String mimeType, boolean hardware, int maxWidth, int maxHeight,
+                    int[] profileLevels, float[] maxFps, float[] achievableFps) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.hardware = hardware;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.profileLevels = profileLevels;
+            this.maxFps = maxFps;
+            this.achievableFps = achievableFps;
+        }
+
+        // Frame rate the encoder can sustain at the size, vendor measurements win over
+        // declared limits. Sizes between probe points use the next larger one.
+        public float sustainableFps(int width, int height) {
+            final int w = Math.max(width, height);
+            final int h = Math.min(width, height);
+            if (w > Math.max(maxWidth, maxHeight) || h > Math.min(maxWidth, maxHeight)) {
+                return 0;
+            }
+            for (int i = 0; i < PROBE_SIZES.length; i++) {
+                if (PROBE_SIZES[i][0] >= w && PROBE_SIZES[i][1] >= h) {
+                    return achievableFps[i] > 0 ? Math.min(achievableFps[i], maxFps[i]) : maxFps[i];
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static CodecCapabilityCache sInstance;
+
+    private final FingerprintedFile mFile;
+
+    private boolean mLoaded;
+    @Nullable private List<EncoderInfo> mEncoders;
+
+    public static synchronized CodecCapabilityCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CodecCapabilityCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CodecCapabilityCache(Context context) {
+        mFile = new FingerprintedFile(TAG, new File(context.getNoBackupFilesDir(), FILE_NAME), MAGIC, VERSION);
+    }
+
+    public void prefetch() {
+        StreamerScheduler.getInstance().runInBackground(this::getEncoders);
+    }
+
+    public synchronized List<EncoderInfo> getEncoders() {
+        ensureLoaded();
+        if (mEncoders == null) {
+            final long start = SystemClock.elapsedRealtime();
+            mEncoders = Collections.unmodifiableList(probe());
+            Log.d(TAG, "Encoders probed in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            if (!mEncoders.isEmpty()) {
+                save();
+            }
+        }
+        return mEncoders;
+    }
+
+    // Hardware encoder that sustains size and fps, falls back to any hardware encoder of the type
+    @Nullable
+    public EncoderInfo findHardwareEncoder(String mimeType, int width, int height, float fps) {
+        EncoderInfo fallback = null;
+        for (EncoderInfo info : getEncoders()) {
+            if (!info.hardware || !info.mimeType.equals(mimeType)) {
+                continue;
+            }
+            final float sustainable = info.sustainableFps(width, height);
+            if (sustainable >= fps) {
+                return info;
+            }
+            if (sustainable > 0 && fallback == null) {
+                fallback = info;
+            }
+        }
+        return fallback;
+    }
+
+    public boolean canEncodeInHardware(String mimeType, int width, int height, float fps) {
+        final EncoderInfo info = findHardwareEncoder(mimeType, width, height, fps);
+        return info != null && info.sustainableFps(width, height) >= fps;
+    }
+
+    public WritableMap toReactMap() {
+        WritableNativeArray encoders = new WritableNativeArray();
+        for (EncoderInfo info : getEncoders()) {
+            WritableNativeMap item = new WritableNativeMap();
+            item.putString("name", info.name);
+            item.putString("format", MediaFormat.MIMETYPE_VIDEO_HEVC.equals(info.mimeType) ? "hevc" : "avc");
+            item.putBoolean("hardware", info.hardware);
+            item.putInt("maxWidth", info.maxWidth);
+            item.putInt("maxHeight", info.maxHeight);
+            WritableNativeArray profiles = new WritableNativeArray();
+            for (int i = 0; i + 1 < info.profileLevels.length; i += 2) {
+                WritableNativeMap pl = new WritableNativeMap();
+                pl.putInt("profile", info.profileLevels[i]);
+                pl.putInt("level", info.profileLevels[i + 1]);
+                profiles.pushMap(pl);
+            }
+            item.putArray("profileLevels", profiles);
+            WritableNativeMap fps = new WritableNativeMap();
+            for (int i = 0; i < PROBE_SIZES.length; i++) {
+                if (info.maxFps[i] > 0) {
+                    fps.putDouble(PROBE_SIZES[i][0] + "x" + PROBE_SIZES[i][1],
+                            info.sustainableFps(PROBE_SIZES[i][0], PROBE_SIZES[i][1]));
+                }
+            }
+            item.putMap("maxFps", fps);
+            encoders.pushMap(item);
+        }
+        WritableNativeMap result = new WritableNativeMap();
+        result.putArray("encoders", encoders);
+        return result;
+    }
+
+    private static List<EncoderInfo> probe() {
+        List<EncoderInfo> result = new ArrayList<>();
+        final MediaCodecInfo[] codecs;
+        try {
+            codecs = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        } catch (RuntimeException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+            return result;
+        }
+        for (MediaCodecInfo codec : codecs) {
+            if (!codec.isEncoder()) {
+                continue;
+            }
+            for (String mimeType : MIME_TYPES) {
+                if (!supportsType(codec, mimeType)) {
+                    continue;
+                }
+                try {
+                    result.add(describe(codec, mimeType));
+                } catch (RuntimeException e) {
+                    // some vendor codecs throw on capability queries
+                    Log.w(TAG, "Failed to query " + codec.getName(), e);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean supportsType(MediaCodecInfo codec, String mimeType) {
+        for (String type : codec.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static EncoderInfo describe(MediaCodecInfo codec, String mimeType) {
+        final MediaCodecInfo.CodecCapabilities caps = codec.getCapabilitiesForType(mimeType);
+        final MediaCodecInfo.VideoCapabilities video = caps.getVideoCapabilities();
+
+        final int[] profileLevels = new int[caps.profileLevels.length * 2];
+        for (int i = 0; i < caps.profileLevels.length; i++) {
+            profileLevels[2 * i] = caps.profileLevels[i].profile;
+            profileLevels[2 * i + 1] = caps.profileLevels[i].level;
+        }
+
+        final float[] maxFps = new float[PROBE_SIZES.length];
+        final float[] achievableFps = new float[PROBE_SIZES.length];
+        for (int i = 0; i < PROBE_SIZES.length; i++) {
+            final int w = PROBE_SIZES[i][0];
+            final int h = PROBE_SIZES[i][1];
+            if (video == null || !video.isSizeSupported(w, h)) {
+                continue;
+            }
+            final Range<Double> rates = video.getSupportedFrameRatesFor(w, h);
+            maxFps[i] = rates.getUpper().floatValue();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                final Range<Double> achievable = video.getAchievableFrameRatesFor(w, h);
+                if (achievable != null) {
+                    achievableFps[i] = achievable.getUpper().floatValue();
+                }
+            }
+        }
+        final int maxWidth = video == null ? 0 : video.getSupportedWidths().getUpper();
+        final int maxHeight = video == null ? 0 : video.getSupportedHeights().getUpper();
+        return new EncoderInfo(codec.getName(), mimeType, isHardware(codec), maxWidth, maxHeight,
+                profileLevels, maxFps, achievableFps);
+    }
+
+    private static boolean isHardware(MediaCodecInfo codec) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return codec.isHardwareAccelerated();
+        }
+        // software codecs shipped with the platform
+        final String name = codec.getName().toLowerCase(Locale.US);
+        return !(name.startsWith("omx.google.") || name.startsWith("c2.android.")
+                || name.contains(".sw.") || name.endsWith(".sw"));
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.load(this::read)) {
+            mEncoders = null;
+        }
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readInt() != PROBE_SIZES.length) {
+            // probe sizes changed without a version bump
+            throw new IOException("Probe sizes mismatch");
+        }
+        final int count = in.readInt();
+        List<EncoderInfo> encoders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String name = in.readUTF();
+            final String mimeType = in.readUTF();
+            final boolean hardware = in.readBoolean();
+            final int maxWidth = in.readInt();
+            final int maxHeight = in.readInt();
+            final int[] profileLevels = new int[in.readInt()];
+            for (int j = 0; j < profileLevels.length; j++) {
+                profileLevels[j] = in.readInt();
+            }
+            final float[] maxFps = new float[PROBE_SIZES.length];
+            final float[] achievableFps = new float[PROBE_SIZES.length];
+            for (int j = 0; j < PROBE_SIZES.length; j++) {
+                maxFps[j] = in.readFloat();
+                achievableFps[j] = in.readFloat();
+            }
+            encoders.add(new EncoderInfo(name, mimeType, hardware, maxWidth, maxHeight,
+                    profileLevels, maxFps, achievableFps));
+        }
+        mEncoders = Collections.unmodifiableList(encoders);
+    }
+
+    private void save() {
+        mFile.save(this::write);
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(PROBE_SIZES.length);
+        out.writeInt(mEncoders.size());
+        for (EncoderInfo info : mEncoders) {
+            out.writeUTF(info.name);
+            out.writeUTF(info.mimeType);
+            out.writeBoolean(info.hardware);
+            out.writeInt(info.maxWidth);
+            out.writeInt(info.maxHeight);
+            out.writeInt(info.profileLevels.length);
+            for (int value : info.profileLevels) {
+                out.writeInt(value);
+            }
+            for (int j = 0; j < PROBE_SIZES.length; j++) {
+                out.writeFloat(info.maxFps[j]);
+                out.writeFloat(info.achievableFps[j]);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.wmspanel.reactstreamer;
+
+import androidx.annotation.Nullable;
+
+import com.wmspanel.libcommon.ConnectionStatistics;
+import com.wmspanel.libstream.Streamer;
+
+import java.util.Arrays;
+
+// Connections of a StreamerView in primitive slots keyed by connection id.
+// Written by connect/disconnect on the native modules thread and by streamer callbacks on
+// the main thread, read by the statistics tick on the engine thread and by sync getters on
+// the JS thread. Every access takes a single lock; readers copy a consistent view into
+// their own Snapshot, which is reused between ticks, so a tick costs no allocations.
+// ConnectionStatistics are only touched on the engine thread, the tick copies their
+// values into the primitive arrays of its Snapshot for the other threads.
+//
+// A slot without statistics is a destination waiting for a reconnect, it keeps the id
+// of its dropped connection until the retry replaces it.
+final class ConnectionRegistry {
+
+    static final class Snapshot {
+        int size = 0;
+        int[] ids = new int[0];
+        Streamer.ConnectionState[] states = new Streamer.ConnectionState[0];
+        ConnectionStatistics[] statistics = new ConnectionStatistics[0];
+        // filled by the statistics tick, zero for connections that aren't streaming
+        long[] duration = new long[0];
+        long[] traffic = new long[0];
+        long[] bandwidth = new long[0];
+        boolean[] loss = new boolean[0];
+    }
+
+    private final Object mLock = new Object();
+
+    private int mCapacity = 8;
+    private int mSize = 0;
+    private int[] mIds = new int[mCapacity];
+    // null while connecting
+    private Streamer.ConnectionState[] mStates = new Streamer.ConnectionState[mCapacity];
+    private ConnectionStatistics[] mStatistics = new ConnectionStatistics[mCapacity];
+    private ConnectionTarget[] mTargets = new ConnectionTarget[mCapacity];
+
+    void add(int connectionId, @Nullable ConnectionTarget target) {
+        synchronized (mLock) {
+            int slot = findSlot(connectionId);
+            if (slot < 0) {
+                slot = addSlot(connectionId);
+            }
+            mStates[slot] = null;
+            mStatistics[slot] = new ConnectionStatistics();
+            mTargets[slot] = target;
+        }
+    }
+
+    // Connection exists in the streamer (connecting or connected)
+    boolean isActive(int connectionId) {
+        synchronized (mLock) {
+            final int slot = findSlot(connectionId);
+            return slot >= 0 && mStatistics[slot] != null;
+        }
+    }
+
+    boolean contains(int connectionId) {
+        synchronized (mLock) {
+            return findSlot(connectionId) >= 0;
+        }
+    }
+
+    @Nullable
+    Streamer.ConnectionState getState(int connectionId) {
+        synchronized (mLock) {
+            final int slot = findSlot(connectionId);
+            return slot < 0 ? null : mStates[slot];
+        }
+    }
+
+    // Returns false for unknown or reconnecting ids
+    boolean setState(int connectionId, Streamer.ConnectionState state) {
+        synchronized (mLock) {
+            final int slot = findSlot(connectionId);
+            if (slot < 0 || mStatistics[slot] == null) {
+                return false;
+            }
+            mStates[slot] = state;
+            return true;
+        }
+    }
+
+    @Nullable
+    ConnectionStatistics getStatistics(int connectionId) {
+        synchronized (mLock) {
+            final int slot = findSlot(connectionId);
+            return slot < 0 ? null : mStatistics[slot];
+        }
+    }
+
+    @Nullable
+    ConnectionTarget getTarget(int connectionId) {
+        synchronized (mLock) {
+            final int slot = findSlot(connectionId);
+            return slot < 0 ? null : mTargets[slot];
+        }
+    }
+
+    @Nullable
+    ConnectionTarget remove(int connectionId) {
+        synchronized (mLock) {
+            final int slot = findSlot(connectionId);
+            if (slot < 0) {
+                return null;
+            }
+            final ConnectionTarget target = mTargets[slot];
+            final int last = --mSize;
+            mIds[slot] = mIds[last];
+            mStates[slot] = mStates[last];
+            mStatistics[slot] = mStatistics[last];
+            mTargets[slot] = mTargets[last];
+            mStates[last] = null;
+            mStatistics[last] = null;
+            mTargets[last] = null;
+            return target;
+        }
+    }
+
+    // Connection dropped, the destination stays registered until the retry.
+    // Returns false if there is no destination to keep or it is already suspended.
+    boolean suspend(int connectionId) {
+        synchronized (mLock) {
+            final int slot = findSlot(connectionId);
+            if (slot < 0 || mTargets[slot] == null || mStatistics[slot] == null) {
+                return false;
+            }
+            mStates[slot] = null;
+            mStatistics[slot] = null;
+            return true;
+        }
+    }
+
+    // Moves the destination to the new connection id.
+    // Returns false if it was removed meanwhile (disconnected by the app).
+    boolean replace(int previousId, ConnectionTarget target, int connectionId) {
+        synchronized (mLock) {
+            final int slot = findSlot(previousId);
+            if (slot < 0 || mTargets[slot] != target) {
+                return false;
+            }
+            mIds[slot] = connectionId;
+            mStates[slot] = null;
+            mStatistics[slot] = new ConnectionStatistics();
+            return true;
+        }
+    }
+
+    // Copies all slots into out, grows its arrays only when the registry has grown
+    int snapshot(Snapshot out) {
+        synchronized (mLock) {
+            if (out.ids.length < mSize) {
+                out.ids = new int[mCapacity];
+                out.states = new Streamer.ConnectionState[mCapacity];
+                out.statistics = new ConnectionStatistics[mCapacity];
+                out.duration = new long[mCapacity];
+                out.traffic = new long[mCapacity];
+                out.bandwidth = new long[mCapacity];
+                out.loss = new boolean[mCapacity];
+            }
+            System.arraycopy(mIds, 0, out.ids, 0, mSize);
+            System.arraycopy(mStates, 0, out.states, 0, mSize);
+            System.arraycopy(mStatistics, 0, out.statistics, 0, mSize);
+            if (out.size > mSize) {
+                // don't keep removed connections reachable
+                Arrays.fill(out.states, mSize, out.size, null);
+                Arrays.fill(out.statistics, mSize, out.size, null);
+            }
+            out.size = mSize;
+            return mSize;
+        }
+    }
+
+    private int findSlot(int connectionId) {
+        for (int i = 0; i < mSize; i++) {
+            if (mIds[i] == connectionId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int addSlot(int connectionId) {
+        if (mSize == mCapacity) {
+            mCapacity *= 2;
+            mIds = Arrays.copyOf(mIds, mCapacity);
+            mStates = Arrays.copyOf(mStates, mCapacity);
+            mStatistics = Arrays.copyOf(mStatistics, mCapacity);
+            mTargets = Arrays.copyOf(mTargets, mCapacity);
+        }
+        final int slot = mSize++;
+        mIds[slot] = connectionId;
+        return slot;
+    }
+}
@@ -0,0 +1,51 @@
+package com.wmspanel.reactstreamer;
+
+import androidx.annotation.Nullable;
+
+import com.wmspanel.libstream.ConnectionConfig;
+import com.wmspanel.libstream.RistConfig;
+import com.wmspanel.libstream.SrtConfig;
+import com.wmspanel.libstream.StreamerGL;
+
+// Parsed settings of one destination. Kept for the lifetime of the destination,
+// so a dropped connection is re-created without another round trip to JS.
+final class ConnectionTarget {
+
+    @Nullable private final ConnectionConfig mConfig;
+    @Nullable private final SrtConfig mSrtConfig;
+    @Nullable private final RistConfig mRistConfig;
+
+    // reconnect state, main thread only
+    int attempts = 0;
+    long downSince = 0;
+    @Nullable Runnable retry;
+
+    ConnectionTarget(ConnectionConfig config) {
+        this(config, null, null);
+    }
+
+    ConnectionTarget(SrtConfig config) {
+        this(null, config, null);
+    }
+
+    ConnectionTarget(RistConfig config) {
+        this(null, null, config);
+    }
+
+    private ConnectionTarget(@Nullable ConnectionConfig config, @Nullable SrtConfig srtConfig,
+                             @Nullable RistConfig ristConfig) {
+        mConfig = config;
+        mSrtConfig = srtConfig;
+        mRistConfig = ristConfig;
+    }
+
+    // Engine thread. Returns connection id or -1
+    int connect(StreamerGL streamer) {
+        if (mSrtConfig != null) {
+            return streamer.createConnection(mSrtConfig);
+        } else if (mRistConfig != null) {
+            return streamer.createConnection(mRistConfig);
+        }
+        return streamer.createConnection(mConfig);
+    }
+}
@@ -0,0 +1,128 @@
+package com.wmspanel.reactstreamer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Steps video resolution / frame rate down while packet loss keeps increasing and back up
+// once the link recovers. Levels are ordered from the configured quality (0) down.
+//  - degrade: loss reported continuously for degradeAfterMs
+//  - recover: no loss for recoverAfterMs
+//  - any switch is held for at least minDwellMs
+// Degrading shortly after a recovery doubles the recovery delay (up to maxRecoverAfterMs),
+// so a link that can't sustain the higher level does not oscillate.
+// Plain Java on purpose: fed with timestamps, it can be driven by a simulated feed in tests.
+final class DegradationPolicy {
+
+    static final int NO_CHANGE = -1;
+
+    static final class Level {
+        final int width;
+        final int height;
+        // encoder frame rate and camera fps range
+        final int fps;
+        final int fpsMin;
+        final int fpsMax;
+
+        Level(int width, int height, int fps, int fpsMin, int fpsMax) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+            this.fpsMin = fpsMin;
+            this.fpsMax = fpsMax;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + fps;
+        }
+    }
+
+    static final class Config {
+        long degradeAfterMs = 5_000;
+        long recoverAfterMs = 20_000;
+        long maxRecoverAfterMs = 160_000;
+        long minDwellMs = 10_000;
+        int minHeight = 360;
+        int minFps = 15;
+    }
+
+    private final Config mConfig;
+    private final List<Level> mLevels;
+
+    private int mLevel = 0;
+    private long mLossSince = -1;
+    private long mClearSince = -1;
+    private long mLastChange = Long.MIN_VALUE / 2;
+    private long mLastRecovery = Long.MIN_VALUE / 2;
+    private long mRecoverAfterMs;
+
+    DegradationPolicy(Config config, List<Level> levels) {
+        if (levels.isEmpty()) {
+            throw new IllegalArgumentException("No levels");
+        }
+        mConfig = config;
+        mLevels = Collections.unmodifiableList(new ArrayList<>(levels));
+        mRecoverAfterMs = config.recoverAfterMs;
+    }
+
+    int getLevelIndex() {
+        return mLevel;
+    }
+
+    Level getLevel() {
+        return mLevels.get(mLevel);
+    }
+
+    Level getLevel(int index) {
+        return mLevels.get(index);
+    }
+
+    int getLevelCount() {
+        return mLevels.size();
+    }
+
+    long getRecoverAfterMs() {
+        return mRecoverAfterMs;
+    }
+
+    // Returns new level index or NO_CHANGE
+    int onSample(long nowMs, boolean lossIncreasing) {
+        if (lossIncreasing) {
+            mClearSince = -1;
+            if (mLossSince < 0) {
+                mLossSince = nowMs;
+            }
+            if (mLevel + 1 >= mLevels.size()
+                    || nowMs - mLossSince < mConfig.degradeAfterMs
+                    || nowMs - mLastChange < mConfig.minDwellMs) {
+                return NO_CHANGE;
+            }
+            if (nowMs - mLastRecovery < mRecoverAfterMs) {
+                // the level we recovered to did not hold
+                mRecoverAfterMs = Math.min(mRecoverAfterMs * 2, mConfig.maxRecoverAfterMs);
+            }
+            // next step down needs another sustained period of loss
+            mLossSince = nowMs;
+            return switchTo(mLevel + 1, nowMs);
+        }
+        mLossSince = -1;
+        if (mClearSince < 0) {
+            mClearSince = nowMs;
+        }
+        if (mLevel == 0
+                || nowMs - mClearSince < mRecoverAfterMs
+                || nowMs - mLastChange < mConfig.minDwellMs) {
+            return NO_CHANGE;
+        }
+        mClearSince = nowMs;
+        mLastRecovery = nowMs;
+        return switchTo(mLevel - 1, nowMs);
+    }
+
+    private int switchTo(int level, long nowMs) {
+        mLevel = level;
+        mLastChange = nowMs;
+        return level;
+    }
+}
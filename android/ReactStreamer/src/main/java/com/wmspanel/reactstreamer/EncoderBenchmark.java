@@ -0,0 +1,427 @@
+package com.wmspanel.reactstreamer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.wmspanel.libcommon.MediaCodecUtils;
+import com.wmspanel.libstream.Streamer;
+import com.wmspanel.libstream.gles.EglCore;
+import com.wmspanel.libstream.gles.WindowSurface;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Measures what the video encoders of the device can sustain and maps it to a capability
+// tier that selects default video presets. Each case renders a synthetic GL sequence into
+// the encoder input surface as fast as the encoder accepts it, for CASE_DURATION_MS, and
+// measures output frame rate and input-to-output latency.
+// Runs only on demand and never while a streamer is capturing: creating a streamer waits
+// for a requested run, see whenIdle(). A complete report is kept until the next OS update
+// (Build.FINGERPRINT changes); a run with failed cases or without a hardware encoder is
+// reported but not kept. The tier never goes below DEFAULT_TIER.
+public final class EncoderBenchmark {
+
+    private static final String TAG = "EncoderBenchmark";
+
+    private static final String PREFS_NAME = "reactstreamer_benchmark";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_TIER = "tier";
+    private static final String KEY_REPORT = "report";
+
+    private static final long CASE_DURATION_MS = 1000;
+    private static final long DRAIN_TIMEOUT_US = 10_000;
+    // live capture, preview and audio share the device with the encoder
+    private static final float HEADROOM = 1.1f;
+
+    // tier -> default preset, tier 1 matches the former hard-coded 1280x720@30;
+    // 854x480 is not selected as the default, it is only listed for the tier numbering
+    private static final int[][] PRESETS = {
+            {854, 480, 30}, {1280, 720, 30}, {1920, 1080, 30}, {1920, 1080, 60}, {3840, 2160, 30}};
+    static final int DEFAULT_TIER = 1;
+
+    private static final String AVC = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final String HEVC = MediaFormat.MIMETYPE_VIDEO_HEVC;
+
+    // mime, width, height, fps, tier reached when sustained; ladders stop at the first failure
+    private static final Object[][] CASES = {
+            {AVC, 1280, 720, 30, 1},
+            {AVC, 1920, 1080, 30, 2},
+            {AVC, 1920, 1080, 60, 3},
+            {AVC, 3840, 2160, 30, 4},
+            {HEVC, 1920, 1080, 30, 2},
+            {HEVC, 3840, 2160, 30, 4},
+    };
+
+    public static final class Preset {
+        public final int tier;
+        public final Streamer.Size size;
+        public final int fps;
+
+        Preset(int tier) {
+            this.tier = tier;
+            this.size = new Streamer.Size(PRESETS[tier][0], PRESETS[tier][1]);
+            this.fps = PRESETS[tier][2];
+        }
+    }
+
+    interface Callback {
+        void onResult(@Nullable WritableMap report);
+    }
+
+    private static EncoderBenchmark sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    private volatile boolean mRunning = false;
+
+    public static synchronized EncoderBenchmark getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EncoderBenchmark(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private EncoderBenchmark(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public boolean hasResult() {
+        return Build.FINGERPRINT.equals(mPrefs.getString(KEY_FINGERPRINT, null));
+    }
+
+    public Preset getPreset() {
+        return new Preset(hasResult() ? Math.max(DEFAULT_TIER, mPrefs.getInt(KEY_TIER, DEFAULT_TIER)) : DEFAULT_TIER);
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public void run(Callback callback) {
+        mRunning = true;
+        StreamerScheduler.getInstance().runInBackground(() -> {
+            final JSONObject report = runAll();
+            if (report.optBoolean("complete")) {
+                mPrefs.edit()
+                        .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                        .putInt(KEY_TIER, report.optInt("tier", DEFAULT_TIER))
+                        .putString(KEY_REPORT, report.toString())
+                        .apply();
+            } else {
+                Log.w(TAG, "Benchmark incomplete, result not kept");
+            }
+            mRunning = false;
+            callback.onResult(toReactMap(report));
+        });
+    }
+
+    // Runs task on the given handler once no benchmark is running
+    public void whenIdle(Handler handler, Runnable task) {
+        if (!mRunning) {
+            task.run();
+            return;
+        }
+        Log.d(TAG, "Waiting for encoder benchmark");
+        StreamerScheduler.getInstance().runInBackground(() -> handler.post(task));
+    }
+
+    @Nullable
+    public WritableMap getReport() {
+        final String report = mPrefs.getString(KEY_REPORT, null);
+        if (report == null || !hasResult()) {
+            return null;
+        }
+        try {
+            return toReactMap(new JSONObject(report));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private JSONObject runAll() {
+        final long start = SystemClock.elapsedRealtime();
+        final CodecCapabilityCache codecs = CodecCapabilityCache.getInstance(mContext);
+        int tier = DEFAULT_TIER;
+        boolean hevc = false;
+        // every case ran to the end and at least one hardware encoder was found
+        boolean complete = true;
+        boolean hardware = false;
+        JSONArray cases = new JSONArray();
+        String failedMime = null;
+        for (Object[] c : CASES) {
+            final String mime = (String) c[0];
+            final int width = (int) c[1];
+            final int height = (int) c[2];
+            final int fps = (int) c[3];
+            if (mime.equals(failedMime)) {
+                continue;
+            }
+            // software encoders are never used for live video, don't rate them
+            final CodecCapabilityCache.EncoderInfo encoder = codecs.findHardwareEncoder(mime, width, height, fps);
+            if (encoder == null) {
+                failedMime = mime;
+                continue;
+            }
+            hardware = true;
+            final Result result = runCase(encoder.name, mime, width, height, fps);
+            complete &= result.error == null;
+            try {
+                cases.put(result.toJson());
+            } catch (JSONException e) {
+                Log.e(TAG, Log.getStackTraceString(e));
+            }
+            Log.d(TAG, result.toString());
+            if (!result.sustained()) {
+                failedMime = mime;
+                continue;
+            }
+            tier = Math.max(tier, (int) c[4]);
+            hevc |= mime.equals(HEVC);
+        }
+        JSONObject report = new JSONObject();
+        try {
+            report.put("tier", tier);
+            report.put("hevc", hevc);
+            report.put("complete", complete && hardware);
+            report.put("durationMs", SystemClock.elapsedRealtime() - start);
+            report.put("cases", cases);
+        } catch (JSONException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+        }
+        return report;
+    }
+
+    private static final class Result {
+        final String encoder;
+        final String mime;
+        final int width;
+        final int height;
+        final int targetFps;
+        float fps;
+        float latencyMs;
+        float latencyP90Ms;
+        @Nullable String error;
+
+        Result(String encoder, String mime, int width, int height, int targetFps) {
+            this.encoder = encoder;
+            this.mime = mime;
+            this.width = width;
+            this.height = height;
+            this.targetFps = targetFps;
+        }
+
+        boolean sustained() {
+            return error == null && fps >= targetFps * HEADROOM;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("encoder", encoder);
+            json.put("format", mime.equals(HEVC) ? "hevc" : "avc");
+            json.put("width", width);
+            json.put("height", height);
+            json.put("targetFps", targetFps);
+            json.put("fps", fps);
+            json.put("latencyMs", latencyMs);
+            json.put("latencyP90Ms", latencyP90Ms);
+            json.put("sustained", sustained());
+            if (error != null) {
+                json.put("error", error);
+            }
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return encoder + " " + width + "x" + height + "@" + targetFps + ": " + fps + " fps, "
+                    + latencyMs + " ms" + (error != null ? " (" + error + ")" : "");
+        }
+    }
+
+    private Result runCase(String encoderName, String mime, int width, int height, int fps) {
+        final Result result = new Result(encoderName, mime, width, height, fps);
+        MediaCodec codec = null;
+        Surface inputSurface = null;
+        EglCore eglCore = null;
+        WindowSurface surface = null;
+        try {
+            MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, MediaCodecUtils.recommendedBitrateKbps(mime, height, fps) * 1000);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, fps);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+
+            codec = MediaCodec.createByCodecName(encoderName);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = codec.createInputSurface();
+            codec.start();
+
+            eglCore = new EglCore(null, EglCore.FLAG_RECORDABLE);
+            surface = new WindowSurface(eglCore, inputSurface, true);
+            surface.makeCurrent();
+
+            // submit time by frame index, presentation time carries the index
+            final int maxFrames = (int) (fps * 4 * CASE_DURATION_MS / 1000);
+            final long[] submitted = new long[maxFrames];
+            final long[] latencies = new long[maxFrames];
+            final long frameDurationNs = 1_000_000_000L / fps;
+            final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+            int input = 0;
+            int output = 0;
+            long firstOutput = 0;
+            long lastOutput = 0;
+            final long deadline = System.nanoTime() + CASE_DURATION_MS * 1_000_000L;
+            while (System.nanoTime() < deadline && input < maxFrames) {
+                drawFrame(input, width, height);
+                surface.setPresentationTime(input * frameDurationNs);
+                submitted[input++] = System.nanoTime();
+                // blocks when the encoder input queue is full, which throttles the loop
+                surface.swapBuffers();
+                output = drain(codec, info, 0, frameDurationNs, submitted, latencies, output);
+                if (output > 0 && firstOutput == 0) {
+                    firstOutput = System.nanoTime();
+                }
+                lastOutput = System.nanoTime();
+            }
+            codec.signalEndOfInputStream();
+            final long drainDeadline = System.nanoTime() + 1_000_000_000L;
+            while (output < input && System.nanoTime() < drainDeadline) {
+                output = drain(codec, info, DRAIN_TIMEOUT_US, frameDurationNs, submitted, latencies, output);
+                lastOutput = System.nanoTime();
+            }
+            if (output > 1 && lastOutput > firstOutput) {
+                result.fps = (output - 1) * 1e9f / (lastOutput - firstOutput);
+            }
+            if (output > 0) {
+                final long[] sorted = Arrays.copyOf(latencies, output);
+                Arrays.sort(sorted);
+                long sum = 0;
+                for (long latency : sorted) {
+                    sum += latency;
+                }
+                result.latencyMs = sum / 1e6f / output;
+                result.latencyP90Ms = sorted[Math.max(0, (int) Math.ceil(0.9 * output) - 1)] / 1e6f;
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Benchmark case failed", e);
+            result.error = e.getClass().getSimpleName();
+        } finally {
+            if (surface != null) {
+                surface.release();
+            }
+            if (eglCore != null) {
+                eglCore.release();
+            }
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    // not started
+                }
+                codec.release();
+            }
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+        }
+        return result;
+    }
+
+    // Moving bar over a changing background, so frames are not trivially predictable
+    private static void drawFrame(int index, int width, int height) {
+        final float phase = (index % 60) / 60.0f;
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glClearColor(phase, 1.0f - phase, 0.5f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glScissor((int) (phase * width * 0.75f), 0, width / 4, height);
+        GLES20.glClearColor(1.0f - phase, phase, 1.0f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+    }
+
+    // Returns the updated count of output frames
+    private static int drain(MediaCodec codec, MediaCodec.BufferInfo info, long timeoutUs,
+                             long frameDurationNs, long[] submitted, long[] latencies, int output) {
+        while (true) {
+            final int index = codec.dequeueOutputBuffer(info, timeoutUs);
+            if (index < 0) {
+                // try again later, format or buffers changed
+                if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    return output;
+                }
+                continue;
+            }
+            final boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+            final boolean eos = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            codec.releaseOutputBuffer(index, false);
+            if (!config && info.size > 0 && output < latencies.length) {
+                final int frame = (int) Math.round(info.presentationTimeUs * 1000.0 / frameDurationNs);
+                if (frame >= 0 && frame < submitted.length) {
+                    latencies[output] = System.nanoTime() - submitted[frame];
+                }
+                output++;
+            }
+            if (eos) {
+                return output;
+            }
+        }
+    }
+
+    private static WritableMap toReactMap(JSONObject report) {
+        WritableNativeMap result = new WritableNativeMap();
+        result.putInt("tier", report.optInt("tier", DEFAULT_TIER));
+        result.putBoolean("hevc", report.optBoolean("hevc", false));
+        result.putBoolean("complete", report.optBoolean("complete", true));
+        result.putDouble("durationMs", report.optDouble("durationMs", 0));
+        final Preset preset = new Preset(report.optInt("tier", DEFAULT_TIER));
+        WritableNativeMap presetMap = new WritableNativeMap();
+        presetMap.putString("res", preset.size.width + "x" + preset.size.height);
+        presetMap.putInt("fps", preset.fps);
+        result.putMap("preset", presetMap);
+        WritableNativeArray cases = new WritableNativeArray();
+        final JSONArray list = report.optJSONArray("cases");
+        for (int i = 0; list != null && i < list.length(); i++) {
+            final JSONObject c = list.optJSONObject(i);
+            if (c == null) {
+                continue;
+            }
+            WritableNativeMap item = new WritableNativeMap();
+            item.putString("encoder", c.optString("encoder"));
+            item.putString("format", c.optString("format"));
+            item.putInt("width", c.optInt("width"));
+            item.putInt("height", c.optInt("height"));
+            item.putInt("targetFps", c.optInt("targetFps"));
+            item.putDouble("fps", c.optDouble("fps", 0));
+            item.putDouble("latencyMs", c.optDouble("latencyMs", 0));
+            item.putDouble("latencyP90Ms", c.optDouble("latencyP90Ms", 0));
+            item.putBoolean("sustained", c.optBoolean("sustained"));
+            if (c.has("error")) {
+                item.putString("error", c.optString("error"));
+            }
+            cases.pushMap(item);
+        }
+        result.putArray("cases", cases);
+        return result;
+    }
+}
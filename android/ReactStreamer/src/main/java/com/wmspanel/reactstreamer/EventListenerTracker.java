@@ -0,0 +1,94 @@
+package com.wmspanel.reactstreamer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Tracks JS subscriptions made through NativeEventEmitter(LarixStreamer).
+// NativeEventEmitter reports the event name on addListener, but removeListeners only
+// passes a count, so per-event counters are dropped once all subscriptions are gone.
+// A batch subscriber (onStreamerEventBatch) declares the events it consumes from the
+// batch with addListener(name) as well, so hasListeners works the same for both, and
+// withdraws them by name with removeListener(name), which keeps the counters exact.
+public final class EventListenerTracker {
+
+    public interface Observer {
+        void onListenersChanged();
+    }
+
+    private static final Map<String, Integer> sListeners = new HashMap<>();
+    private static final List<Observer> sObservers = new CopyOnWriteArrayList<>();
+    private static int sTotal = 0;
+
+    private EventListenerTracker() {
+    }
+
+    public static void add(String eventName) {
+        synchronized (sListeners) {
+            Integer count = sListeners.get(eventName);
+            sListeners.put(eventName, count == null ? 1 : count + 1);
+            sTotal++;
+        }
+        notifyObservers();
+    }
+
+    public static void remove(String eventName) {
+        synchronized (sListeners) {
+            final Integer count = sListeners.get(eventName);
+            if (count == null) {
+                // dropped by reset() or a count-only remove meanwhile
+                return;
+            }
+            if (count == 1) {
+                sListeners.remove(eventName);
+            } else {
+                sListeners.put(eventName, count - 1);
+            }
+            sTotal = Math.max(0, sTotal - 1);
+            if (sTotal == 0) {
+                sListeners.clear();
+            }
+        }
+        notifyObservers();
+    }
+
+    // Plain NativeEventEmitter subscriptions, names are unknown
+    public static void remove(int count) {
+        synchronized (sListeners) {
+            sTotal = Math.max(0, sTotal - count);
+            if (sTotal == 0) {
+                sListeners.clear();
+            }
+        }
+        notifyObservers();
+    }
+
+    public static void reset() {
+        synchronized (sListeners) {
+            sTotal = 0;
+            sListeners.clear();
+        }
+        notifyObservers();
+    }
+
+    public static boolean hasListeners(String eventName) {
+        synchronized (sListeners) {
+            return sListeners.containsKey(eventName);
+        }
+    }
+
+    public static void addObserver(Observer observer) {
+        sObservers.add(observer);
+    }
+
+    public static void removeObserver(Observer observer) {
+        sObservers.remove(observer);
+    }
+
+    private static void notifyObservers() {
+        for (Observer observer : sObservers) {
+            observer.onListenersChanged();
+        }
+    }
+}
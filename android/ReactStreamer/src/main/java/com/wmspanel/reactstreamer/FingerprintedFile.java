@@ -0,0 +1,84 @@
+package com.wmspanel.reactstreamer;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// Binary cache file keyed by Build.FINGERPRINT: magic, version and fingerprint header,
+// then the owner's payload. A file from another format version or OS build, or one that
+// fails to parse, is deleted on load. Writes go through a temporary file, so a crash
+// mid-write leaves the previous version in place.
+// Not thread safe, callers synchronize.
+final class FingerprintedFile {
+
+    interface Reader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final String mTag;
+    private final File mFile;
+    private final int mMagic;
+    private final int mVersion;
+
+    FingerprintedFile(String tag, File file, int magic, int version) {
+        mTag = tag;
+        mFile = file;
+        mMagic = magic;
+        mVersion = version;
+    }
+
+    // False if there is no valid file for this build, reader results must be discarded then
+    boolean load(Reader reader) {
+        if (!mFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != mMagic || in.readInt() != mVersion || !Build.FINGERPRINT.equals(in.readUTF())) {
+                Log.d(mTag, "Cache is outdated");
+                delete();
+                return false;
+            }
+            reader.read(in);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(mTag, "Failed to read cache", e);
+            delete();
+            return false;
+        }
+    }
+
+    void save(Writer writer) {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(mMagic);
+            out.writeInt(mVersion);
+            out.writeUTF(Build.FINGERPRINT);
+            writer.write(out);
+        } catch (IOException e) {
+            Log.w(mTag, "Failed to write cache", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.w(mTag, "Failed to replace " + mFile);
+        }
+    }
+
+    void delete() {
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(mTag, "Failed to delete " + mFile);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.wmspanel.reactstreamer;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.wmspanel.libcommon.CameraInfo;
+import com.wmspanel.libstream.CameraConfig;
+import com.wmspanel.libstream.Streamer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Matches the requested capture format (size, fps range, codec) against what each camera
+// supports. Every record size and fps range is scored and the cheapest one wins:
+//  - size: exact match is free, same aspect ratio costs by area difference (upscaled
+//    output costs double), any other aspect ratio costs extra
+//  - fps range: must reach the requested max fps, otherwise the encoder would underrun;
+//    distance of max fps weighs more than distance of min fps
+// Results are cached per camera until the request changes.
+final class FormatNegotiator {
+
+    private static final String TAG = "FormatNegotiator";
+
+    private static final double ASPECT_TOLERANCE = 0.01;
+    private static final double OTHER_ASPECT_COST = 10.0;
+    private static final float UNDERRUN_COST = 1000.0f;
+
+    static final class Result {
+        final String cameraId;
+        final Streamer.Size size;
+        final Streamer.FpsRange fpsRange;
+        // encoder frame rate the camera can sustain with fpsRange
+        final float fps;
+        final boolean exactSize;
+        final boolean exactFps;
+
+        Result(String cameraId, Streamer.Size size, Streamer.FpsRange fpsRange, float fps,
+               boolean exactSize, boolean exactFps) {
+            this.cameraId = cameraId;
+            this.size = size;
+            this.fpsRange = fpsRange;
+            this.fps = fps;
+            this.exactSize = exactSize;
+            this.exactFps = exactFps;
+        }
+
+        CameraConfig toCameraConfig() {
+            final CameraConfig config = new CameraConfig();
+            config.cameraId = cameraId;
+            config.videoSize = size;
+            config.fpsRange = fpsRange;
+            return config;
+        }
+    }
+
+    private Streamer.Size mSize = new Streamer.Size(1280, 720);
+    private float mFpsMin = 30;
+    private float mFpsMax = 30;
+    private String mMimeType = "";
+    private final Map<String, Result> mResults = new HashMap<>();
+
+    // size in camera (landscape) orientation
+    synchronized void setRequest(Streamer.Size size, float fpsMin, float fpsMax, String mimeType) {
+        if (size.equals(mSize) && fpsMin == mFpsMin && fpsMax == mFpsMax && mimeType.equals(mMimeType)) {
+            return;
+        }
+        mSize = size;
+        mFpsMin = Math.min(fpsMin, fpsMax);
+        mFpsMax = fpsMax;
+        mMimeType = mimeType;
+        mResults.clear();
+    }
+
+    synchronized Result negotiate(CameraInfo info) {
+        Result result = mResults.get(info.cameraId);
+        if (result == null) {
+            result = compute(info);
+            mResults.put(info.cameraId, result);
+            Log.d(TAG, "Camera #" + info.cameraId + ": " + result.size + " @ "
+                    + result.fpsRange.fpsMin + "-" + result.fpsRange.fpsMax);
+        }
+        return result;
+    }
+
+    private Result compute(CameraInfo info) {
+        Streamer.Size size = chooseSize(info, mSize);
+        Streamer.FpsRange range = chooseFpsRange(info, mFpsMin, mFpsMax);
+        if (range == null) {
+            // camera reports no ranges (legacy devices), let it pick
+            range = new Streamer.FpsRange(Math.round(mFpsMin), Math.round(mFpsMax));
+        }
+        final float fps = Math.min(mFpsMax, range.fpsMax);
+        return new Result(info.cameraId, size, range, fps,
+                size.equals(mSize), range.fpsMin == Math.round(mFpsMin) && range.fpsMax == Math.round(mFpsMax));
+    }
+
+    static Streamer.Size chooseSize(CameraInfo info, Streamer.Size target) {
+        Streamer.Size best = target;
+        double bestCost = Double.MAX_VALUE;
+        final double targetRatio = (double) target.width / target.height;
+        final double targetArea = (double) target.width * target.height;
+        for (Streamer.Size size : info.recordSizes) {
+            if (size.equals(target)) {
+                return size;
+            }
+            final double area = (double) size.width * size.height;
+            double cost = Math.abs(Math.log(area / targetArea));
+            if (area < targetArea) {
+                // encoder has to upscale
+                cost *= 2;
+            }
+            final double aspectDiff = targetRatio / ((double) size.width / size.height) - 1;
+            if (Math.abs(aspectDiff) >= ASPECT_TOLERANCE) {
+                cost += OTHER_ASPECT_COST;
+            }
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    @Nullable
+    static Streamer.FpsRange chooseFpsRange(CameraInfo info, float fpsMin, float fpsMax) {
+        Streamer.FpsRange best = null;
+        float bestCost = Float.MAX_VALUE;
+        for (Streamer.FpsRange r : info.fpsRanges) {
+            float cost = (r.fpsMax - fpsMax) * (r.fpsMax - fpsMax) + Math.abs(r.fpsMin - fpsMin);
+            if (r.fpsMax < fpsMax) {
+                cost += UNDERRUN_COST * (fpsMax - r.fpsMax);
+            }
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    static WritableMap toReactMap(Result result, Streamer.Size encoderSize, String mimeType) {
+        WritableNativeMap map = new WritableNativeMap();
+        map.putString("cameraId", result.cameraId);
+        map.putInt("width", result.size.width);
+        map.putInt("height", result.size.height);
+        map.putInt("fpsMin", result.fpsRange.fpsMin);
+        map.putInt("fpsMax", result.fpsRange.fpsMax);
+        map.putDouble("fps", result.fps);
+        map.putBoolean("exactSize", result.exactSize);
+        map.putBoolean("exactFps", result.exactFps);
+        map.putInt("encoderWidth", encoderSize.width);
+        map.putInt("encoderHeight", encoderSize.height);
+        map.putString("format", mimeType);
+        return map;
+    }
+}
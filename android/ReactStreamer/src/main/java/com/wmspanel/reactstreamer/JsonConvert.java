@@ -1,59 +1,175 @@
 package com.wmspanel.reactstreamer;
 
-import com.facebook.react.bridge.Arguments;
+import androidx.annotation.Nullable;
+
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.Iterator;
 
+// Converts JSON payloads of the streamer (connection info comes with every state change
+// of every destination) to bridge containers in one pass: every value is fetched once and
+// dispatched on its type. Nesting is walked without recursion, a container is put
+// into its parent when it is complete, as bridge maps are consumed by put.
+// Integral numbers outside of the int range are sent as doubles instead of being
+// truncated, booleans are kept.
 public class JsonConvert {
 
-    public static WritableMap jsonToReact(JSONObject jsonObject) throws JSONException {
-        WritableMap writableMap = Arguments.createMap();
-        Iterator iterator = jsonObject.keys();
-        while(iterator.hasNext()) {
-            String key = (String) iterator.next();
-            Object value = jsonObject.get(key);
-            if (value instanceof Float || value instanceof Double) {
-                writableMap.putDouble(key, jsonObject.getDouble(key));
-            } else if (value instanceof Number) {
-                writableMap.putInt(key, jsonObject.getInt(key));
-            } else if (value instanceof String) {
-                writableMap.putString(key, jsonObject.getString(key));
-            } else if (value instanceof JSONObject) {
-                writableMap.putMap(key,jsonToReact(jsonObject.getJSONObject(key)));
-            } else if (value instanceof JSONArray){
-                writableMap.putArray(key, jsonToReact(jsonObject.getJSONArray(key)));
-            } else if (value == JSONObject.NULL){
-                writableMap.putNull(key);
+    // Object or array being converted
+    private static final class Frame {
+        @Nullable final JSONObject object;
+        @Nullable final Iterator<String> keys;
+        @Nullable final WritableMap map;
+        @Nullable final JSONArray array;
+        @Nullable final WritableArray list;
+        int index = 0;
+        // in the parent object, null in an array and for the root
+        @Nullable final String key;
+        @Nullable Frame parent;
+
+        Frame(JSONObject object, WritableMap map, @Nullable String key) {
+            this.object = object;
+            this.keys = object.keys();
+            this.map = map;
+            this.array = null;
+            this.list = null;
+            this.key = key;
+        }
+
+        Frame(JSONArray array, WritableArray list, @Nullable String key) {
+            this.object = null;
+            this.keys = null;
+            this.map = null;
+            this.array = array;
+            this.list = list;
+            this.key = key;
+        }
+
+        // Converts values up to the next nested container and returns its frame,
+        // null when all values are done
+        @Nullable
+        Frame next(BridgeFactory factory) {
+            if (object != null) {
+                while (keys.hasNext()) {
+                    final String name = keys.next();
+                    final Object value = object.opt(name);
+                    if (value instanceof JSONObject) {
+                        return new Frame((JSONObject) value, factory.createMap(), name);
+                    } else if (value instanceof JSONArray) {
+                        return new Frame((JSONArray) value, factory.createArray(), name);
+                    }
+                    put(map, name, value);
+                }
+                return null;
+            }
+            final int length = array.length();
+            while (index < length) {
+                final Object value = array.opt(index++);
+                if (value instanceof JSONObject) {
+                    return new Frame((JSONObject) value, factory.createMap(), null);
+                } else if (value instanceof JSONArray) {
+                    return new Frame((JSONArray) value, factory.createArray(), null);
+                }
+                push(list, value);
+            }
+            return null;
+        }
+
+        void attach(Frame child) {
+            if (map != null) {
+                if (child.map != null) {
+                    map.putMap(child.key, child.map);
+                } else {
+                    map.putArray(child.key, child.list);
+                }
+            } else if (child.map != null) {
+                list.pushMap(child.map);
+            } else {
+                list.pushArray(child.list);
+            }
+        }
+    }
+
+    public static WritableMap jsonToReact(JSONObject jsonObject) {
+        return jsonToReact(jsonObject, BridgeFactory.NATIVE);
+    }
+
+    public static WritableArray jsonToReact(JSONArray jsonArray) {
+        return jsonToReact(jsonArray, BridgeFactory.NATIVE);
+    }
+
+    public static WritableMap jsonToReact(JSONObject jsonObject, BridgeFactory factory) {
+        final WritableMap map = factory.createMap();
+        convert(new Frame(jsonObject, map, null), factory);
+        return map;
+    }
+
+    public static WritableArray jsonToReact(JSONArray jsonArray, BridgeFactory factory) {
+        final WritableArray list = factory.createArray();
+        convert(new Frame(jsonArray, list, null), factory);
+        return list;
+    }
+
+    // Parent links of the frames serve as the stack
+    private static void convert(Frame root, BridgeFactory factory) {
+        Frame frame = root;
+        while (frame != null) {
+            final Frame child = frame.next(factory);
+            if (child != null) {
+                child.parent = frame;
+                frame = child;
+                continue;
+            }
+            final Frame parent = frame.parent;
+            if (parent != null) {
+                parent.attach(frame);
             }
+            frame = parent;
         }
+    }
+
+    private static void put(WritableMap map, String key, @Nullable Object value) {
+        if (value instanceof String) {
+            map.putString(key, (String) value);
+        } else if (value instanceof Integer) {
+            map.putInt(key, (Integer) value);
+        } else if (value instanceof Boolean) {
+            map.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Long) {
+            final long number = (Long) value;
+            if (number == (int) number) {
+                map.putInt(key, (int) number);
+            } else {
+                map.putDouble(key, number);
+            }
+        } else if (value instanceof Number) {
+            map.putDouble(key, ((Number) value).doubleValue());
+        } else if (value == JSONObject.NULL) {
+            map.putNull(key);
+        }
+    }
 
-        return writableMap;
-    }
-
-    public static WritableArray jsonToReact(JSONArray jsonArray) throws JSONException {
-        WritableArray writableArray = Arguments.createArray();
-        for(int i=0; i < jsonArray.length(); i++) {
-            Object value = jsonArray.get(i);
-            if (value instanceof Float || value instanceof Double) {
-                writableArray.pushDouble(jsonArray.getDouble(i));
-            } else if (value instanceof Number) {
-                writableArray.pushInt(jsonArray.getInt(i));
-            } else if (value instanceof String) {
-                writableArray.pushString(jsonArray.getString(i));
-            } else if (value instanceof JSONObject) {
-                writableArray.pushMap(jsonToReact(jsonArray.getJSONObject(i)));
-            } else if (value instanceof JSONArray){
-                writableArray.pushArray(jsonToReact(jsonArray.getJSONArray(i)));
-            } else if (value == JSONObject.NULL){
-                writableArray.pushNull();
+    private static void push(WritableArray list, @Nullable Object value) {
+        if (value instanceof String) {
+            list.pushString((String) value);
+        } else if (value instanceof Integer) {
+            list.pushInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            list.pushBoolean((Boolean) value);
+        } else if (value instanceof Long) {
+            final long number = (Long) value;
+            if (number == (int) number) {
+                list.pushInt((int) number);
+            } else {
+                list.pushDouble(number);
             }
+        } else if (value instanceof Number) {
+            list.pushDouble(((Number) value).doubleValue());
+        } else if (value == JSONObject.NULL) {
+            list.pushNull();
         }
-        return writableArray;
     }
 }
@@ -3,68 +3,119 @@ package com.wmspanel.reactstreamer;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.bridge.ReactContextBaseJavaModule;
-import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeArray;
 import com.facebook.react.bridge.WritableNativeMap;
+import com.facebook.react.module.annotations.ReactModule;
 import com.facebook.react.modules.core.PermissionAwareActivity;
 import com.facebook.react.modules.core.PermissionListener;
 
 import com.wmspanel.libcommon.CameraInfo;
-import com.wmspanel.libcommon.CameraRegistry;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-public class LarixStreamerManager extends ReactContextBaseJavaModule
+@ReactModule(name = LarixStreamerManager.NAME)
+public class LarixStreamerManager extends NativeLarixStreamerSpec
         implements PermissionListener {
+    public static final String NAME = "LarixStreamer";
     final static String TAG = "LarixStreamer";
     private static final int CAMERA_REQUEST = 1;
     private Promise permissionPromise;
+    private final StreamerEventBus mEventBus;
+    private final UploadManager mUploads;
 
-    LarixStreamerManager(ReactApplicationContext context) {
+    LarixStreamerManager(ReactApplicationContext context, StreamerEventBus eventBus) {
         super(context);
+        mEventBus = eventBus;
+        CameraCapabilityCache.getInstance(context).prefetch();
+        CodecCapabilityCache.getInstance(context).prefetch();
+        mUploads = new UploadManager(context, eventBus);
     }
 
     @Override
     public String getName() {
-        return "LarixStreamer";
+        return NAME;
+    }
+
+    @Override
+    public void getCameraInfo(double apiVersion, Callback callback) {
+        callback.invoke(buildCameraInfo((int) apiVersion, CameraInfoReact.Query.ALL));
+    }
+
+    @Override
+    public void getCameraInfoAsync(double apiVersion, Promise promise) {
+        WritableMap result = buildCameraInfo((int) apiVersion, CameraInfoReact.Query.ALL);
+        if (result.hasKey("error")) {
+            promise.reject("no_camera", "No camera available");
+            return;
+        }
+        promise.resolve(result);
+    }
+
+    @Override
+    public void queryCameraInfo(ReadableMap query, Promise promise) {
+        final int apiVersion = query.hasKey("api") ? query.getInt("api") : 2;
+        WritableMap result = buildCameraInfo(apiVersion, SettingsUtils.parseCameraQuery(query));
+        if (result.hasKey("error")) {
+            promise.reject("no_camera", "No camera available");
+            return;
+        }
+        promise.resolve(result);
     }
 
-    @ReactMethod
-    public void getCameraInfo(Integer apiVersion, Callback callback) {
-        WritableNativeMap result = new WritableNativeMap();
+    private WritableMap buildCameraInfo(int apiVersion, CameraInfoReact.Query query) {
         Context context = getReactApplicationContext();
         boolean isUsingCam2 = SettingsUtils.isUsingCamera2(context);
         if (isUsingCam2 && apiVersion == 1) {
             isUsingCam2 = false;
         }
-        final List<CameraInfo> cameraList = CameraRegistry.getCameraList(context, isUsingCam2);
+        final List<CameraInfo> cameraList = CameraCapabilityCache.getInstance(context).getCameraList(isUsingCam2);
 
         if (cameraList == null || cameraList.size() == 0) {
+            WritableNativeMap result = new WritableNativeMap();
             result.putString("error", "no_camera");
-            callback.invoke(result);
+            return result;
         }
-        WritableNativeArray cameraInfo = new WritableNativeArray();
-        for(CameraInfo info: cameraList) {
-            final ReadableMap infoMap = CameraInfoReact.toReactMap(info);
-            cameraInfo.pushMap(infoMap);
+        return CameraInfoReact.query(cameraList, query, BridgeFactory.NATIVE);
+    }
+
+    @Override
+    public void getCodecCapabilities(Promise promise) {
+        promise.resolve(CodecCapabilityCache.getInstance(getReactApplicationContext()).toReactMap());
+    }
+
+    @Override
+    public void runEncoderBenchmark(Promise promise) {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer != null && streamer.isStreamerActive()) {
+            promise.reject("busy", "Encoder is in use, stop capture first");
+            return;
         }
-        result.putArray("cameraInfo", cameraInfo);
-        callback.invoke(result);
+        EncoderBenchmark.getInstance(getReactApplicationContext()).run(promise::resolve);
+    }
 
+    @Override
+    public void getEncoderBenchmark(Promise promise) {
+        promise.resolve(EncoderBenchmark.getInstance(getReactApplicationContext()).getReport());
     }
 
-    @ReactMethod
+    @Override
     public void startCapture() {
         StreamerView streamer = StreamerViewManager.getView();
         if (streamer != null) {
@@ -72,7 +123,7 @@ public class LarixStreamerManager extends ReactContextBaseJavaModule
         }
     }
 
-    @ReactMethod
+    @Override
     public void stopCapture() {
         StreamerView streamer = StreamerViewManager.getView();
         if (streamer != null) {
@@ -80,7 +131,7 @@ public class LarixStreamerManager extends ReactContextBaseJavaModule
         }
     }
 
-    @ReactMethod
+    @Override
     public void connectTo(String urlStr, Callback callback){
         StreamerView streamer = StreamerViewManager.getView();
         Integer result = -1;
@@ -92,23 +143,26 @@ public class LarixStreamerManager extends ReactContextBaseJavaModule
         callback.invoke(result);
     }
 
-    @ReactMethod
+    @Override
+    public void connectToAsync(String urlStr, Promise promise) {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer == null) {
+            promise.reject("no_streamer", "No StreamerView instance");
+            return;
+        }
+        int id = streamer.connectTo(urlStr, null);
+        if (id < 0) {
+            promise.reject("connect_failed", "Failed to connect to " + urlStr);
+            return;
+        }
+        promise.resolve(id);
+    }
+
+    @Override
     public void connect(ReadableArray config, Callback callback){
         StreamerView streamer = StreamerViewManager.getView();
         if (streamer != null) {
-            streamer.setLockedOrientation(true, getCurrentActivity());
-
-            WritableArray res = new WritableNativeArray();
-            for(int i= 0; i < config.size(); i++) {
-                ReadableMap params = config.getMap(i);
-                int id = -1;
-                if (params != null) {
-                    id = streamer.connectTo(null, params);
-                }
-                res.pushInt(id);
-            }
-            callback.invoke(res);
-
+            callback.invoke(connectAll(streamer, config));
         } else {
             Log.w(TAG, "No StreamerView instance");
             Integer result = -1;
@@ -116,17 +170,61 @@ public class LarixStreamerManager extends ReactContextBaseJavaModule
         }
     }
 
-    @ReactMethod
-    public void disconnect(Integer connectionId) {
+    @Override
+    public void connectAsync(ReadableArray config, Promise promise) {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer == null) {
+            promise.reject("no_streamer", "No StreamerView instance");
+            return;
+        }
+        promise.resolve(connectAll(streamer, config));
+    }
+
+    // Resolves as soon as this destination is connected, independently of others started with it
+    @Override
+    public void connectDestination(ReadableMap config, Promise promise) {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer == null) {
+            promise.reject("no_streamer", "No StreamerView instance");
+            return;
+        }
+        streamer.setLockedOrientation(true, getCurrentActivity());
+        final String url = config.hasKey("url") ? config.getString("url") : null;
+        streamer.connectAsync(config, (connectionId, error) -> {
+            if (error != null) {
+                promise.reject(error, "Failed to connect to " + url);
+                return;
+            }
+            promise.resolve(connectionId);
+        });
+    }
+
+    private WritableArray connectAll(StreamerView streamer, ReadableArray config) {
+        streamer.setLockedOrientation(true, getCurrentActivity());
+
+        WritableArray res = new WritableNativeArray();
+        for(int i= 0; i < config.size(); i++) {
+            ReadableMap params = config.getMap(i);
+            int id = -1;
+            if (params != null) {
+                id = streamer.connectTo(null, params);
+            }
+            res.pushInt(id);
+        }
+        return res;
+    }
+
+    @Override
+    public void disconnect(double connectionId) {
         StreamerView streamer = StreamerViewManager.getView();
         if (streamer != null) {
-            streamer.releaseConnection(connectionId);
+            streamer.releaseConnection((int) connectionId);
         } else {
             Log.w(TAG, "No StreamerView instance");
         }
     }
 
-    @ReactMethod
+    @Override
     public void disconnectAll() {
         StreamerView streamer = StreamerViewManager.getView();
         if (streamer != null) {
@@ -135,8 +233,8 @@ public class LarixStreamerManager extends ReactContextBaseJavaModule
         }
     }
 
-    @ReactMethod
-    public void takeSnapshot(String filename) {
+    @Override
+    public void takeSnapshot(@Nullable String filename) {
         StreamerView streamer = StreamerViewManager.getView();
         Context context = getReactApplicationContext();
 
@@ -146,8 +244,82 @@ public class LarixStreamerManager extends ReactContextBaseJavaModule
         }
     }
 
-    @ReactMethod
-    public void startRecord(String filename) {
+    @Override
+    public void takeSnapshotAsync(@Nullable String filename, Promise promise) {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer == null) {
+            promise.reject("no_streamer", "No StreamerView instance");
+            return;
+        }
+        File file = streamer.takeSnapshot(getReactApplicationContext().getCacheDir(), filename);
+        if (file == null) {
+            promise.reject("snapshot_failed", "Failed to take snapshot");
+            return;
+        }
+        promise.resolve(file.getAbsolutePath());
+    }
+
+    // {count, interval (seconds), prefix}, count 0 takes frames until stopSnapshotSeries
+    @Override
+    public void startSnapshotSeries(ReadableMap options, Promise promise) {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer == null) {
+            promise.reject("no_streamer", "No StreamerView instance");
+            return;
+        }
+        final int count = options.hasKey("count") ? options.getInt("count") : 0;
+        final double interval = options.hasKey("interval") ? options.getDouble("interval") : 0;
+        if (count == 0 && interval <= 0) {
+            promise.reject("invalid_options", "Timelapse needs an interval");
+            return;
+        }
+        final String prefix = options.hasKey("prefix") ? options.getString("prefix") : null;
+        final String id = streamer.startSnapshotSeries(getReactApplicationContext().getCacheDir(), count, interval, prefix);
+        if (id == null) {
+            promise.reject("snapshot_failed", "Streamer is not running");
+            return;
+        }
+        promise.resolve(id);
+    }
+
+    @Override
+    public void stopSnapshotSeries() {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer != null) {
+            streamer.stopSnapshotSeries();
+        }
+    }
+
+    // JS thread: installs global.__larixPreviewFrame into the runtime
+    @Override
+    public boolean installPreviewFrames() {
+        return PreviewFrameFeed.install(getReactApplicationContext().getJavaScriptContextHolder().get());
+    }
+
+    // {width, height, fps}, frames fit into width x height
+    @Override
+    public void startPreviewFrames(ReadableMap options) {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer == null) {
+            Log.w(TAG, "No StreamerView instance");
+            return;
+        }
+        final int width = options.hasKey("width") ? options.getInt("width") : PreviewFrameFeed.DEFAULT_WIDTH;
+        final int height = options.hasKey("height") ? options.getInt("height") : PreviewFrameFeed.DEFAULT_HEIGHT;
+        final double fps = options.hasKey("fps") ? options.getDouble("fps") : PreviewFrameFeed.DEFAULT_FPS;
+        streamer.startPreviewFrames(width, height, fps);
+    }
+
+    @Override
+    public void stopPreviewFrames() {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer != null) {
+            streamer.stopPreviewFrames();
+        }
+    }
+
+    @Override
+    public void startRecord(@Nullable String filename) {
         StreamerView streamer = StreamerViewManager.getView();
         Context context = getReactApplicationContext();
 
@@ -157,7 +329,7 @@ public class LarixStreamerManager extends ReactContextBaseJavaModule
         }
     }
 
-    @ReactMethod
+    @Override
     public void stopRecord() {
         StreamerView streamer = StreamerViewManager.getView();
         if (streamer != null) {
@@ -165,9 +337,150 @@ public class LarixStreamerManager extends ReactContextBaseJavaModule
         }
     }
 
+    @Override
+    public void saveReplay(double seconds, @Nullable String filename, Promise promise) {
+        StreamerView streamer = StreamerViewManager.getView();
+        if (streamer == null) {
+            promise.reject("no_streamer", "No StreamerView instance");
+            return;
+        }
+        streamer.saveReplay(getReactApplicationContext().getCacheDir(), filename, seconds, (file, durationMs) -> {
+            if (file == null) {
+                promise.reject("replay_failed", "Replay buffer is empty or disabled");
+                return;
+            }
+            WritableNativeMap result = new WritableNativeMap();
+            result.putString("path", file.getAbsolutePath());
+            result.putDouble("duration", durationMs / 1000.0);
+            promise.resolve(result);
+        });
+    }
+
+    @Override
+    public void startUpload(ReadableMap options, Promise promise) {
+        final String path = options.hasKey("path") ? options.getString("path") : null;
+        final String url = options.hasKey("url") ? options.getString("url") : null;
+        if (path == null || url == null || !url.startsWith("http")) {
+            promise.reject("invalid_options", "Upload needs path and http(s) url");
+            return;
+        }
+        // file:// urls as reported by onFileOperation
+        final File file = new File(path.startsWith("file://") ? Uri.parse(path).getPath() : path);
+        if (!file.isFile()) {
+            promise.reject("no_file", "No file " + path);
+            return;
+        }
+        final String method = options.hasKey("method") ? options.getString("method") : "PUT";
+        final Map<String, String> headers = readHeaders(options.hasKey("headers") ? options.getMap("headers") : null);
+        int chunkSize = UploadManager.DEFAULT_CHUNK_SIZE;
+        if (options.hasKey("chunkSize")) {
+            chunkSize = Math.max(64 * 1024, options.getInt("chunkSize") * 1024);
+        }
+        promise.resolve(mUploads.upload(file.getAbsolutePath(), url, method, headers, chunkSize));
+    }
+
+    @Override
+    public void cancelUpload(String uploadId) {
+        mUploads.cancel(uploadId);
+    }
+
+    // Header values are not stored with unfinished uploads, uploads started with headers
+    // in an earlier session wait for them here
+    @Override
+    public void resumeUploads(@Nullable ReadableMap headers) {
+        mUploads.resume(headers != null ? readHeaders(headers) : null);
+    }
+
+    private static Map<String, String> readHeaders(@Nullable ReadableMap headerMap) {
+        final Map<String, String> headers = new LinkedHashMap<>();
+        if (headerMap != null) {
+            final ReadableMapKeySetIterator it = headerMap.keySetIterator();
+            while (it.hasNextKey()) {
+                final String key = it.nextKey();
+                headers.put(key, headerMap.getString(key));
+            }
+        }
+        return headers;
+    }
+
+    // Rates in kbps
+    @Override
+    public void setUploadLimits(ReadableMap limits) {
+        final long maxRate = limits.hasKey("maxRate") ? (long) (limits.getDouble("maxRate") * 1000 / 8) : 0;
+        final long liveRate = limits.hasKey("liveRate") ? (long) (limits.getDouble("liveRate") * 1000 / 8) : 0;
+        mUploads.setLimits(maxRate, liveRate);
+    }
+
+    // Synchronous getters are called directly on the JS thread
+
+    @Override
+    public String getConnectionState(double connectionId) {
+        StreamerView streamer = StreamerViewManager.getView();
+        return streamer == null ? "disconnected" : streamer.getConnectionStateName((int) connectionId);
+    }
+
+    // Encoder bitrate, connections share the encoder so connectionId doesn't matter
+    @Override
+    public double getBitrate(double connectionId) {
+        StreamerView streamer = StreamerViewManager.getView();
+        return streamer == null ? 0.0 : streamer.getEncoderBitrate();
+    }
+
+    @Override
+    public @Nullable String getActiveCameraId() {
+        StreamerView streamer = StreamerViewManager.getView();
+        return streamer == null ? null : streamer.getActiveCameraId();
+    }
+
+    @Override
+    public void getSchedulerMetrics(Promise promise) {
+        promise.resolve(StreamerScheduler.getInstance().getMetrics());
+    }
+
+    @Override
+    public void getTimings(Promise promise) {
+        StreamerView streamer = StreamerViewManager.getView();
+        WritableMap result;
+        if (streamer != null) {
+            result = streamer.getTimings();
+        } else {
+            result = new WritableNativeMap();
+            result.putMap("session", new WritableNativeMap());
+            result.putArray("connections", new WritableNativeArray());
+        }
+        result.putMap("aggregates", StreamerTimings.getAggregates());
+        promise.resolve(result);
+    }
+
+    @Override
+    public void getEventBusMetrics(Promise promise) {
+        promise.resolve(mEventBus.getMetrics());
+    }
 
+    // Required by NativeEventEmitter, lets periodic work pause while nobody listens
+    @Override
+    public void addListener(String eventName) {
+        EventListenerTracker.add(eventName);
+    }
 
-    @ReactMethod
+    @Override
+    public void removeListeners(double count) {
+        EventListenerTracker.remove((int) count);
+    }
+
+    // Withdraws an event declared with addListener by a batch subscriber
+    @Override
+    public void removeListener(String eventName) {
+        EventListenerTracker.remove(eventName);
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        EventListenerTracker.reset();
+    }
+
+    @Override
     public void requestPermissions(Promise promise) {
         PermissionAwareActivity activity = (PermissionAwareActivity) getCurrentActivity();
         if (activity == null) {
@@ -0,0 +1,88 @@
+package com.wmspanel.reactstreamer;
+
+import android.view.Choreographer;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+// Relayout passes of StreamerView, which React does not lay out on requestLayout (see
+// StreamerView.requestLayout). Requests are coalesced into one pass on the next vsync, and
+// the pass does nothing if the view was laid out meanwhile (by the renderer or after a props
+// transaction). A rotation asks for several relayouts (orientation update, streamer re-creation,
+// aspect ratio), they now share a frame.
+//
+// Main thread only, counters are readable from any thread for profiling.
+final class LayoutScheduler implements Choreographer.FrameCallback {
+
+    interface Pass {
+        // false if there was nothing to lay out
+        boolean run();
+    }
+
+    private final Pass mPass;
+    private boolean mScheduled = false;
+
+    private volatile int mRequests = 0;
+    private volatile int mFrames = 0;
+    private volatile int mPasses = 0;
+    private volatile int mSkipped = 0;
+    private volatile int mUnchangedRatio = 0;
+
+    LayoutScheduler(Pass pass) {
+        mPass = pass;
+    }
+
+    void request() {
+        mRequests++;
+        if (mScheduled) {
+            return;
+        }
+        mScheduled = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    // Pass right away, a scheduled one finds nothing left to do
+    void runNow() {
+        run();
+    }
+
+    // setAspectRatio was not called as the ratio is the same
+    void onRatioUnchanged() {
+        mUnchangedRatio++;
+    }
+
+    void release() {
+        if (mScheduled) {
+            mScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        mFrames++;
+        run();
+    }
+
+    private void run() {
+        if (mPass.run()) {
+            mPasses++;
+        } else {
+            mSkipped++;
+        }
+    }
+
+    // requests: requestLayout calls, frames: frame callbacks they were coalesced into,
+    // passes: measure/layout passes done, skipped: passes with nothing to lay out,
+    // unchangedRatio: aspect ratio updates dropped as the ratio was the same
+    WritableMap toReactMap() {
+        WritableMap result = new WritableNativeMap();
+        result.putInt("requests", mRequests);
+        result.putInt("frames", mFrames);
+        result.putInt("passes", mPasses);
+        result.putInt("skipped", mSkipped);
+        result.putInt("unchangedRatio", mUnchangedRatio);
+        return result;
+    }
+}
@@ -0,0 +1,197 @@
+package com.wmspanel.reactstreamer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Low resolution RGBA frames of the streamer output for JS, without files or base64.
+// At the configured rate the engine thread asks libstream for the current frame, the
+// worker scales it into a small reused bitmap and publishes the pixels to native memory.
+// JS reads the latest frame synchronously with global.__larixPreviewFrame(since, target),
+// installed into the JS runtime by install(), and learns about new frames from the
+// coalesced onPreviewFrame event. One frame is in flight at a time, ticks that come
+// while it is still being read back or scaled are skipped.
+final class PreviewFrameFeed {
+
+    private static final String TAG = "PreviewFrameFeed";
+
+    static final int DEFAULT_WIDTH = 320;
+    static final int DEFAULT_HEIGHT = 180;
+    static final double DEFAULT_FPS = 2.0;
+    private static final double MAX_FPS = 15.0;
+
+    private static boolean sLoaded = false;
+    private static volatile boolean sInstalled = false;
+
+    interface Listener {
+        // worker thread
+        void onFrame(long sequence, int width, int height, long timestamp);
+    }
+
+    private final StreamerEngine mEngine;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final AtomicBoolean mBusy = new AtomicBoolean();
+    private final ExecutorService mWorker = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        r.run();
+    }, TAG));
+
+    private volatile int mMaxWidth = DEFAULT_WIDTH;
+    private volatile int mMaxHeight = DEFAULT_HEIGHT;
+
+    // main thread only
+    private boolean mRunning = false;
+    private long mIntervalMs;
+
+    // worker thread only
+    @Nullable private Bitmap mBitmap;
+    @Nullable private ByteBuffer mPixels;
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mRect = new Rect();
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            capture();
+            mHandler.postDelayed(this, mIntervalMs);
+        }
+    };
+
+    PreviewFrameFeed(StreamerEngine engine, Handler handler, Listener listener) {
+        mEngine = engine;
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    // JS thread, runtime is the pointer from JavaScriptContextHolder
+    static synchronized boolean install(long runtime) {
+        if (runtime == 0) {
+            // remote debugging, no JSI runtime on the device
+            return false;
+        }
+        if (!sLoaded) {
+            try {
+                System.loadLibrary("reactstreamer");
+                sLoaded = true;
+            } catch (UnsatisfiedLinkError e) {
+                Log.e(TAG, "Native library is not available", e);
+                return false;
+            }
+        }
+        sInstalled = nativeInstall(runtime);
+        return sInstalled;
+    }
+
+    // Main thread. Frames fit into maxWidth x maxHeight, keeping the aspect ratio.
+    void start(int maxWidth, int maxHeight, double fps) {
+        mMaxWidth = maxWidth > 0 ? maxWidth : DEFAULT_WIDTH;
+        mMaxHeight = maxHeight > 0 ? maxHeight : DEFAULT_HEIGHT;
+        final double rate = fps > 0 ? Math.min(fps, MAX_FPS) : DEFAULT_FPS;
+        mIntervalMs = Math.round(1000 / rate);
+        mHandler.removeCallbacks(mTick);
+        mRunning = true;
+        mHandler.post(mTick);
+    }
+
+    void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mTick);
+    }
+
+    // Streamer released, a readback in flight won't be delivered
+    void reset() {
+        mBusy.set(false);
+        if (sInstalled) {
+            nativeClear();
+        }
+    }
+
+    // Main thread, a new streamer has nothing in flight
+    void onStreamerCreated() {
+        mBusy.set(false);
+    }
+
+    void release() {
+        stop();
+        reset();
+        mWorker.shutdown();
+    }
+
+    private void capture() {
+        if (!sInstalled || !mEngine.isActive() || !mBusy.compareAndSet(false, true)) {
+            return;
+        }
+        mEngine.post(streamer -> streamer.takeSnapshot(bitmap -> {
+            if (bitmap == null) {
+                mBusy.set(false);
+                return;
+            }
+            try {
+                mWorker.execute(() -> {
+                    try {
+                        publish(bitmap);
+                    } finally {
+                        bitmap.recycle();
+                        mBusy.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // released meanwhile
+                bitmap.recycle();
+                mBusy.set(false);
+            }
+        }), () -> mBusy.set(false));
+    }
+
+    // Worker thread
+    private void publish(Bitmap source) {
+        final float scale = Math.min(1.0f, Math.min((float) mMaxWidth / source.getWidth(),
+                (float) mMaxHeight / source.getHeight()));
+        final int width = Math.max(1, Math.round(source.getWidth() * scale));
+        final int height = Math.max(1, Math.round(source.getHeight() * scale));
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mPixels = ByteBuffer.allocateDirect(mBitmap.getByteCount());
+        }
+        mRect.set(0, 0, width, height);
+        mCanvas.setBitmap(mBitmap);
+        mCanvas.drawBitmap(source, null, mRect, mPaint);
+        mCanvas.setBitmap(null);
+
+        final ByteBuffer pixels = mPixels;
+        pixels.rewind();
+        // ARGB_8888 is stored as R, G, B, A bytes
+        mBitmap.copyPixelsToBuffer(pixels);
+        final long timestamp = SystemClock.elapsedRealtime();
+        final long sequence = nativePublish(pixels, width, height, timestamp);
+        mListener.onFrame(sequence, width, height, timestamp);
+    }
+
+    private static native boolean nativeInstall(long runtime);
+
+    // Copies width * height * 4 bytes, returns the frame sequence number
+    private static native long nativePublish(ByteBuffer pixels, int width, int height, long timestamp);
+
+    private static native void nativeClear();
+}
@@ -0,0 +1,49 @@
+package com.wmspanel.reactstreamer;
+
+import com.wmspanel.libstream.Streamer;
+
+import java.util.Random;
+
+// Decides whether a dropped connection is re-created natively and how long to wait.
+// Delay grows exponentially from initialDelayMs up to maxDelayMs, each delay is spread
+// by +/- jitter so several destinations dropped by the same network blip don't
+// reconnect in lockstep. Authentication failures are never retried.
+final class ReconnectPolicy {
+
+    static final class Config {
+        long initialDelayMs = 1_000;
+        long maxDelayMs = 30_000;
+        float multiplier = 2.0f;
+        // fraction of the delay, 0..1
+        float jitter = 0.3f;
+        // 0 - retry until disconnected by the app
+        int maxAttempts = 0;
+    }
+
+    private final Config mConfig;
+    private final Random mRandom;
+
+    ReconnectPolicy(Config config, Random random) {
+        mConfig = config;
+        mRandom = random;
+    }
+
+    // attempt: 1-based number of the retry about to be scheduled
+    boolean shouldRetry(Streamer.Status status, int attempt) {
+        if (status == Streamer.Status.AUTH_FAIL) {
+            return false;
+        }
+        return mConfig.maxAttempts <= 0 || attempt <= mConfig.maxAttempts;
+    }
+
+    long delayMs(int attempt) {
+        double delay = mConfig.initialDelayMs;
+        for (int i = 1; i < attempt && delay < mConfig.maxDelayMs; i++) {
+            delay *= mConfig.multiplier;
+        }
+        delay = Math.min(delay, mConfig.maxDelayMs);
+        final double spread = delay * mConfig.jitter;
+        delay += spread * (2 * mRandom.nextDouble() - 1);
+        return Math.max(0, Math.round(delay));
+    }
+}
@@ -0,0 +1,547 @@
+package com.wmspanel.reactstreamer;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Rolling buffer of the last seconds of the stream for instant replay and record pre-roll.
+// The streamer's recorder keeps writing the packets the encoder already produces for the
+// connections into short mp4 segments, split every segmentMs; every file the recorder
+// writes starts on a key frame. Closed segments are kept in cache until they are no longer
+// needed to cover durationMs or the total size exceeds maxBytes, so nothing is encoded
+// twice and the buffer costs no heap besides the segment list.
+// Replays and recordings are assembled by remuxing whole segments, without decoding.
+// Segments of different formats (a degradation step, a new video config or orientation)
+// can't share muxer tracks: a replay keeps the newest run of compatible segments, a recording
+// is written in parts, one file per run.
+//
+// Bookkeeping runs on the main thread, remuxing on a single writer thread.
+final class ReplayBuffer {
+
+    private static final String TAG = "ReplayBuffer";
+
+    private static final int MIN_SAMPLE_BUFFER = 1 << 20;
+    private static final long DEFAULT_FRAME_US = 33_333;
+
+    static final class Config {
+        long durationMs = 30_000;
+        // included into startRecord, 0 to record from the call only
+        long preRollMs = 30_000;
+        long maxBytes = 64L * 1024 * 1024;
+        long segmentMs = 2_000;
+    }
+
+    interface Callback {
+        // Once per written file: the requested one, then for a recording that spans format
+        // changes its parts name_2.mp4, name_3.mp4...
+        void onWritten(File file, boolean success, long durationMs);
+    }
+
+    private static final class Segment {
+        final File file;
+        final long startMs;
+        long endMs = -1;
+        long bytes = 0;
+        int refs = 0;
+        boolean evicted = false;
+
+        Segment(File file, long startMs) {
+            this.file = file;
+            this.startMs = startMs;
+        }
+    }
+
+    // Replay or recording waiting for the segment that was open at request time
+    private static final class Request {
+        final File file;
+        final Callback callback;
+        final Segment last;
+        final long durationMs;
+        @Nullable final List<Segment> segments;
+
+        Request(File file, Callback callback, Segment last, long durationMs, @Nullable List<Segment> segments) {
+            this.file = file;
+            this.callback = callback;
+            this.last = last;
+            this.durationMs = durationMs;
+            this.segments = segments;
+        }
+    }
+
+    // segment directories of buffers which may still have files in use
+    private static final Set<String> sLiveDirs = new HashSet<>();
+    private static final ExecutorService sWriter = Executors.newSingleThreadExecutor();
+
+    private final Config mConfig;
+    private final File mDir;
+    private final Handler mHandler;
+    // closed segments, oldest first
+    private final ArrayDeque<Segment> mSegments = new ArrayDeque<>();
+    // started by the recorder, waiting for close, oldest first
+    private final ArrayDeque<Segment> mOpen = new ArrayDeque<>();
+    private final List<Request> mRequests = new ArrayList<>();
+    // segments of the running recording
+    @Nullable private List<Segment> mSession;
+    private long mBytes = 0;
+    private int mNextIndex = 0;
+    private int mWriting = 0;
+    private boolean mReleased = false;
+
+    ReplayBuffer(Config config, File parent, Handler handler) {
+        mConfig = config;
+        mHandler = handler;
+        mDir = new File(parent, Long.toString(SystemClock.elapsedRealtime()));
+        synchronized (sLiveDirs) {
+            // left over by a crash or a released buffer that never got its last callback
+            final File[] stale = parent.listFiles();
+            if (stale != null) {
+                for (File dir : stale) {
+                    if (!sLiveDirs.contains(dir.getName())) {
+                        deleteDir(dir);
+                    }
+                }
+            }
+            sLiveDirs.add(mDir.getName());
+        }
+        if (!mDir.mkdirs()) {
+            Log.w(TAG, "Failed to create " + mDir);
+        }
+    }
+
+    long getSegmentMs() {
+        return mConfig.segmentMs;
+    }
+
+    boolean hasOpenSegments() {
+        return !mOpen.isEmpty();
+    }
+
+    boolean isRecording() {
+        return mSession != null;
+    }
+
+    // File for the recorder to start or split into
+    File nextSegment() {
+        final Segment segment = new Segment(new File(mDir, "seg_" + mNextIndex++ + ".mp4"),
+                SystemClock.elapsedRealtime());
+        if (mSession != null) {
+            segment.refs++;
+            mSession.add(segment);
+        }
+        mOpen.add(segment);
+        return segment.file;
+    }
+
+    // Recorder finished the oldest open segment
+    void onSegmentClosed(boolean success) {
+        final Segment segment = mOpen.poll();
+        if (segment == null) {
+            return;
+        }
+        final Segment next = mOpen.peek();
+        segment.endMs = next != null ? next.startMs : SystemClock.elapsedRealtime();
+        segment.bytes = segment.file.length();
+        if (success && segment.bytes > 0) {
+            mSegments.add(segment);
+            mBytes += segment.bytes;
+            evict();
+        } else {
+            Log.w(TAG, "Segment " + segment.file.getName() + " failed");
+            segment.evicted = true;
+            if (segment.refs == 0) {
+                delete(segment);
+            }
+        }
+        final Iterator<Request> it = mRequests.iterator();
+        while (it.hasNext()) {
+            final Request request = it.next();
+            if (request.last == segment) {
+                it.remove();
+                write(request);
+            }
+        }
+        releaseIfDone();
+    }
+
+    // Writes the last durationMs once the open segment closes, the caller splits the recorder
+    boolean saveReplay(File file, long durationMs, Callback callback) {
+        final Segment last = mOpen.peekLast();
+        if (mReleased || last == null) {
+            return false;
+        }
+        mRequests.add(new Request(file, callback, last, durationMs, null));
+        return true;
+    }
+
+    // Starts a recording from the closed segments within preRollMs
+    void startRecording() {
+        if (mSession != null) {
+            return;
+        }
+        final long since = SystemClock.elapsedRealtime() - mConfig.preRollMs;
+        final List<Segment> session = new ArrayList<>();
+        for (Segment segment : mSegments) {
+            if (mConfig.preRollMs > 0 && segment.endMs > since) {
+                segment.refs++;
+                session.add(segment);
+            }
+        }
+        // open segment belongs to the recording as well, it is closed by the next split
+        for (Segment segment : mOpen) {
+            segment.refs++;
+            session.add(segment);
+        }
+        mSession = session;
+    }
+
+    // Finishes the recording with the open segment, the caller splits the recorder
+    boolean stopRecording(File file, Callback callback) {
+        final List<Segment> session = mSession;
+        final Segment last = mOpen.peekLast();
+        mSession = null;
+        if (session == null) {
+            return false;
+        }
+        if (last == null) {
+            write(new Request(file, callback, null, 0, session));
+            return true;
+        }
+        mRequests.add(new Request(file, callback, last, 0, session));
+        return true;
+    }
+
+    // Pending requests fail, files are removed once the writer is done with them
+    void release() {
+        mReleased = true;
+        for (Request request : mRequests) {
+            if (request.segments != null) {
+                unpin(request.segments);
+            }
+            request.callback.onWritten(request.file, false, 0);
+        }
+        mRequests.clear();
+        if (mSession != null) {
+            unpin(mSession);
+            mSession = null;
+        }
+        for (Segment segment : mSegments) {
+            segment.evicted = true;
+            if (segment.refs == 0) {
+                delete(segment);
+            }
+        }
+        mSegments.clear();
+        mBytes = 0;
+        releaseIfDone();
+    }
+
+    private void releaseIfDone() {
+        if (!mReleased || mWriting > 0 || !mOpen.isEmpty()) {
+            return;
+        }
+        deleteDir(mDir);
+        synchronized (sLiveDirs) {
+            sLiveDirs.remove(mDir.getName());
+        }
+    }
+
+    // Oldest segment goes when the rest still covers the duration or the size is over the cap
+    private void evict() {
+        while (mSegments.size() > 1) {
+            final Segment oldest = mSegments.peek();
+            final Iterator<Segment> it = mSegments.iterator();
+            it.next();
+            final long restMs = mSegments.peekLast().endMs - it.next().startMs;
+            if (mBytes <= mConfig.maxBytes && restMs < mConfig.durationMs) {
+                break;
+            }
+            mSegments.poll();
+            mBytes -= oldest.bytes;
+            oldest.evicted = true;
+            if (oldest.refs == 0) {
+                delete(oldest);
+            }
+        }
+    }
+
+    private void write(Request request) {
+        final List<Segment> segments;
+        if (request.segments != null) {
+            segments = request.segments;
+        } else {
+            segments = new ArrayList<>();
+            long coveredMs = 0;
+            final Iterator<Segment> it = mSegments.descendingIterator();
+            while (it.hasNext() && coveredMs < request.durationMs) {
+                final Segment segment = it.next();
+                segment.refs++;
+                segments.add(0, segment);
+                coveredMs += segment.endMs - segment.startMs;
+            }
+        }
+        final List<File> files = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            if (segment.bytes > 0 && segment.endMs >= 0) {
+                files.add(segment.file);
+            }
+        }
+        if (files.isEmpty()) {
+            unpin(segments);
+            request.callback.onWritten(request.file, false, 0);
+            return;
+        }
+        final boolean recording = request.segments != null;
+        mWriting++;
+        sWriter.execute(() -> {
+            final List<File> outputs = new ArrayList<>();
+            final List<Long> durationsUs = new ArrayList<>();
+            List<List<File>> runs = splitByFormat(files);
+            if (!recording && runs.size() > 1) {
+                // replay is the last seconds in one file
+                runs = runs.subList(runs.size() - 1, runs.size());
+            }
+            if (runs.isEmpty()) {
+                Log.e(TAG, "No readable segments");
+                outputs.add(request.file);
+                durationsUs.add(-1L);
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                final File out = partFile(request.file, i);
+                long durationUs = -1;
+                try {
+                    durationUs = concat(runs.get(i), out);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, Log.getStackTraceString(e));
+                    if (!out.delete()) {
+                        Log.w(TAG, "Failed to delete " + out);
+                    }
+                }
+                outputs.add(out);
+                durationsUs.add(durationUs);
+            }
+            mHandler.post(() -> {
+                mWriting--;
+                unpin(segments);
+                for (int i = 0; i < outputs.size(); i++) {
+                    final long durationUs = durationsUs.get(i);
+                    request.callback.onWritten(outputs.get(i), durationUs >= 0, Math.max(0, durationUs / 1000));
+                }
+                releaseIfDone();
+            });
+        });
+    }
+
+    // file for part 0, file_2.mp4 for part 1 and so on
+    static File partFile(File file, int part) {
+        if (part == 0) {
+            return file;
+        }
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        final String base = dot > 0 ? name.substring(0, dot) : name;
+        final String ext = dot > 0 ? name.substring(dot) : "";
+        return new File(file.getParentFile(), base + "_" + (part + 1) + ext);
+    }
+
+    private void unpin(List<Segment> segments) {
+        for (Segment segment : segments) {
+            if (--segment.refs == 0 && segment.evicted) {
+                delete(segment);
+            }
+        }
+    }
+
+    private static void delete(Segment segment) {
+        if (segment.file.exists() && !segment.file.delete()) {
+            Log.w(TAG, "Failed to delete " + segment.file);
+        }
+    }
+
+    private static void deleteDir(File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Log.w(TAG, "Failed to delete " + file);
+                }
+            }
+        }
+        if (dir.exists() && !dir.delete()) {
+            Log.w(TAG, "Failed to delete " + dir);
+        }
+    }
+
+    // Tracks of one segment, null when the segment can't be read
+    @Nullable
+    private static MediaFormat[] readFormats(File file) {
+        final MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getPath());
+            MediaFormat video = null;
+            MediaFormat audio = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                final MediaFormat format = extractor.getTrackFormat(i);
+                final String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/") && video == null) {
+                    video = format;
+                } else if (mime != null && mime.startsWith("audio/") && audio == null) {
+                    audio = format;
+                }
+            }
+            return new MediaFormat[]{video, audio};
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable segment " + file.getName());
+            return null;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    // Same codecs and video size, so samples can continue the same muxer tracks
+    private static boolean isCompatible(MediaFormat[] a, MediaFormat[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if ((a[i] == null) != (b[i] == null)) {
+                return false;
+            }
+            if (a[i] != null && !a[i].getString(MediaFormat.KEY_MIME).equals(b[i].getString(MediaFormat.KEY_MIME))) {
+                return false;
+            }
+        }
+        final MediaFormat va = a[0];
+        final MediaFormat vb = b[0];
+        return va == null || (va.getInteger(MediaFormat.KEY_WIDTH) == vb.getInteger(MediaFormat.KEY_WIDTH)
+                && va.getInteger(MediaFormat.KEY_HEIGHT) == vb.getInteger(MediaFormat.KEY_HEIGHT));
+    }
+
+    // Consecutive runs of segments with compatible formats, unreadable segments are left out
+    private static List<List<File>> splitByFormat(List<File> files) {
+        final List<List<File>> runs = new ArrayList<>();
+        List<File> run = null;
+        MediaFormat[] runFormat = null;
+        for (File file : files) {
+            final MediaFormat[] tracks = readFormats(file);
+            if (tracks == null) {
+                continue;
+            }
+            if (run == null || !isCompatible(runFormat, tracks)) {
+                run = new ArrayList<>();
+                runs.add(run);
+                runFormat = tracks;
+            }
+            run.add(file);
+        }
+        return runs;
+    }
+
+    // Joins segments of one format into one mp4 with a continuous timeline, returns its
+    // duration in us. Muxer tracks are set up from the first segment.
+    static long concat(List<File> files, File out) throws IOException {
+        final MediaFormat[] first = readFormats(files.get(0));
+        if (first == null) {
+            throw new IOException("Unreadable segment " + files.get(0).getName());
+        }
+
+        final MediaMuxer muxer = new MediaMuxer(out.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        final int[] muxerTracks = {-1, -1};
+        int bufferSize = MIN_SAMPLE_BUFFER;
+        long frameUs = DEFAULT_FRAME_US;
+        for (int i = 0; i < first.length; i++) {
+            if (first[i] == null) {
+                continue;
+            }
+            muxerTracks[i] = muxer.addTrack(first[i]);
+            if (first[i].containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                bufferSize = Math.max(bufferSize, first[i].getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+            }
+        }
+        if (first[0] != null && first[0].containsKey(MediaFormat.KEY_FRAME_RATE)) {
+            frameUs = 1_000_000L / Math.max(1, first[0].getInteger(MediaFormat.KEY_FRAME_RATE));
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+        long offsetUs = 0;
+        boolean started = false;
+        try {
+            muxer.start();
+            started = true;
+            for (File file : files) {
+                offsetUs = appendSegment(file, muxer, muxerTracks, buffer, info, offsetUs, frameUs);
+            }
+        } finally {
+            try {
+                if (started) {
+                    muxer.stop();
+                }
+            } finally {
+                muxer.release();
+            }
+        }
+        return offsetUs;
+    }
+
+    // Returns the timeline position after the segment
+    private static long appendSegment(File file, MediaMuxer muxer, int[] muxerTracks, ByteBuffer buffer,
+                                      MediaCodec.BufferInfo info, long offsetUs, long frameUs) throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getPath());
+            // extractor track -> 0 video, 1 audio
+            final int[] kinds = new int[extractor.getTrackCount()];
+            for (int i = 0; i < kinds.length; i++) {
+                final String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+                kinds[i] = mime == null ? -1 : mime.startsWith("video/") ? 0 : mime.startsWith("audio/") ? 1 : -1;
+                if (kinds[i] >= 0 && muxerTracks[kinds[i]] >= 0) {
+                    extractor.selectTrack(i);
+                }
+            }
+            long baseUs = -1;
+            long endUs = offsetUs;
+            boolean keyFrameSeen = muxerTracks[0] < 0;
+            while (true) {
+                final int size = extractor.readSampleData(buffer, 0);
+                if (size < 0) {
+                    break;
+                }
+                final int kind = kinds[extractor.getSampleTrackIndex()];
+                final long sampleUs = extractor.getSampleTime();
+                final boolean sync = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
+                if (kind == 0 && !keyFrameSeen) {
+                    // recorder files start on a key frame, this only guards against a broken one
+                    keyFrameSeen = sync;
+                }
+                if (keyFrameSeen && kind >= 0) {
+                    if (baseUs < 0) {
+                        baseUs = sampleUs;
+                    }
+                    final long ptsUs = offsetUs + Math.max(0, sampleUs - baseUs);
+                    info.set(0, size, ptsUs, sync ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+                    muxer.writeSampleData(muxerTracks[kind], buffer, info);
+                    endUs = Math.max(endUs, ptsUs + frameUs);
+                }
+                extractor.advance();
+            }
+            return endUs;
+        } finally {
+            extractor.release();
+        }
+    }
+}
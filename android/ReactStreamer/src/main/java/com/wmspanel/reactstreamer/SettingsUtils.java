@@ -3,14 +3,13 @@ package com.wmspanel.reactstreamer;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
+import android.graphics.Bitmap;
 import android.hardware.camera2.CameraMetadata;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.util.Log;
 
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.wmspanel.libcommon.CameraInfo;
 import com.wmspanel.libstream.CameraConfig;
@@ -23,6 +22,9 @@ import com.wmspanel.libstream.VideoConfig;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -117,37 +119,37 @@ public class SettingsUtils {
          (E.g., Nexus 6 has FULL support on back camera, LIMITED support on front camera.)
          For now, devices with only LEGACY support should still use Camera API.
         */
+        // Hardware levels come from CameraCapabilityCache, so CameraCharacteristics
+        // are only queried once per OS build
+        final Map<String, Integer> levels = CameraCapabilityCache.getInstance(context).getHardwareLevels();
+        if (levels.isEmpty()) {
+            return false;
+        }
         boolean result = true;
-        android.hardware.camera2.CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            for (String cameraId : manager.getCameraIdList()) {
-                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-                int support = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
-
-                switch (support) {
-                    case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY:
-                        Log.d(TAG, "Camera " + cameraId + " has LEGACY Camera2 support");
-                        break;
-                    case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED:
-                        Log.d(TAG, "Camera " + cameraId + " has LIMITED Camera2 support");
-                        break;
-                    case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL:
-                        Log.d(TAG, "Camera " + cameraId + " has FULL Camera2 support");
-                        break;
-                    default:
-                        Log.d(TAG, "Camera " + cameraId + " has LEVEL_3 or greater Camera2 support");
-                        break;
-                }
+        for (Map.Entry<String, Integer> entry : levels.entrySet()) {
+            final String cameraId = entry.getKey();
+            final int support = entry.getValue();
 
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N
-                        && support == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
-                    // Can't use Camera2, bul let other cameras info to log
-                    result = false;
-                }
+            switch (support) {
+                case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY:
+                    Log.d(TAG, "Camera " + cameraId + " has LEGACY Camera2 support");
+                    break;
+                case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED:
+                    Log.d(TAG, "Camera " + cameraId + " has LIMITED Camera2 support");
+                    break;
+                case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL:
+                    Log.d(TAG, "Camera " + cameraId + " has FULL Camera2 support");
+                    break;
+                default:
+                    Log.d(TAG, "Camera " + cameraId + " has LEVEL_3 or greater Camera2 support");
+                    break;
+            }
+
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N
+                    && support == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                // Can't use Camera2, bul let other cameras info to log
+                result = false;
             }
-        } catch (CameraAccessException | IllegalArgumentException e) {
-            Log.e(TAG, Log.getStackTraceString(e));
-            result = false;
         }
         return result;
     }
@@ -179,16 +181,12 @@ public class SettingsUtils {
     public static boolean addDefaultCameras(final StreamerGLBuilder builder,
                                             final List<CameraInfo> cameraList,
                                             final CameraInfo activeCameraInfo,
-                                            final Streamer.Size videoSize,
-                                            final float fps) {
+                                            final FormatNegotiator negotiator) {
         // start adding cameras from default camera, then add second camera
-        // larix uses same resolution for camera preview and stream to simplify setup
+        // each camera gets its own negotiated size and fps range
 
         // add first camera to flip list, make sure you called setVideoConfig before
-        final CameraConfig cameraConfig = new CameraConfig();
-        cameraConfig.cameraId = activeCameraInfo.cameraId;
-        cameraConfig.videoSize = videoSize;
-        cameraConfig.fpsRange = nearestFpsRange(activeCameraInfo.fpsRanges, fps, false);
+        final CameraConfig cameraConfig = negotiator.negotiate(activeCameraInfo).toCameraConfig();
 
         builder.addCamera(cameraConfig);
         Log.d(TAG, "Camera #" + cameraConfig.cameraId + " resolution: " + cameraConfig.videoSize);
@@ -204,10 +202,7 @@ public class SettingsUtils {
                     continue;
                 }
                 // add next camera to flip list
-                final CameraConfig flipCameraConfig = new CameraConfig();
-                flipCameraConfig.cameraId = cameraInfo.cameraId;
-                flipCameraConfig.videoSize = findFlipSize(cameraInfo, videoSize);
-                flipCameraConfig.fpsRange = nearestFpsRange(activeCameraInfo.fpsRanges, fps, false);
+                final CameraConfig flipCameraConfig = negotiator.negotiate(cameraInfo).toCameraConfig();
 
                 builder.addCamera(flipCameraConfig);
                 Log.d(TAG, "Camera #" + flipCameraConfig.cameraId + " resolution: " + flipCameraConfig.videoSize);
@@ -263,6 +258,222 @@ public class SettingsUtils {
         return flipSize;
     }
 
+    // Levels for DegradationPolicy, best first: negotiated size and fps, 30 fps if it was higher,
+    // smaller record sizes with the same aspect ratio (as in findFlipSize), then lower fps
+    // at the smallest size. Sizes are in camera (landscape) orientation.
+    static List<DegradationPolicy.Level> buildDegradationLevels(CameraInfo cameraInfo,
+                                                                FormatNegotiator.Result format,
+                                                                DegradationPolicy.Config config) {
+        List<DegradationPolicy.Level> levels = new ArrayList<>();
+        final Streamer.Size videoSize = format.size;
+        Streamer.FpsRange range = format.fpsRange;
+        int levelFps = Math.round(format.fps);
+        levels.add(createLevel(videoSize, levelFps, range));
+
+        if (levelFps > 30) {
+            Streamer.FpsRange range30 = nearestFpsRange(cameraInfo.fpsRanges, 30, true);
+            if (range30 != null) {
+                range = range30;
+                levelFps = 30;
+                levels.add(createLevel(videoSize, levelFps, range));
+            }
+        }
+
+        final double targetAspectRatio = (double) videoSize.width / videoSize.height;
+        List<Streamer.Size> sizes = new ArrayList<>();
+        for (Streamer.Size size : cameraInfo.recordSizes) {
+            if (size.width >= videoSize.width || size.height < config.minHeight || sizes.contains(size)) {
+                continue;
+            }
+            final double aspectDiff = targetAspectRatio / ((double) size.width / size.height) - 1;
+            if (Math.abs(aspectDiff) < 0.01) {
+                sizes.add(size);
+            }
+        }
+        Collections.sort(sizes, (a, b) -> b.width - a.width);
+        Streamer.Size lowest = videoSize;
+        for (Streamer.Size size : sizes) {
+            levels.add(createLevel(size, levelFps, range));
+            lowest = size;
+        }
+
+        for (int lowerFps : new int[]{24, 15}) {
+            if (lowerFps >= levelFps || lowerFps < config.minFps) {
+                continue;
+            }
+            Streamer.FpsRange lowerRange = nearestFpsRange(cameraInfo.fpsRanges, lowerFps, true);
+            if (lowerRange != null) {
+                levelFps = lowerFps;
+                levels.add(createLevel(lowest, levelFps, lowerRange));
+            }
+        }
+        return levels;
+    }
+
+    private static DegradationPolicy.Level createLevel(Streamer.Size size, int fps, @Nullable Streamer.FpsRange range) {
+        return new DegradationPolicy.Level(size.width, size.height, fps,
+                range == null ? fps : range.fpsMin, range == null ? fps : range.fpsMax);
+    }
+
+    // Dwell times are in seconds. Returns null if degradation is off.
+    @Nullable
+    static DegradationPolicy.Config parseDegradationConfig(@Nullable ReadableMap settings) {
+        if (settings == null || (settings.hasKey("enabled") && !settings.getBoolean("enabled"))) {
+            return null;
+        }
+        final DegradationPolicy.Config config = new DegradationPolicy.Config();
+        if (settings.hasKey("degradeAfter")) {
+            config.degradeAfterMs = (long) (settings.getDouble("degradeAfter") * 1000);
+        }
+        if (settings.hasKey("recoverAfter")) {
+            config.recoverAfterMs = (long) (settings.getDouble("recoverAfter") * 1000);
+            config.maxRecoverAfterMs = Math.max(config.maxRecoverAfterMs, config.recoverAfterMs);
+        }
+        if (settings.hasKey("minDwell")) {
+            config.minDwellMs = (long) (settings.getDouble("minDwell") * 1000);
+        }
+        if (settings.hasKey("minHeight")) {
+            config.minHeight = settings.getInt("minHeight");
+        }
+        if (settings.hasKey("minFps")) {
+            config.minFps = settings.getInt("minFps");
+        }
+        return config;
+    }
+
+    // Delays in seconds, native reconnect is off unless the prop is set
+    @Nullable
+    static ReconnectPolicy.Config parseReconnectConfig(@Nullable ReadableMap settings) {
+        if (settings == null || (settings.hasKey("enabled") && !settings.getBoolean("enabled"))) {
+            return null;
+        }
+        final ReconnectPolicy.Config config = new ReconnectPolicy.Config();
+        if (settings.hasKey("initialDelay")) {
+            config.initialDelayMs = (long) (settings.getDouble("initialDelay") * 1000);
+        }
+        if (settings.hasKey("maxDelay")) {
+            config.maxDelayMs = (long) (settings.getDouble("maxDelay") * 1000);
+        }
+        config.maxDelayMs = Math.max(config.maxDelayMs, config.initialDelayMs);
+        if (settings.hasKey("multiplier")) {
+            config.multiplier = Math.max(1.0f, (float) settings.getDouble("multiplier"));
+        }
+        if (settings.hasKey("jitter")) {
+            config.jitter = Math.max(0.0f, Math.min(1.0f, (float) settings.getDouble("jitter")));
+        }
+        if (settings.hasKey("maxAttempts")) {
+            config.maxAttempts = settings.getInt("maxAttempts");
+        }
+        return config;
+    }
+
+    // Durations in seconds, size in megabytes; replay is off unless the prop is set
+    @Nullable
+    static ReplayBuffer.Config parseReplayConfig(@Nullable ReadableMap settings) {
+        if (settings == null || (settings.hasKey("enabled") && !settings.getBoolean("enabled"))) {
+            return null;
+        }
+        final ReplayBuffer.Config config = new ReplayBuffer.Config();
+        if (settings.hasKey("duration")) {
+            config.durationMs = (long) (Math.max(1.0, settings.getDouble("duration")) * 1000);
+        }
+        config.preRollMs = config.durationMs;
+        if (settings.hasKey("preRoll")) {
+            config.preRollMs = (long) (Math.max(0.0, Math.min(settings.getDouble("preRoll") * 1000, config.durationMs)));
+        }
+        if (settings.hasKey("maxSize")) {
+            config.maxBytes = (long) (Math.max(1.0, settings.getDouble("maxSize")) * 1024 * 1024);
+        }
+        if (settings.hasKey("segmentDuration")) {
+            config.segmentMs = (long) (Math.max(1.0, settings.getDouble("segmentDuration")) * 1000);
+        }
+        return config;
+    }
+
+    // Format jpeg/png/webp, size is a bounding box the frame is scaled down into
+    static SnapshotPipeline.Config parseSnapshotConfig(@Nullable ReadableMap settings) {
+        final SnapshotPipeline.Config config = new SnapshotPipeline.Config();
+        if (settings == null) {
+            return config;
+        }
+        if (settings.hasKey("format")) {
+            final String format = settings.getString("format");
+            if ("png".equals(format)) {
+                config.format = Bitmap.CompressFormat.PNG;
+                config.extension = "png";
+            } else if ("webp".equals(format)) {
+                config.format = Bitmap.CompressFormat.WEBP;
+                config.extension = "webp";
+            }
+        }
+        if (settings.hasKey("quality")) {
+            config.quality = Math.max(0, Math.min(100, settings.getInt("quality")));
+        }
+        if (settings.hasKey("width")) {
+            config.maxWidth = Math.max(0, settings.getInt("width"));
+        }
+        if (settings.hasKey("height")) {
+            config.maxHeight = Math.max(0, settings.getInt("height"));
+        }
+        return config;
+    }
+
+    // Sizes in MB, onLowSpace is "split" or "stop"
+    static StorageManager.Config parseStorageConfig(@Nullable ReadableMap settings) {
+        final StorageManager.Config config = new StorageManager.Config();
+        if (settings == null) {
+            return config;
+        }
+        if (settings.hasKey("quota")) {
+            config.quotaBytes = (long) (Math.max(0.0, settings.getDouble("quota")) * 1024 * 1024);
+        }
+        if (settings.hasKey("minFree")) {
+            config.minFreeBytes = (long) (Math.max(0.0, settings.getDouble("minFree")) * 1024 * 1024);
+        }
+        if (settings.hasKey("onLowSpace")) {
+            config.splitOnLowSpace = "split".equals(settings.getString("onLowSpace"));
+        }
+        return config;
+    }
+
+    static CameraInfoReact.Query parseCameraQuery(@Nullable ReadableMap settings) {
+        final CameraInfoReact.Query query = new CameraInfoReact.Query();
+        if (settings == null) {
+            return query;
+        }
+        if (settings.hasKey("minWidth")) {
+            query.minWidth = settings.getInt("minWidth");
+        }
+        if (settings.hasKey("minHeight")) {
+            query.minHeight = settings.getInt("minHeight");
+        }
+        if (settings.hasKey("maxWidth")) {
+            query.maxWidth = settings.getInt("maxWidth");
+        }
+        if (settings.hasKey("maxHeight")) {
+            query.maxHeight = settings.getInt("maxHeight");
+        }
+        if (settings.hasKey("minFps")) {
+            query.minFps = settings.getInt("minFps");
+        }
+        if (settings.hasKey("maxSizes")) {
+            query.maxSizes = settings.getInt("maxSizes");
+        }
+        if (settings.hasKey("lensFacing")) {
+            query.lensFacing = settings.getString("lensFacing");
+        }
+        if (settings.hasKey("physical")) {
+            query.physical = settings.getBoolean("physical");
+        }
+        if (settings.hasKey("offset")) {
+            query.offset = settings.getInt("offset");
+        }
+        if (settings.hasKey("limit")) {
+            query.limit = settings.getInt("limit");
+        }
+        return query;
+    }
+
     public static Streamer.Size strToSize(String res, boolean vertical) {
         Integer w = 1280;
         Integer h = 720;
@@ -366,6 +577,68 @@ public class SettingsUtils {
         config.auth = getAuthMode(settings);
     }
 
+    // Bitrates are in kbps like in videoConfig. Returns null if ABR is off.
+    @Nullable
+    static AbrController.Config parseAbrConfig(@Nullable ReadableMap settings, int videoBitrate) {
+        if (settings == null || !settings.hasKey("mode")) {
+            return null;
+        }
+        final AbrController.Config config = new AbrController.Config();
+        final String mode = settings.getString("mode");
+        if ("ladder".equals(mode)) {
+            config.mode = AbrController.MODE_LADDER;
+        } else if ("aimd".equals(mode)) {
+            config.mode = AbrController.MODE_AIMD;
+        } else {
+            return null;
+        }
+        if (settings.hasKey("ladder")) {
+            ReadableArray steps = settings.getArray("ladder");
+            if (steps != null && steps.size() > 0) {
+                config.ladder = new int[steps.size()];
+                for (int i = 0; i < steps.size(); i++) {
+                    config.ladder[i] = steps.getInt(i) * 1000;
+                }
+                Arrays.sort(config.ladder);
+            }
+        }
+        config.maxBitrate = videoBitrate;
+        config.minBitrate = videoBitrate / 4;
+        if (config.ladder != null) {
+            config.minBitrate = config.ladder[0];
+            config.maxBitrate = config.ladder[config.ladder.length - 1];
+        }
+        if (settings.hasKey("maxBitrate")) {
+            config.maxBitrate = settings.getInt("maxBitrate") * 1000;
+        }
+        if (settings.hasKey("minBitrate")) {
+            config.minBitrate = settings.getInt("minBitrate") * 1000;
+        }
+        if (config.minBitrate <= 0 || config.maxBitrate < config.minBitrate) {
+            Log.e(TAG, "Invalid ABR bitrate range");
+            return null;
+        }
+        if (settings.hasKey("additiveStep")) {
+            config.additiveStep = settings.getInt("additiveStep") * 1000;
+        }
+        if (settings.hasKey("decreaseFactor")) {
+            config.decreaseFactor = (float) settings.getDouble("decreaseFactor");
+        }
+        if (settings.hasKey("congestionRatio")) {
+            config.congestionRatio = (float) settings.getDouble("congestionRatio");
+        }
+        if (settings.hasKey("downTicks")) {
+            config.downTicks = Math.max(1, settings.getInt("downTicks"));
+        }
+        if (settings.hasKey("upTicks")) {
+            config.upTicks = Math.max(1, settings.getInt("upTicks"));
+        }
+        if (settings.hasKey("cooldownTicks")) {
+            config.cooldownTicks = Math.max(0, settings.getInt("cooldownTicks"));
+        }
+        return config;
+    }
+
     private static Streamer.Auth getAuthMode(@Nullable  ReadableMap settings) {
         Streamer.Auth auth = Streamer.Auth.DEFAULT;
         if (settings == null || !settings.hasKey("target")) {
@@ -0,0 +1,291 @@
+package com.wmspanel.reactstreamer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Snapshots without blocking the caller or the render thread longer than the frame
+// readback: the engine thread only requests the frame, the bitmap libstream hands back
+// is scaled, compressed and written by one background worker. The worker queue is
+// bounded, a frame that arrives while it is full is dropped, so a slow disk never
+// holds up capture. Scaled bitmaps and the compression buffer are pooled.
+// Series (burst / timelapse) are driven from the main thread.
+final class SnapshotPipeline {
+
+    private static final String TAG = "SnapshotPipeline";
+
+    private static final int QUEUE_SIZE = 2;
+    private static final int BITMAP_POOL_SIZE = 3;
+    // compression buffer is dropped after a frame larger than this
+    private static final int MAX_RETAINED_BUFFER = 8 * 1024 * 1024;
+    // burst waits this long for the previous frame before asking for the next one
+    private static final long BUSY_RETRY_MS = 15;
+
+    static final class Config {
+        Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+        String extension = "jpg";
+        int quality = 90;
+        // bounding box in pixels, 0 keeps the frame size
+        int maxWidth = 0;
+        int maxHeight = 0;
+    }
+
+    interface Listener {
+        // main thread; status is success, failed or dropped
+        void onSnapshot(String status, File file, String format, @Nullable String seriesId, int index);
+    }
+
+    private final StreamerEngine mEngine;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private volatile Config mConfig = new Config();
+    // frames requested from the streamer and not delivered yet
+    private final AtomicInteger mPending = new AtomicInteger();
+
+    private final ThreadPoolExecutor mWorker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE),
+            r -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, TAG),
+            (r, executor) -> ((Job) r).drop());
+
+    // worker thread only
+    private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>();
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mRect = new Rect();
+    private ExposedOutputStream mBuffer = new ExposedOutputStream();
+
+    // main thread only
+    @Nullable private Series mSeries;
+
+    private static final class ExposedOutputStream extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private final class Job implements Runnable {
+        final Bitmap bitmap;
+        final File file;
+        final Config config;
+        @Nullable final String seriesId;
+        final int index;
+
+        Job(Bitmap bitmap, File file, Config config, @Nullable String seriesId, int index) {
+            this.bitmap = bitmap;
+            this.file = file;
+            this.config = config;
+            this.seriesId = seriesId;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            final boolean written = encode(this);
+            notify(written ? "success" : "failed");
+        }
+
+        void drop() {
+            Log.d(TAG, "Worker busy, dropping " + file.getName());
+            bitmap.recycle();
+            notify("dropped");
+        }
+
+        private void notify(String status) {
+            final String format = config.extension;
+            mHandler.post(() -> mListener.onSnapshot(status, file, format, seriesId, index));
+        }
+    }
+
+    private final class Series implements Runnable {
+        final String id;
+        final File dir;
+        final String prefix;
+        // 0 keeps going until stopped
+        final int count;
+        final long intervalMs;
+        int index = 0;
+
+        Series(String id, File dir, String prefix, int count, long intervalMs) {
+            this.id = id;
+            this.dir = dir;
+            this.prefix = prefix;
+            this.count = count;
+            this.intervalMs = intervalMs;
+        }
+
+        @Override
+        public void run() {
+            if (mSeries != this) {
+                return;
+            }
+            if (mPending.get() > 0) {
+                // previous readback still running: timelapse skips the tick, burst waits
+                mHandler.postDelayed(this, count == 0 ? intervalMs : BUSY_RETRY_MS);
+                return;
+            }
+            final File file = new File(dir, String.format(Locale.US, "%s_%04d.%s", prefix, index, mConfig.extension));
+            if (!capture(file, id, index)) {
+                mSeries = null;
+                return;
+            }
+            index++;
+            if (count > 0 && index >= count) {
+                mSeries = null;
+                return;
+            }
+            mHandler.postDelayed(this, intervalMs);
+        }
+    }
+
+    SnapshotPipeline(StreamerEngine engine, Handler handler, Listener listener) {
+        mEngine = engine;
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    void setConfig(Config config) {
+        mConfig = config;
+    }
+
+    Config getConfig() {
+        return mConfig;
+    }
+
+    // Any thread. Returns false if there is no streamer to take the frame from.
+    boolean capture(File file, @Nullable String seriesId, int index) {
+        if (!mEngine.isActive()) {
+            return false;
+        }
+        final Config config = mConfig;
+        final Runnable failed = () -> mHandler.post(
+                () -> mListener.onSnapshot("failed", file, config.extension, seriesId, index));
+        // the streamer may be released before the command runs, JS already has the path
+        mEngine.post(streamer -> {
+            mPending.incrementAndGet();
+            streamer.takeSnapshot(bitmap -> {
+                mPending.decrementAndGet();
+                if (bitmap == null) {
+                    failed.run();
+                    return;
+                }
+                mWorker.execute(new Job(bitmap, file, config, seriesId, index));
+            });
+        }, failed);
+        return true;
+    }
+
+    // Main thread. Takes count frames intervalMs apart, count 0 for a timelapse until stopped.
+    void startSeries(String id, File dir, String prefix, int count, long intervalMs) {
+        stopSeries();
+        mSeries = new Series(id, dir, prefix, count, Math.max(0, intervalMs));
+        mHandler.post(mSeries);
+    }
+
+    void stopSeries() {
+        if (mSeries != null) {
+            mHandler.removeCallbacks(mSeries);
+            mSeries = null;
+        }
+    }
+
+    // Streamer released, readbacks in flight won't be delivered
+    void reset() {
+        stopSeries();
+        mPending.set(0);
+    }
+
+    void release() {
+        reset();
+        mWorker.shutdown();
+    }
+
+    // Worker thread
+    private boolean encode(Job job) {
+        final Bitmap source = job.bitmap;
+        Bitmap output = source;
+        try {
+            final Config config = job.config;
+            final float scale = scale(source.getWidth(), source.getHeight(), config.maxWidth, config.maxHeight);
+            if (scale < 1.0f) {
+                final int width = Math.max(1, Math.round(source.getWidth() * scale));
+                final int height = Math.max(1, Math.round(source.getHeight() * scale));
+                output = obtainBitmap(width, height);
+                mRect.set(0, 0, width, height);
+                mCanvas.setBitmap(output);
+                mCanvas.drawBitmap(source, null, mRect, mPaint);
+                mCanvas.setBitmap(null);
+            }
+            mBuffer.reset();
+            if (!output.compress(config.format, config.quality, mBuffer)) {
+                return false;
+            }
+            try (FileOutputStream out = new FileOutputStream(job.file)) {
+                out.write(mBuffer.buffer(), 0, mBuffer.size());
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+            return false;
+        } finally {
+            if (mBuffer.buffer().length > MAX_RETAINED_BUFFER) {
+                mBuffer = new ExposedOutputStream();
+            }
+            if (output != source) {
+                releaseBitmap(output);
+            }
+            source.recycle();
+        }
+    }
+
+    private static float scale(int width, int height, int maxWidth, int maxHeight) {
+        float scale = 1.0f;
+        if (maxWidth > 0) {
+            scale = Math.min(scale, (float) maxWidth / width);
+        }
+        if (maxHeight > 0) {
+            scale = Math.min(scale, (float) maxHeight / height);
+        }
+        return scale;
+    }
+
+    private Bitmap obtainBitmap(int width, int height) {
+        final Iterator<Bitmap> it = mBitmaps.iterator();
+        while (it.hasNext()) {
+            final Bitmap bitmap = it.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                it.remove();
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    // Bitmaps of an outdated size are pushed out by the current ones
+    private void releaseBitmap(Bitmap bitmap) {
+        if (mBitmaps.size() == BITMAP_POOL_SIZE) {
+            mBitmaps.poll().recycle();
+        }
+        mBitmaps.add(bitmap);
+    }
+}
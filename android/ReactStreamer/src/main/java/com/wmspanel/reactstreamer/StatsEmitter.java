@@ -0,0 +1,265 @@
+package com.wmspanel.reactstreamer;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Arrays;
+
+// Builds onStreamerStats payloads from primitive per-connection slots.
+// Slots, keys and last sent values are kept between ticks, so a tick without
+// changes costs no allocations. Bridge maps are single use and are only created
+// when there is something to send.
+//
+// Modes:
+//   "full"    - {"<connId>": {duration, bytesDelivered, bitrate, lostIncreased}} every tick
+//   "delta"   - same shape, but only fields that changed beyond the threshold
+//   "compact" - flat array [connId, duration, bytesDelivered, bitrate, lostIncreased(0/1), ...]
+//               for connections that changed beyond the threshold
+final class StatsEmitter {
+
+    static final int MODE_FULL = 0;
+    static final int MODE_DELTA = 1;
+    static final int MODE_COMPACT = 2;
+
+    static final int FIELD_DURATION = 0;
+    static final int FIELD_BYTES = 1;
+    static final int FIELD_BITRATE = 2;
+    static final int FIELD_LOST = 3;
+    static final int FIELD_COUNT = 4;
+
+    private static final String[] FIELD_NAMES = {"duration", "bytesDelivered", "bitrate", "lostIncreased"};
+
+    private final BridgeFactory mFactory;
+    private int mMode = MODE_FULL;
+    private float mThreshold = 0.0f;
+
+    private int mCapacity = 8;
+    private int mSize = 0;
+    private int[] mIds = new int[mCapacity];
+    private String[] mKeys = new String[mCapacity];
+    private boolean[] mReported = new boolean[mCapacity];
+    private boolean[] mHasSent = new boolean[mCapacity];
+    private long[] mValues = new long[mCapacity * FIELD_COUNT];
+    private long[] mSent = new long[mCapacity * FIELD_COUNT];
+
+    StatsEmitter() {
+        this(BridgeFactory.NATIVE);
+    }
+
+    StatsEmitter(BridgeFactory factory) {
+        mFactory = factory;
+    }
+
+    void setMode(@Nullable String mode) {
+        int newMode = MODE_FULL;
+        if ("delta".equals(mode)) {
+            newMode = MODE_DELTA;
+        } else if ("compact".equals(mode)) {
+            newMode = MODE_COMPACT;
+        }
+        if (newMode != mMode) {
+            mMode = newMode;
+            // receiver has to get complete values after switching the payload format
+            Arrays.fill(mHasSent, false);
+        }
+    }
+
+    void setThreshold(float threshold) {
+        mThreshold = Math.max(0.0f, threshold);
+    }
+
+    void begin() {
+        Arrays.fill(mReported, 0, mSize, false);
+    }
+
+    void add(int connId, long duration, long bytesDelivered, long bitrate, boolean lostIncreased) {
+        int slot = findSlot(connId);
+        if (slot < 0) {
+            slot = addSlot(connId);
+        }
+        mReported[slot] = true;
+        final int base = slot * FIELD_COUNT;
+        mValues[base + FIELD_DURATION] = duration;
+        mValues[base + FIELD_BYTES] = bytesDelivered;
+        mValues[base + FIELD_BITRATE] = bitrate;
+        mValues[base + FIELD_LOST] = lostIncreased ? 1 : 0;
+    }
+
+    void remove(int connId) {
+        final int slot = findSlot(connId);
+        if (slot < 0) {
+            return;
+        }
+        final int last = mSize - 1;
+        if (slot != last) {
+            mIds[slot] = mIds[last];
+            mKeys[slot] = mKeys[last];
+            mReported[slot] = mReported[last];
+            mHasSent[slot] = mHasSent[last];
+            System.arraycopy(mValues, last * FIELD_COUNT, mValues, slot * FIELD_COUNT, FIELD_COUNT);
+            System.arraycopy(mSent, last * FIELD_COUNT, mSent, slot * FIELD_COUNT, FIELD_COUNT);
+        }
+        mKeys[last] = null;
+        mSize--;
+    }
+
+    // Returns WritableMap / WritableArray to emit or null if there is nothing to send.
+    // emitEmpty keeps the legacy behaviour of sending an empty map in "full" mode.
+    @Nullable
+    Object build(boolean emitEmpty) {
+        switch (mMode) {
+            case MODE_DELTA:
+                return buildDelta();
+            case MODE_COMPACT:
+                return buildCompact();
+            default:
+                return buildFull(emitEmpty);
+        }
+    }
+
+    @Nullable
+    private Object buildFull(boolean emitEmpty) {
+        WritableMap stats = null;
+        for (int slot = 0; slot < mSize; slot++) {
+            if (!mReported[slot]) {
+                continue;
+            }
+            if (stats == null) {
+                stats = mFactory.createMap();
+            }
+            final int base = slot * FIELD_COUNT;
+            WritableMap connStats = mFactory.createMap();
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                putField(connStats, field, mValues[base + field]);
+            }
+            stats.putMap(mKeys[slot], connStats);
+            markSent(slot);
+        }
+        if (stats == null && emitEmpty) {
+            stats = mFactory.createMap();
+        }
+        return stats;
+    }
+
+    @Nullable
+    private Object buildDelta() {
+        WritableMap stats = null;
+        for (int slot = 0; slot < mSize; slot++) {
+            if (!mReported[slot]) {
+                continue;
+            }
+            final int base = slot * FIELD_COUNT;
+            WritableMap connStats = null;
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                if (mHasSent[slot] && !changed(mSent[base + field], mValues[base + field], field)) {
+                    continue;
+                }
+                if (connStats == null) {
+                    connStats = mFactory.createMap();
+                }
+                putField(connStats, field, mValues[base + field]);
+                mSent[base + field] = mValues[base + field];
+            }
+            mHasSent[slot] = true;
+            if (connStats != null) {
+                if (stats == null) {
+                    stats = mFactory.createMap();
+                }
+                stats.putMap(mKeys[slot], connStats);
+            }
+        }
+        return stats;
+    }
+
+    @Nullable
+    private Object buildCompact() {
+        WritableArray stats = null;
+        for (int slot = 0; slot < mSize; slot++) {
+            if (!mReported[slot] || !slotChanged(slot)) {
+                continue;
+            }
+            if (stats == null) {
+                stats = mFactory.createArray();
+            }
+            final int base = slot * FIELD_COUNT;
+            stats.pushInt(mIds[slot]);
+            stats.pushDouble(mValues[base + FIELD_DURATION]);
+            stats.pushDouble(mValues[base + FIELD_BYTES]);
+            stats.pushDouble(mValues[base + FIELD_BITRATE]);
+            stats.pushInt((int) mValues[base + FIELD_LOST]);
+            markSent(slot);
+        }
+        return stats;
+    }
+
+    private boolean slotChanged(int slot) {
+        if (!mHasSent[slot]) {
+            return true;
+        }
+        final int base = slot * FIELD_COUNT;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (changed(mSent[base + field], mValues[base + field], field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean changed(long sent, long value, int field) {
+        if (sent == value) {
+            return false;
+        }
+        if (field == FIELD_LOST || mThreshold == 0.0f) {
+            return true;
+        }
+        return Math.abs(value - sent) > mThreshold * Math.max(Math.abs(sent), 1L);
+    }
+
+    private void markSent(int slot) {
+        System.arraycopy(mValues, slot * FIELD_COUNT, mSent, slot * FIELD_COUNT, FIELD_COUNT);
+        mHasSent[slot] = true;
+    }
+
+    private static void putField(WritableMap map, int field, long value) {
+        switch (field) {
+            case FIELD_DURATION:
+                map.putInt(FIELD_NAMES[field], (int) value);
+                break;
+            case FIELD_LOST:
+                map.putBoolean(FIELD_NAMES[field], value != 0);
+                break;
+            default:
+                map.putDouble(FIELD_NAMES[field], (double) value);
+                break;
+        }
+    }
+
+    private int findSlot(int connId) {
+        for (int i = 0; i < mSize; i++) {
+            if (mIds[i] == connId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int addSlot(int connId) {
+        if (mSize == mCapacity) {
+            mCapacity *= 2;
+            mIds = Arrays.copyOf(mIds, mCapacity);
+            mKeys = Arrays.copyOf(mKeys, mCapacity);
+            mReported = Arrays.copyOf(mReported, mCapacity);
+            mHasSent = Arrays.copyOf(mHasSent, mCapacity);
+            mValues = Arrays.copyOf(mValues, mCapacity * FIELD_COUNT);
+            mSent = Arrays.copyOf(mSent, mCapacity * FIELD_COUNT);
+        }
+        final int slot = mSize++;
+        mIds[slot] = connId;
+        mKeys[slot] = Integer.toString(connId);
+        mReported[slot] = false;
+        mHasSent[slot] = false;
+        return slot;
+    }
+}
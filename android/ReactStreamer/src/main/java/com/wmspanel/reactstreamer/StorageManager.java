@@ -0,0 +1,382 @@
+package com.wmspanel.reactstreamer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+// Keeps recordings and snapshots in the media directory within a quota and away from
+// a full disk. Both limits are off until setStorageConfig sets them. Only files this
+// module wrote are counted and evicted: their names are kept in a ledger file in the
+// directory, so files of previous sessions count too and files of the app that happen
+// to share the directory are never touched. Completed files are evicted least recently
+// written first; files with a pending upload and the newest completed file are never
+// evicted. Before a recording
+// starts, free space and the quota are checked and room is made if needed. While it
+// runs, free space is polled and the view is told when it falls below minFree ("low")
+// or half of it ("critical"), so it can split or stop the recording while the mp4 can
+// still be finalized. Headroom is reported as the onStorageStats telemetry event.
+//
+// Files are tracked and deleted on a background thread, listener calls come on the main one.
+final class StorageManager {
+
+    private static final String TAG = "StorageManager";
+
+    static final int STATE_OK = 0;
+    static final int STATE_LOW = 1;
+    static final int STATE_CRITICAL = 2;
+    private static final String[] STATE_NAMES = {"ok", "low", "critical"};
+
+    private static final long CHECK_INTERVAL_MS = 2_000;
+    private static final long IDLE_CHECK_INTERVAL_MS = 10_000;
+    private static final String[] MEDIA_EXTENSIONS = {".mp4", ".jpg", ".jpeg", ".png", ".webp"};
+    private static final String LEDGER_NAME = ".reactstreamer_media";
+
+    static final class Config {
+        // total size of the media files, 0 for no quota
+        long quotaBytes = 0;
+        // 0 for no free space checks
+        long minFreeBytes = 0;
+        // on low space the recording is split to secure what is written, stopped otherwise;
+        // it is always stopped at critical
+        boolean splitOnLowSpace = false;
+    }
+
+    interface Listener {
+        // main thread
+        void onStorageState(int state);
+
+        void onEvicted(File file);
+    }
+
+    private static final class Entry {
+        final File file;
+        final long length;
+        final long modified;
+
+        Entry(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.modified = file.lastModified();
+        }
+    }
+
+    private final File mDir;
+    private final File mLedger;
+    private final Handler mMainHandler;
+    private final StreamerEventBus mEventBus;
+    private final Listener mListener;
+    private final Handler mHandler;
+    private volatile Config mConfig = new Config();
+
+    // storage thread only, mFiles is ordered oldest first
+    private final List<Entry> mFiles = new ArrayList<>();
+    private boolean mScanned = false;
+    @Nullable private File mCurrent;
+    private long mCurrentBytes = 0;
+    private long mSessionBytes = 0;
+    private long mLastCheckMs = 0;
+    private double mWriteRate = 0;
+    private int mState = STATE_OK;
+
+    // last check, read when the stats payload is built
+    private volatile long mFree;
+    private volatile long mTotal;
+    private volatile long mUsed;
+    private volatile long mRecordingBytes;
+    private volatile long mSession;
+    private volatile double mRate;
+    private volatile int mReportedState = STATE_OK;
+
+    private final Runnable mCheck = new Runnable() {
+        @Override
+        public void run() {
+            check();
+            mHandler.postDelayed(this, mCurrent != null ? CHECK_INTERVAL_MS : IDLE_CHECK_INTERVAL_MS);
+        }
+    };
+
+    private final StreamerEventBus.PayloadSource mBuildStats = this::buildStats;
+
+    StorageManager(File dir, Handler mainHandler, StreamerEventBus eventBus, Listener listener) {
+        mDir = dir;
+        mLedger = new File(dir, LEDGER_NAME);
+        mMainHandler = mainHandler;
+        mEventBus = eventBus;
+        mListener = listener;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(mCheck);
+    }
+
+    void setConfig(Config config) {
+        mConfig = config;
+        mHandler.post(() -> {
+            trim();
+            check();
+        });
+    }
+
+    Config getConfig() {
+        return mConfig;
+    }
+
+    // Before a recording starts or is split: makes room, then runs onReady or onNoSpace
+    // on the main thread
+    void reserve(Runnable onReady, Runnable onNoSpace) {
+        mHandler.post(() -> {
+            scan();
+            final Config config = mConfig;
+            if (mDir.getUsableSpace() < config.minFreeBytes) {
+                evict(config.minFreeBytes - mDir.getUsableSpace());
+            }
+            trim();
+            final long free = mDir.getUsableSpace();
+            final boolean overQuota = config.quotaBytes > 0 && used() >= config.quotaBytes;
+            if (free < config.minFreeBytes || overQuota) {
+                Log.w(TAG, "No room to record: free " + free + ", used " + used());
+                mMainHandler.post(onNoSpace);
+                return;
+            }
+            mMainHandler.post(onReady);
+        });
+    }
+
+    // Any thread, file is the one being recorded from now on
+    void onRecordStarted(File file) {
+        mHandler.post(() -> {
+            mCurrent = file;
+            mCurrentBytes = 0;
+            mLastCheckMs = SystemClock.elapsedRealtime();
+            mWriteRate = 0;
+            mHandler.removeCallbacks(mCheck);
+            mHandler.postDelayed(mCheck, CHECK_INTERVAL_MS);
+        });
+    }
+
+    void onRecordStopped() {
+        mHandler.post(() -> {
+            mCurrent = null;
+            mCurrentBytes = 0;
+        });
+    }
+
+    // Any thread, a recording or snapshot was completed
+    void onFileWritten(File file) {
+        mHandler.post(() -> {
+            if (file.equals(mCurrent)) {
+                mCurrent = null;
+                mCurrentBytes = 0;
+            }
+            if (!file.isFile() || !isMedia(file) || !mDir.equals(file.getParentFile())) {
+                return;
+            }
+            scan();
+            removeEntry(file);
+            final Entry entry = new Entry(file);
+            mFiles.add(entry);
+            mSessionBytes += entry.length;
+            trim();
+            writeLedger();
+        });
+    }
+
+    void release() {
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.getLooper().quitSafely();
+    }
+
+    // Storage thread
+    private void check() {
+        scan();
+        final Config config = mConfig;
+        if (mCurrent != null) {
+            final long now = SystemClock.elapsedRealtime();
+            final long length = mCurrent.length();
+            if (now > mLastCheckMs && length >= mCurrentBytes) {
+                final double rate = (length - mCurrentBytes) * 1000.0 / (now - mLastCheckMs);
+                mWriteRate = mWriteRate == 0 ? rate : mWriteRate * 0.7 + rate * 0.3;
+            }
+            mCurrentBytes = length;
+            mLastCheckMs = now;
+        }
+        long free = mDir.getUsableSpace();
+        if (free < config.minFreeBytes) {
+            evict(config.minFreeBytes - free);
+            free = mDir.getUsableSpace();
+        }
+        trim();
+
+        int state = STATE_OK;
+        if (free < config.minFreeBytes / 2) {
+            state = STATE_CRITICAL;
+        } else if (free < config.minFreeBytes || (config.quotaBytes > 0 && used() > config.quotaBytes)) {
+            state = STATE_LOW;
+        }
+        if (state != mState) {
+            final boolean worse = state > mState;
+            mState = state;
+            final int reported = state;
+            if (worse && mCurrent != null) {
+                Log.w(TAG, "Storage " + STATE_NAMES[state] + ", free " + free);
+                mMainHandler.post(() -> mListener.onStorageState(reported));
+            }
+        }
+
+        mFree = free;
+        mTotal = mDir.getTotalSpace();
+        mUsed = used();
+        mRecordingBytes = mCurrent != null ? mCurrentBytes : 0;
+        mSession = mSessionBytes + mRecordingBytes;
+        mRate = mCurrent != null ? mWriteRate : 0;
+        mReportedState = state;
+        if (EventListenerTracker.hasListeners("onStorageStats")) {
+            mEventBus.postTelemetry("storage", "onStorageStats", mBuildStats);
+        }
+    }
+
+    // Files this module wrote in previous sessions count against the quota too
+    private void scan() {
+        if (mScanned) {
+            return;
+        }
+        mScanned = true;
+        if (!mLedger.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(mLedger))) {
+            String name;
+            while ((name = reader.readLine()) != null) {
+                final File file = new File(mDir, name);
+                if (!name.isEmpty() && file.isFile() && isMedia(file)) {
+                    mFiles.add(new Entry(file));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + mLedger, e);
+        }
+        Collections.sort(mFiles, (a, b) -> Long.compare(a.modified, b.modified));
+    }
+
+    // Names of the tracked files, files deleted by the app meanwhile drop out on the next scan
+    private void writeLedger() {
+        final File tmp = new File(mDir, LEDGER_NAME + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(tmp))) {
+            for (Entry entry : mFiles) {
+                writer.write(entry.file.getName());
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mLedger, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(mLedger)) {
+            Log.w(TAG, "Failed to replace " + mLedger);
+        }
+    }
+
+    // Evicts until the quota is met
+    private void trim() {
+        final long quota = mConfig.quotaBytes;
+        if (quota > 0 && used() > quota) {
+            evict(used() - quota);
+        }
+    }
+
+    // Deletes the oldest evictable files until bytes are freed, returns the bytes freed
+    private long evict(long bytes) {
+        final int count = mFiles.size();
+        long freed = 0;
+        final Iterator<Entry> it = mFiles.iterator();
+        // the newest completed file may still be handled by the app
+        for (int left = mFiles.size() - 1; it.hasNext() && left > 0 && freed < bytes; left--) {
+            final Entry entry = it.next();
+            if (UploadManager.isPending(entry.file.getAbsolutePath())) {
+                continue;
+            }
+            it.remove();
+            if (entry.file.exists() && !entry.file.delete()) {
+                Log.w(TAG, "Failed to delete " + entry.file);
+                continue;
+            }
+            freed += entry.length;
+            Log.d(TAG, "Evicted " + entry.file.getName());
+            mMainHandler.post(() -> mListener.onEvicted(entry.file));
+        }
+        if (mFiles.size() != count) {
+            writeLedger();
+        }
+        return freed;
+    }
+
+    private void removeEntry(File file) {
+        final Iterator<Entry> it = mFiles.iterator();
+        while (it.hasNext()) {
+            if (it.next().file.equals(file)) {
+                it.remove();
+            }
+        }
+    }
+
+    private long used() {
+        long used = mCurrentBytes;
+        for (Entry entry : mFiles) {
+            used += entry.length;
+        }
+        return used;
+    }
+
+    private static boolean isMedia(File file) {
+        final String name = file.getName().toLowerCase(Locale.US);
+        for (String extension : MEDIA_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Bytes, headroomSeconds only while recording
+    private WritableMap buildStats() {
+        final Config config = mConfig;
+        WritableMap stats = new WritableNativeMap();
+        stats.putString("state", STATE_NAMES[mReportedState]);
+        stats.putDouble("free", mFree);
+        stats.putDouble("total", mTotal);
+        stats.putDouble("used", mUsed);
+        stats.putDouble("quota", config.quotaBytes);
+        stats.putDouble("session", mSession);
+        stats.putDouble("recording", mRecordingBytes);
+        long headroom = Math.max(0, mFree - config.minFreeBytes);
+        if (config.quotaBytes > 0) {
+            headroom = Math.min(headroom, Math.max(0, config.quotaBytes - mUsed));
+        }
+        stats.putDouble("headroom", headroom);
+        final double rate = mRate;
+        if (rate > 0) {
+            stats.putDouble("headroomSeconds", Math.floor(headroom / rate));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,143 @@
+package com.wmspanel.reactstreamer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.wmspanel.libstream.StreamerGL;
+import com.wmspanel.libstream.StreamerGLBuilder;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Owns the StreamerGL instance of a StreamerView and runs every operation on it
+// on a dedicated thread, in the order commands were posted. Building the streamer,
+// opening/flipping cameras and releasing encoders no longer block the UI thread.
+// Streamer.Listener callbacks are still delivered to the handler the view provides.
+final class StreamerEngine {
+
+    private static final String TAG = "StreamerEngine";
+
+    private static final long CALL_TIMEOUT_MS = 5000;
+
+    interface Command {
+        void run(StreamerGL streamer);
+    }
+
+    interface Query<T> {
+        T run(StreamerGL streamer) throws Exception;
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // accessed on the engine thread only
+    @Nullable private StreamerGL mStreamerGL;
+    // readable from any thread
+    private volatile boolean mActive = false;
+
+    StreamerEngine() {
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DEFAULT);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    boolean isActive() {
+        return mActive;
+    }
+
+    // Builder is configured by the caller, build() and capture start run on the engine thread.
+    // onCreated runs on the engine thread once the streamer is built.
+    void create(StreamerGLBuilder builder, @Nullable Runnable onCreated) {
+        mHandler.post(() -> {
+            if (mStreamerGL != null) {
+                Log.w(TAG, "Streamer already exists");
+                return;
+            }
+            mStreamerGL = builder.build();
+            if (mStreamerGL != null) {
+                mActive = true;
+                if (onCreated != null) {
+                    onCreated.run();
+                }
+                mStreamerGL.startVideoCapture();
+                mStreamerGL.startAudioCapture();
+            } else {
+                Log.e(TAG, "Failed to build streamer");
+            }
+        });
+    }
+
+    void release() {
+        mHandler.post(() -> {
+            if (mStreamerGL == null) {
+                return;
+            }
+            mActive = false;
+            // stop mp4 recording
+            mStreamerGL.stopRecord();
+            // cancel audio and video capture
+            mStreamerGL.stopAudioCapture();
+            mStreamerGL.stopVideoCapture();
+            mStreamerGL.release();
+            mStreamerGL = null;
+        });
+    }
+
+    // Commands posted while there is no streamer are dropped
+    void post(Command command) {
+        mHandler.post(() -> {
+            if (mStreamerGL != null) {
+                command.run(mStreamerGL);
+            }
+        });
+    }
+
+    // Same, but onDropped runs instead (on the engine thread, or right away if the thread is gone),
+    // for callers that have to answer either way
+    void post(Command command, Runnable onDropped) {
+        final boolean posted = mHandler.post(() -> {
+            if (mStreamerGL != null) {
+                command.run(mStreamerGL);
+            } else {
+                onDropped.run();
+            }
+        });
+        if (!posted) {
+            onDropped.run();
+        }
+    }
+
+    // Runs query after all pending commands and waits for the result.
+    // Intended for the native modules thread, don't call it from the UI thread.
+    <T> T call(Query<T> query, T fallback) {
+        final FutureTask<T> task = new FutureTask<>(() -> mStreamerGL == null ? fallback : query.run(mStreamerGL));
+        if (Looper.myLooper() == mThread.getLooper()) {
+            task.run();
+        } else if (!mHandler.post(task)) {
+            return fallback;
+        }
+        try {
+            return task.get(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Log.e(TAG, Log.getStackTraceString(e.getCause()));
+        } catch (TimeoutException e) {
+            Log.e(TAG, "Streamer call timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return fallback;
+    }
+
+    // Releases the streamer and stops the thread once queued commands are done
+    void quit() {
+        release();
+        mThread.quitSafely();
+    }
+}
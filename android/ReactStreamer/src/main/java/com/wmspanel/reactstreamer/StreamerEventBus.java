@@ -0,0 +1,179 @@
+package com.wmspanel.reactstreamer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// All native -> JS events of the module go through this bus.
+// Events are queued and flushed once per frame on the main thread:
+//  - state events (connection/capture/record changes) keep their order and are never dropped;
+//  - telemetry (stats and similar) is coalesced by key, only the latest value is sent,
+//    and its payload is built at flush time;
+//  - if JS has not processed the previous flush yet, pending telemetry is dropped.
+// When JS subscribes to onStreamerEventBatch, a flush is a single bridge call with
+// an array of {event, body}; otherwise events are emitted one by one.
+public final class StreamerEventBus implements Choreographer.FrameCallback {
+
+    private static final String TAG = "StreamerEventBus";
+
+    public static final String BATCH_EVENT = "onStreamerEventBatch";
+
+    public interface PayloadSource {
+        @Nullable
+        Object build();
+    }
+
+    private static final class Event {
+        final String name;
+        final Object payload;
+
+        Event(String name, Object payload) {
+            this.name = name;
+            this.payload = payload;
+        }
+    }
+
+    private final ReactApplicationContext mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Object mLock = new Object();
+    private List<Event> mEvents = new ArrayList<>();
+    private Map<String, Event> mTelemetry = new LinkedHashMap<>();
+    private boolean mFlushScheduled = false;
+
+    private volatile boolean mJsPending = false;
+    private final Runnable mJsAck = () -> mJsPending = false;
+
+    // metrics, guarded by mLock
+    private long mPosted;
+    private long mCoalesced;
+    private long mDropped;
+    private long mFlushes;
+
+    public StreamerEventBus(ReactApplicationContext context) {
+        mContext = context;
+    }
+
+    public void post(String eventName, @Nullable Object payload) {
+        synchronized (mLock) {
+            mEvents.add(new Event(eventName, payload));
+            mPosted++;
+        }
+        scheduleFlush();
+    }
+
+    public void postTelemetry(String key, String eventName, PayloadSource source) {
+        synchronized (mLock) {
+            if (mTelemetry.put(key, new Event(eventName, source)) != null) {
+                mCoalesced++;
+            }
+            mPosted++;
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        synchronized (mLock) {
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        mMainHandler.post(() -> Choreographer.getInstance().postFrameCallback(this));
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        List<Event> events;
+        Map<String, Event> telemetry;
+        synchronized (mLock) {
+            mFlushScheduled = false;
+            events = mEvents;
+            telemetry = mTelemetry;
+            mEvents = new ArrayList<>();
+            mTelemetry = new LinkedHashMap<>();
+            if (mJsPending && !telemetry.isEmpty()) {
+                // JS thread is behind, stale telemetry would only add to the backlog
+                mDropped += telemetry.size();
+                telemetry.clear();
+            }
+            mFlushes++;
+        }
+
+        for (Event event : telemetry.values()) {
+            Object payload = ((PayloadSource) event.payload).build();
+            if (payload != null) {
+                events.add(new Event(event.name, payload));
+            }
+        }
+        if (events.isEmpty() || !mContext.hasActiveReactInstance()) {
+            return;
+        }
+
+        DeviceEventManagerModule.RCTDeviceEventEmitter emitter =
+                mContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class);
+        if (EventListenerTracker.hasListeners(BATCH_EVENT)) {
+            WritableNativeArray batch = new WritableNativeArray();
+            for (Event event : events) {
+                WritableNativeMap item = new WritableNativeMap();
+                item.putString("event", event.name);
+                putPayload(item, event.payload);
+                batch.pushMap(item);
+            }
+            emitter.emit(BATCH_EVENT, batch);
+        } else {
+            for (Event event : events) {
+                emitter.emit(event.name, event.payload);
+            }
+        }
+        mJsPending = true;
+        mContext.runOnJSQueueThread(mJsAck);
+    }
+
+    private static void putPayload(WritableMap item, @Nullable Object payload) {
+        if (payload == null) {
+            item.putNull("body");
+        } else if (payload instanceof ReadableMap) {
+            item.putMap("body", (ReadableMap) payload);
+        } else if (payload instanceof ReadableArray) {
+            item.putArray("body", (ReadableArray) payload);
+        } else if (payload instanceof String) {
+            item.putString("body", (String) payload);
+        } else if (payload instanceof Boolean) {
+            item.putBoolean("body", (Boolean) payload);
+        } else if (payload instanceof Number) {
+            item.putDouble("body", ((Number) payload).doubleValue());
+        } else {
+            Log.w(TAG, "Unsupported payload type " + payload.getClass().getName());
+            item.putNull("body");
+        }
+    }
+
+    public WritableMap getMetrics() {
+        WritableNativeMap metrics = new WritableNativeMap();
+        synchronized (mLock) {
+            metrics.putDouble("posted", mPosted);
+            metrics.putDouble("coalesced", mCoalesced);
+            metrics.putDouble("dropped", mDropped);
+            metrics.putDouble("flushes", mFlushes);
+        }
+        metrics.putBoolean("jsPending", mJsPending);
+        return metrics;
+    }
+}
@@ -1,30 +1,65 @@
 package com.wmspanel.reactstreamer;
 
-import com.facebook.react.ReactPackage;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.TurboReactPackage;
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.module.model.ReactModuleInfo;
+import com.facebook.react.module.model.ReactModuleInfoProvider;
 import com.facebook.react.uimanager.ViewManager;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+public class StreamerPackage extends TurboReactPackage {
 
-public class StreamerPackage implements ReactPackage {
+    private StreamerEventBus mEventBus;
+    private ReactApplicationContext mEventBusContext;
+
+    // View manager and module are created separately, but must share the bus of their context
+    private synchronized StreamerEventBus getEventBus(ReactApplicationContext reactContext) {
+        if (mEventBus == null || mEventBusContext != reactContext) {
+            mEventBus = new StreamerEventBus(reactContext);
+            mEventBusContext = reactContext;
+        }
+        return mEventBus;
+    }
 
     @Override
     public List<ViewManager> createViewManagers(ReactApplicationContext reactContext) {
         List<ViewManager> views = new ArrayList<>();
-        views.add(new StreamerViewManager(reactContext));
+        views.add(new StreamerViewManager(reactContext, getEventBus(reactContext)));
         return views;
     }
 
+    @Nullable
     @Override
-    public List<NativeModule> createNativeModules(
-            ReactApplicationContext reactContext) {
-        List<NativeModule> modules = new ArrayList<>();
-
-        modules.add(new LarixStreamerManager(reactContext));
-
-        return modules;
+    public NativeModule getModule(String name, ReactApplicationContext reactContext) {
+        if (LarixStreamerManager.NAME.equals(name)) {
+            return new LarixStreamerManager(reactContext, getEventBus(reactContext));
+        }
+        return null;
     }
 
+    @Override
+    public ReactModuleInfoProvider getReactModuleInfoProvider() {
+        return () -> {
+            final Map<String, ReactModuleInfo> moduleInfos = new HashMap<>();
+            moduleInfos.put(
+                    LarixStreamerManager.NAME,
+                    new ReactModuleInfo(
+                            LarixStreamerManager.NAME,
+                            LarixStreamerManager.class.getName(),
+                            false, // canOverrideExistingModule
+                            false, // needsEagerInit
+                            true, // hasConstants
+                            false, // isCxxModule
+                            true // isTurboModule
+                    ));
+            return moduleInfos;
+        };
+    }
 }
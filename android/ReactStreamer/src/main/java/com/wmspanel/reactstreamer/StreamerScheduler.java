@@ -0,0 +1,216 @@
+package com.wmspanel.reactstreamer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Single looper for all periodic work of the module (stats polling and the like).
+// Ticks are scheduled at absolute times (start + n * interval), so a late tick does not
+// shift the following ones; ticks that are missed completely are skipped and counted.
+// Tasks bound to an event name are paused while JS has no listener for that event.
+// One-time background work (cache prefetch, encoder benchmark) runs in order on a separate
+// worker, so it never delays a tick, and the worker exits when idle.
+public final class StreamerScheduler implements EventListenerTracker.Observer {
+
+    private static final String TAG = "StreamerScheduler";
+
+    private static final long BACKGROUND_KEEP_ALIVE_S = 10;
+
+    private static StreamerScheduler sInstance;
+
+    private final Handler mHandler;
+    private final List<Task> mTasks = new ArrayList<>();
+    private final ThreadPoolExecutor mBackground = new ThreadPoolExecutor(1, 1,
+            BACKGROUND_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            r -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "StreamerBackground"));
+
+    public static synchronized StreamerScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new StreamerScheduler();
+        }
+        return sInstance;
+    }
+
+    private StreamerScheduler() {
+        HandlerThread thread = new HandlerThread("StreamerScheduler", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mBackground.allowCoreThreadTimeOut(true);
+        EventListenerTracker.addObserver(this);
+    }
+
+    public final class Task implements Runnable {
+        final String mName;
+        final Runnable mAction;
+        final long mInterval;
+        @Nullable final String mEventName;
+
+        private boolean mCancelled;
+        private volatile boolean mRunning;
+        private long mStartTime;
+        private long mTickIndex;
+
+        // metrics, guarded by this
+        private long mTicks;
+        private long mSkippedTicks;
+        private long mLastJitter;
+        private long mMaxJitter;
+        private long mTotalJitter;
+
+        Task(String name, Runnable action, long interval, @Nullable String eventName) {
+            mName = name;
+            mAction = action;
+            mInterval = interval;
+            mEventName = eventName;
+        }
+
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            final long now = SystemClock.uptimeMillis();
+            final long jitter = now - (mStartTime + mTickIndex * mInterval);
+            try {
+                mAction.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Task " + mName + " failed", e);
+            }
+
+            long next = mTickIndex + 1;
+            final long behind = (now - mStartTime) / mInterval + 1;
+            long skipped = 0;
+            if (behind > next) {
+                skipped = behind - next;
+                next = behind;
+            }
+            mTickIndex = next;
+            synchronized (this) {
+                mTicks++;
+                mSkippedTicks += skipped;
+                mLastJitter = jitter;
+                mTotalJitter += jitter;
+                if (jitter > mMaxJitter) {
+                    mMaxJitter = jitter;
+                }
+            }
+            mHandler.postAtTime(this, mStartTime + mTickIndex * mInterval);
+        }
+
+        private void start() {
+            mRunning = true;
+            mStartTime = SystemClock.uptimeMillis();
+            mTickIndex = 1;
+            mHandler.postAtTime(this, mStartTime + mInterval);
+        }
+
+        private void stop() {
+            mRunning = false;
+            mHandler.removeCallbacks(this);
+        }
+
+        private boolean shouldRun() {
+            return !mCancelled && (mEventName == null || EventListenerTracker.hasListeners(mEventName));
+        }
+
+        synchronized WritableMap toReactMap() {
+            WritableNativeMap map = new WritableNativeMap();
+            map.putString("name", mName);
+            map.putInt("interval", (int) mInterval);
+            map.putBoolean("running", mRunning);
+            map.putDouble("ticks", mTicks);
+            map.putDouble("skippedTicks", mSkippedTicks);
+            map.putDouble("lastJitter", mLastJitter);
+            map.putDouble("maxJitter", mMaxJitter);
+            map.putDouble("meanJitter", mTicks > 0 ? (double) mTotalJitter / mTicks : 0.0);
+            return map;
+        }
+    }
+
+    // Runs action every intervalMs on the scheduler thread.
+    // If eventName is set, the task only ticks while JS listens to that event.
+    public Task schedule(String name, Runnable action, long intervalMs, @Nullable String eventName) {
+        final Task task = new Task(name, action, Math.max(1, intervalMs), eventName);
+        mHandler.post(() -> {
+            synchronized (mTasks) {
+                mTasks.add(task);
+            }
+            if (task.shouldRun()) {
+                task.start();
+            }
+        });
+        return task;
+    }
+
+    // Runs task once on the background worker, after the tasks submitted before it
+    public void runInBackground(Runnable task) {
+        mBackground.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Background task failed", e);
+            }
+        });
+    }
+
+    public void cancel(@Nullable Task task) {
+        if (task == null) {
+            return;
+        }
+        mHandler.post(() -> {
+            task.mCancelled = true;
+            task.stop();
+            synchronized (mTasks) {
+                mTasks.remove(task);
+            }
+        });
+    }
+
+    @Override
+    public void onListenersChanged() {
+        mHandler.post(() -> {
+            List<Task> tasks;
+            synchronized (mTasks) {
+                tasks = new ArrayList<>(mTasks);
+            }
+            for (Task task : tasks) {
+                boolean shouldRun = task.shouldRun();
+                if (shouldRun && !task.mRunning) {
+                    Log.v(TAG, "Resuming " + task.mName);
+                    task.start();
+                } else if (!shouldRun && task.mRunning) {
+                    Log.v(TAG, "Pausing " + task.mName);
+                    task.stop();
+                }
+            }
+        });
+    }
+
+    public WritableArray getMetrics() {
+        WritableNativeArray result = new WritableNativeArray();
+        synchronized (mTasks) {
+            for (Task task : mTasks) {
+                result.pushMap(task.toReactMap());
+            }
+        }
+        return result;
+    }
+}
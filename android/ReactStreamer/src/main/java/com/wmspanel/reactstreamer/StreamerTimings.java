@@ -0,0 +1,188 @@
+package com.wmspanel.reactstreamer;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.Arrays;
+
+// Monotonic timestamps of StreamerView lifecycle milestones.
+// A session starts when the view is created or the streamer is re-created after a pause;
+// connections are tracked from connectTo until RECORD. Completed sessions and connections
+// feed process-wide samples, which are reported as percentiles.
+// All values are reported in milliseconds relative to the session start.
+public final class StreamerTimings {
+
+    public static final int VIEW_CREATED = 0;
+    public static final int SURFACE_CREATED = 1;
+    public static final int STREAMER_CREATE = 2;
+    public static final int STREAMER_BUILT = 3;
+    public static final int CAPTURE_STARTED = 4;
+    private static final int SESSION_PHASES = 5;
+
+    public static final int CONNECT = 0;
+    public static final int CONNECTED = 1;
+    public static final int RECORD = 2;
+    private static final int CONNECTION_PHASES = 3;
+
+    private static final String[] SESSION_PHASE_NAMES =
+            {"viewCreated", "surfaceCreated", "streamerCreate", "streamerBuilt", "captureStarted"};
+    private static final String[] CONNECTION_PHASE_NAMES = {"connect", "connected", "record"};
+
+    // aggregated metrics
+    private static final int METRIC_TIME_TO_PREVIEW = 0;
+    private static final int METRIC_STREAMER_BUILD = 1;
+    private static final int METRIC_CONNECT = 2;
+    private static final int METRIC_CONNECT_TO_LIVE = 3;
+    private static final int METRIC_TIME_TO_LIVE = 4;
+    private static final int METRIC_COUNT = 5;
+    private static final String[] METRIC_NAMES =
+            {"timeToPreview", "streamerBuild", "connect", "connectToLive", "timeToLive"};
+
+    private static final int MAX_SAMPLES = 128;
+    private static final long[][] sSamples = new long[METRIC_COUNT][MAX_SAMPLES];
+    private static final int[] sSampleCount = new int[METRIC_COUNT];
+    private static final int[] sSampleNext = new int[METRIC_COUNT];
+
+    private final long[] mSession = new long[SESSION_PHASES];
+    private final SparseArray<long[]> mConnections = new SparseArray<>();
+    private boolean mLiveReported;
+
+    public StreamerTimings() {
+        Arrays.fill(mSession, -1);
+    }
+
+    public synchronized void beginSession(int phase) {
+        Arrays.fill(mSession, -1);
+        mConnections.clear();
+        mLiveReported = false;
+        mSession[phase] = now();
+    }
+
+    // Returns true if the phase was recorded, repeated milestones keep the first timestamp
+    public synchronized boolean mark(int phase) {
+        if (mSession[phase] >= 0) {
+            return false;
+        }
+        mSession[phase] = now();
+        final long start = sessionStart();
+        if (phase == CAPTURE_STARTED) {
+            addSample(METRIC_TIME_TO_PREVIEW, mSession[phase] - start);
+        } else if (phase == STREAMER_BUILT && mSession[STREAMER_CREATE] >= 0) {
+            addSample(METRIC_STREAMER_BUILD, mSession[phase] - mSession[STREAMER_CREATE]);
+        }
+        return true;
+    }
+
+    public synchronized boolean markConnection(int connectionId, int phase) {
+        long[] conn = mConnections.get(connectionId);
+        if (phase == CONNECT) {
+            conn = new long[CONNECTION_PHASES];
+            Arrays.fill(conn, -1);
+            mConnections.put(connectionId, conn);
+        } else if (conn == null) {
+            return false;
+        }
+        if (conn[phase] >= 0) {
+            return false;
+        }
+        conn[phase] = now();
+        if (phase == CONNECTED) {
+            addSample(METRIC_CONNECT, conn[CONNECTED] - conn[CONNECT]);
+        } else if (phase == RECORD) {
+            addSample(METRIC_CONNECT_TO_LIVE, conn[RECORD] - conn[CONNECT]);
+            if (!mLiveReported) {
+                // first connection going live in the session
+                mLiveReported = true;
+                addSample(METRIC_TIME_TO_LIVE, conn[RECORD] - sessionStart());
+            }
+        }
+        return true;
+    }
+
+    public synchronized WritableMap toReactMap() {
+        final long start = sessionStart();
+        WritableNativeMap result = new WritableNativeMap();
+        WritableNativeMap session = new WritableNativeMap();
+        for (int i = 0; i < SESSION_PHASES; i++) {
+            if (mSession[i] >= 0) {
+                session.putDouble(SESSION_PHASE_NAMES[i], toMs(mSession[i] - start));
+            }
+        }
+        result.putMap("session", session);
+
+        WritableNativeArray connections = new WritableNativeArray();
+        for (int i = 0; i < mConnections.size(); i++) {
+            final long[] conn = mConnections.valueAt(i);
+            WritableNativeMap item = new WritableNativeMap();
+            item.putInt("connectionId", mConnections.keyAt(i));
+            for (int phase = 0; phase < CONNECTION_PHASES; phase++) {
+                if (conn[phase] >= 0) {
+                    item.putDouble(CONNECTION_PHASE_NAMES[phase], toMs(conn[phase] - start));
+                }
+            }
+            connections.pushMap(item);
+        }
+        result.putArray("connections", connections);
+        return result;
+    }
+
+    private long sessionStart() {
+        long start = Long.MAX_VALUE;
+        for (long t : mSession) {
+            if (t >= 0 && t < start) {
+                start = t;
+            }
+        }
+        return start == Long.MAX_VALUE ? now() : start;
+    }
+
+    private static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void addSample(int metric, long nanos) {
+        synchronized (sSamples) {
+            sSamples[metric][sSampleNext[metric]] = nanos;
+            sSampleNext[metric] = (sSampleNext[metric] + 1) % MAX_SAMPLES;
+            sSampleCount[metric] = Math.min(sSampleCount[metric] + 1, MAX_SAMPLES);
+        }
+    }
+
+    // {metric: {count, min, p50, p90, p99, max}} over the last MAX_SAMPLES values of each metric
+    public static WritableMap getAggregates() {
+        WritableNativeMap result = new WritableNativeMap();
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            long[] samples;
+            synchronized (sSamples) {
+                samples = Arrays.copyOf(sSamples[metric], sSampleCount[metric]);
+            }
+            if (samples.length == 0) {
+                continue;
+            }
+            Arrays.sort(samples);
+            WritableNativeMap stats = new WritableNativeMap();
+            stats.putInt("count", samples.length);
+            stats.putDouble("min", toMs(samples[0]));
+            stats.putDouble("p50", toMs(percentile(samples, 50)));
+            stats.putDouble("p90", toMs(percentile(samples, 90)));
+            stats.putDouble("p99", toMs(percentile(samples, 99)));
+            stats.putDouble("max", toMs(samples[samples.length - 1]));
+            result.putMap(METRIC_NAMES[metric], stats);
+        }
+        return result;
+    }
+
+    // nearest-rank percentile of sorted samples
+    private static long percentile(long[] sorted, int p) {
+        final int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -4,11 +4,11 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
-import android.graphics.Bitmap;
 import android.media.MediaFormat;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
@@ -22,10 +22,8 @@ import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.bridge.WritableNativeMap;
-import com.facebook.react.modules.core.DeviceEventManagerModule;
-import com.wmspanel.libcommon.CameraRegistry;
 import com.wmspanel.libstream.AudioConfig;
+import com.wmspanel.libstream.CameraConfig;
 import com.wmspanel.libstream.VideoConfig;
 import com.wmspanel.libstream.ConnectionConfig;
 import com.wmspanel.libstream.RistConfig;
@@ -39,25 +37,28 @@ import com.wmspanel.libcommon.CameraInfo;
 import com.wmspanel.libcommon.MediaCodecUtils;
 import com.wmspanel.libcommon.ConnectionStatistics;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class StreamerView extends AspectFrameLayout implements Streamer.Listener {
 
     private static final String TAG = "StreamerView";
 
+    private static final int CONNECT_WORKERS = 4;
+    private static final long CONNECT_WORKER_KEEP_ALIVE_S = 30;
+
     public boolean mAutostart;
     public boolean mUseCamera2;
     public boolean mVerticalVideo;
@@ -66,28 +67,74 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
 
     protected SurfaceView mSurfaceView;
     private Handler mHandler;
+    private final StreamerEventBus mEventBus;
     protected SurfaceHolder mHolder;
-    protected StreamerGL mStreamerGL;
+    // owns StreamerGL, all calls to the streamer go through it
+    protected final StreamerEngine mEngine = new StreamerEngine();
+    private SnapshotPipeline mSnapshots;
+    private PreviewFrameFeed mPreviewFrames;
+    private StorageManager mStorage;
     private boolean mStreamerActive = false;
-    private boolean mConnectionActive = false;
-    private boolean mWriting = false;
-
-    private Timer mUpdateStatisticsTimer;
+    // also read by the upload throttle
+    private volatile boolean mConnectionActive = false;
+    // any connection losing data at the last statistics tick
+    private volatile boolean mUplinkCongested = false;
+    // bits per second the encoder was last set to, written on the engine thread
+    private volatile int mEncoderBitrate = 0;
+    private volatile boolean mWriting = false;
+    // recording assembled from replay segments, main thread
+    @Nullable private File mRecordFile;
+
+    private StreamerScheduler.Task mUpdateStatisticsTask;
     private int mUpdateStatsInteval;
 
+    // statistics polling interval used for ABR when statsUpdateInterval is not set
+    private static final int ABR_INTERVAL_MS = 1000;
+    @Nullable private ReadableMap mAbrSettings;
+    // replaced from the main thread, used on the engine thread
+    @Nullable private volatile AbrController mAbr;
+    @Nullable private ReadableMap mDegradationSettings;
+    @Nullable private volatile DegradationPolicy mDegradation;
+
     VideoConfig mVideoConfig;
     AudioConfig mAudioConfig;
     Streamer.Size mEncoderVideoSize = new Streamer.Size(1280, 720);
     Streamer.Size mVideoSize = new Streamer.Size(1280, 720);
+    // requested fps range, encoder fps is negotiated from it
+    private float mFpsMin = 30;
+    private float mFpsMax = 30;
+    // capture format per camera for the requested size / fps range
+    private final FormatNegotiator mNegotiator = new FormatNegotiator();
 
-    private String mCameraId = "0";
+    private volatile String mCameraId = "0";
     private Streamer.CaptureState mVideoCaptureState = Streamer.CaptureState.STOPPED;
     private Streamer.CaptureState mAudioCaptureState = Streamer.CaptureState.STOPPED;
 
     private List<CameraInfo> mCameraList;
-    private List<Integer> connections = new ArrayList<>();
-    private final Map<Integer, Streamer.ConnectionState> mConnectionState = new HashMap<>();
-    private final Map<Integer, ConnectionStatistics> mConnectionStatistics = new HashMap<>();
+    // main thread, see layoutScheduler(); no initializer, as it may be set during super()
+    private LayoutScheduler mLayout;
+    // last ratio given to setAspectRatio, AspectFrameLayout keeps it private
+    private double mAspectRatio = 0;
+    // also read by synchronous module getters on the JS thread
+    private final ConnectionRegistry mConnections = new ConnectionRegistry();
+    // statistics ticks fill these in turns on the engine thread and publish the filled one
+    // for the stats event and getBandwidth; each is locked while filled or read
+    private final ConnectionRegistry.Snapshot[] mTickSnapshots = {
+            new ConnectionRegistry.Snapshot(), new ConnectionRegistry.Snapshot()};
+    private int mTickIndex = 0;
+    @Nullable private volatile ConnectionRegistry.Snapshot mPublishedStats;
+    private final StatsEmitter mStatsEmitter = new StatsEmitter();
+    private final StreamerTimings mTimings = new StreamerTimings();
+    // connectAsync, one destination per worker
+    private final ThreadPoolExecutor mConnectWorkers = new ThreadPoolExecutor(CONNECT_WORKERS, CONNECT_WORKERS,
+            CONNECT_WORKER_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            r -> new Thread(r, "ConnectWorker"));
+    @Nullable private volatile ReconnectPolicy mReconnect;
+    // main thread; replay keeps the recorder running while capture is on
+    @Nullable private ReplayBuffer.Config mReplayConfig;
+    @Nullable private ReplayBuffer mReplay;
+    // released buffer still waiting for the recorder to close its last segment
+    @Nullable private ReplayBuffer mReplayDraining;
 
 
     protected SurfaceHolder.Callback mPreviewHolderCallback = new SurfaceHolder.Callback() {
@@ -101,6 +148,10 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
             }
 
             mHolder = holder;
+            if (!mTimings.mark(StreamerTimings.SURFACE_CREATED)) {
+                // surface re-created after a pause
+                mTimings.beginSession(StreamerTimings.SURFACE_CREATED);
+            }
             // We got surface to draw on, start streamer creation
             if (mAutostart) {
                 createStreamer();
@@ -111,9 +162,8 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
         @Override
         public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
             //Log.v(TAG, "surfaceChanged() " + width + "x" + height);
-            if (mStreamerGL != null) {
-                mStreamerGL.setSurfaceSize(new Streamer.Size(width, height));
-            }
+            final Streamer.Size surfaceSize = new Streamer.Size(width, height);
+            mEngine.post(streamer -> streamer.setSurfaceSize(surfaceSize));
         }
 
         @Override
@@ -130,56 +180,84 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
         Log.d(TAG, "StreamerView finalize");
     }
 
-    protected final Runnable mUpdateStatistics = new Runnable() {
+    protected final StreamerEngine.Command mUpdateStatistics = new StreamerEngine.Command() {
         @Override
-        public void run() {
-            if (mStreamerGL == null) {
-                return;
+        public void run(StreamerGL streamer) {
+            long minBandwidth = Long.MAX_VALUE;
+            boolean lossIncreasing = false;
+            final ConnectionRegistry.Snapshot snapshot = mTickSnapshots[mTickIndex];
+            mTickIndex ^= 1;
+            synchronized (snapshot) {
+                final int count = mConnections.snapshot(snapshot);
+                for (int i = 0; i < count; i++) {
+                    // some auth schemes require reconnection to same url multiple times
+                    // app should not query connection statistics while auth phase is in progress
+                    final ConnectionStatistics statistics = snapshot.statistics[i];
+                    if (snapshot.states[i] == Streamer.ConnectionState.RECORD && statistics != null) {
+                        statistics.update(streamer, snapshot.ids[i]);
+                        snapshot.duration[i] = statistics.getDuration();
+                        snapshot.traffic[i] = statistics.getTraffic();
+                        snapshot.bandwidth[i] = statistics.getBandwidth();
+                        snapshot.loss[i] = statistics.isDataLossIncreasing();
+                        minBandwidth = Math.min(minBandwidth, snapshot.bandwidth[i]);
+                        lossIncreasing |= snapshot.loss[i];
+                    } else {
+                        snapshot.duration[i] = 0;
+                        snapshot.traffic[i] = 0;
+                        snapshot.bandwidth[i] = 0;
+                        snapshot.loss[i] = false;
+                    }
+                }
             }
-
-            for (int id : connections) {
-                Streamer.ConnectionState state = mConnectionState.get(id);
-                if (state == null) {
-                    continue;
+            mPublishedStats = snapshot;
+            mUplinkCongested = lossIncreasing;
+
+            final AbrController abr = mAbr;
+            if (abr != null && minBandwidth != Long.MAX_VALUE) {
+                final int previous = abr.getBitrate();
+                final int bitrate = abr.onTick(minBandwidth, lossIncreasing);
+                if (bitrate != AbrController.NO_CHANGE) {
+                    streamer.changeBitRate(bitrate);
+                    mEncoderBitrate = bitrate;
+                    notifyBitrateChange(abr, previous, bitrate);
                 }
+            }
 
-                // some auth schemes require reconnection to same url multiple times
-                // app should not query connection statistics while auth phase is in progress
-                if (state == Streamer.ConnectionState.RECORD) {
-                    ConnectionStatistics statistics = mConnectionStatistics.get(id);
-                    if (statistics != null) {
-                        statistics.update(mStreamerGL, id);
-                    }
+            final DegradationPolicy degradation = mDegradation;
+            if (degradation != null && minBandwidth != Long.MAX_VALUE) {
+                final int level = degradation.onSample(SystemClock.elapsedRealtime(), lossIncreasing);
+                if (level != DegradationPolicy.NO_CHANGE) {
+                    applyDegradationLevel(streamer, degradation, level);
+                    notifyDegradationChange(degradation);
                 }
             }
 
-            updateConnectionInfo();
+            if (EventListenerTracker.hasListeners("onStreamerStats")) {
+                mHandler.post(mUpdateConnectionInfo);
+            }
 
         }
     };
 
+    private final Runnable mUpdateConnectionInfo = this::updateConnectionInfo;
+
+    // ticks arrive on the scheduler thread, statistics are queried on the engine thread
+    // and emitted from the main one
+    private final Runnable mPostStatisticsUpdate = () -> mEngine.post(mUpdateStatistics);
+
 
     public void onResume() {
         if (mHolder != null) {
             Log.v(TAG, "Resuming after pause");
             createStreamer();
         }
-        if (mUpdateStatsInteval > 0) {
-            mUpdateStatisticsTimer = new Timer();
-            mUpdateStatisticsTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    mHandler.post(mUpdateStatistics);
-                }
-            }, mUpdateStatsInteval, mUpdateStatsInteval);
-        }
+        scheduleStatistics();
     }
 
     public void onPause() {
-        if (mUpdateStatisticsTimer != null) {
+        if (mUpdateStatisticsTask != null) {
             updatePreviewRatio(mVideoSize);
-            mUpdateStatisticsTimer.cancel();
-            mUpdateStatisticsTimer = null;
+            cancelStatistics();
         }
         if (mHolder != null) {
             mAutostart = true;
@@ -189,84 +267,290 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
 
     }
 
-    public StreamerView(Context context) {
+    public StreamerView(Context context, StreamerEventBus eventBus) {
         super(context);
+        mTimings.beginSession(StreamerTimings.VIEW_CREATED);
+        mEventBus = eventBus;
         mSurfaceView = new SurfaceView(context);
         mSurfaceView.getHolder().addCallback(mPreviewHolderCallback);
         FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT, Gravity.CENTER);
         addView(mSurfaceView, layoutParams);
         mHandler = new Handler(Looper.getMainLooper());
+        mSnapshots = new SnapshotPipeline(mEngine, mHandler, this::notifySnapshot);
+        mPreviewFrames = new PreviewFrameFeed(mEngine, mHandler, this::notifyPreviewFrame);
+        mStorage = new StorageManager(context.getCacheDir(), mHandler, mEventBus, mStorageListener);
+        mConnectWorkers.allowCoreThreadTimeOut(true);
 
-        // default config: h264, 2 mbps, 2 sec. keyframe interval
+        // default config: h264, 2 sec. keyframe interval, size and fps by the encoder
+        // benchmark tier of the device (720p30 unless a complete run found more)
         mVideoConfig = new VideoConfig();
-        mVideoConfig.videoSize = mVideoSize;
+        final EncoderBenchmark.Preset preset = EncoderBenchmark.getInstance(context).getPreset();
+        mVideoSize = preset.size;
+        mEncoderVideoSize = preset.size;
+        mVideoConfig.videoSize = mEncoderVideoSize;
+        mFpsMin = preset.fps;
+        mFpsMax = preset.fps;
+        mVideoConfig.fps = preset.fps;
+        mVideoConfig.bitRate = MediaCodecUtils.recommendedBitrateKbps(mVideoConfig.type, preset.size.height, preset.fps) * 1000;
+        mNegotiator.setRequest(mVideoSize, mFpsMin, mFpsMax, mVideoConfig.type);
         mAudioConfig = new AudioConfig();
         mUseCamera2 = SettingsUtils.isUsingCamera2(context);
     }
 
     public void createStreamer() {
         mStreamerActive = true;
-        mHandler.post(() -> {
-            createStreamerInternal();
-        });
+        // a benchmark requested by JS holds a hardware encoder, wait for it to finish
+        final EncoderBenchmark benchmark = EncoderBenchmark.getInstance(getContext());
+        mHandler.post(() -> benchmark.whenIdle(mHandler, () -> {
+            if (mStreamerActive) {
+                createStreamerInternal();
+            }
+        }));
 
     }
 
     private void createStreamerInternal() {
         Log.v(TAG, "createStreamer()");
-        if (mStreamerGL != null && mHolder == null) {
+        if (mHolder == null) {
             Log.e(TAG, "No surface holder");
             return;
         }
 
-        final StreamerGLBuilder builder = new StreamerGLBuilder();
-        configureBuilder(builder);
-        mStreamerGL = builder.build();
+        if (!mTimings.mark(StreamerTimings.STREAMER_CREATE)) {
+            // resumed with the existing surface
+            mTimings.beginSession(StreamerTimings.STREAMER_CREATE);
+        }
 
-        if (mStreamerGL != null) {
-            mStreamerGL.startVideoCapture();
-            mStreamerGL.startAudioCapture();
+        // encoder starts with the configured bitrate and video level
+        if (mAbrSettings != null) {
+            resetAbr();
+        }
+        if (mDegradationSettings != null) {
+            resetDegradation();
         }
 
+        // builder only collects settings, the streamer is built on the engine thread
+        final StreamerGLBuilder builder = new StreamerGLBuilder();
+        configureBuilder(builder);
+        mPreviewFrames.onStreamerCreated();
+        final int bitrate = mVideoConfig.bitRate;
+        mEngine.create(builder, () -> {
+            mEncoderBitrate = bitrate;
+            mTimings.mark(StreamerTimings.STREAMER_BUILT);
+        });
+        notifyFormat(mCameraId);
+
         updatePreviewRatio(mVideoSize);
     }
 
     public void setTorch(boolean isOn) {
-        if (mStreamerGL == null)
+        mEngine.post(streamer -> {
+            if (streamer.isTorchOn() != isOn) {
+                streamer.toggleTorch();
+            }
+        });
+    }
+
+    public void setSilence(boolean isMute) {
+        mEngine.post(streamer -> streamer.setSilence(isMute));
+    }
+
+    public void setZoom(float zoom) {
+        mEngine.post(streamer -> streamer.zoomTo(zoom));
+    }
+
+    public void setUpdateInterval(float interval) {
+        cancelStatistics();
+        mUpdateStatsInteval = (int)(interval * 1000);
+        scheduleStatistics();
+    }
+
+    private void scheduleStatistics() {
+        final boolean adaptive = mAbr != null || mDegradation != null;
+        final int interval = mUpdateStatsInteval > 0 ? mUpdateStatsInteval : (adaptive ? ABR_INTERVAL_MS : 0);
+        if (interval <= 0 || mUpdateStatisticsTask != null) {
             return;
-        boolean currentValue = mStreamerGL.isTorchOn();
-        if (currentValue != isOn) {
-            mStreamerGL.toggleTorch();
         }
+        // statistics are only polled while JS is subscribed to onStreamerStats,
+        // unless ABR or degradation needs them
+        mUpdateStatisticsTask = StreamerScheduler.getInstance().schedule(
+                "statistics", mPostStatisticsUpdate, interval, adaptive ? null : "onStreamerStats");
     }
 
-    public void setSilence(boolean isMute) {
-        if (mStreamerGL == null)
+    // "auto" picks HEVC when a hardware encoder sustains the configured size and fps,
+    // requested HEVC falls back to AVC when the device has a software HEVC encoder only
+    private String selectVideoType(boolean auto) {
+        final CodecCapabilityCache codecs = CodecCapabilityCache.getInstance(getContext());
+        final int width = mEncoderVideoSize.width;
+        final int height = mEncoderVideoSize.height;
+        final String hevc = MediaFormat.MIMETYPE_VIDEO_HEVC;
+        final String avc = MediaFormat.MIMETYPE_VIDEO_AVC;
+        if (auto) {
+            return codecs.canEncodeInHardware(hevc, width, height, mFpsMax) ? hevc : avc;
+        }
+        if (codecs.findHardwareEncoder(hevc, width, height, mFpsMax) == null
+                && codecs.findHardwareEncoder(avc, width, height, mFpsMax) != null) {
+            Log.w(TAG, "No hardware HEVC encoder, using AVC");
+            return avc;
+        }
+        return hevc;
+    }
+
+    public void setDegradationConfig(@Nullable ReadableMap config) {
+        mDegradationSettings = config;
+        resetDegradation();
+        cancelStatistics();
+        scheduleStatistics();
+    }
+
+    // Levels depend on the active camera and the configured size / fps
+    private void resetDegradation() {
+        final DegradationPolicy previous = mDegradation;
+        mDegradation = null;
+        if (previous != null && previous.getLevelIndex() > 0) {
+            mEngine.post(streamer -> applyDegradationLevel(streamer, previous, 0));
+        }
+        final DegradationPolicy.Config config = SettingsUtils.parseDegradationConfig(mDegradationSettings);
+        final CameraInfo cameraInfo = findCameraInfo(mCameraId);
+        if (config == null || cameraInfo == null) {
             return;
-        mStreamerGL.setSilence(isMute);
+        }
+        final List<DegradationPolicy.Level> levels =
+                SettingsUtils.buildDegradationLevels(cameraInfo, mNegotiator.negotiate(cameraInfo), config);
+        if (levels.size() > 1) {
+            Log.d(TAG, "Degradation levels " + levels);
+            mDegradation = new DegradationPolicy(config, levels);
+        }
     }
 
-    public void setZoom(float zoom) {
-        if (mStreamerGL == null)
+    private final Runnable mResetDegradation = this::resetDegradation;
+
+    // Runs on the engine thread
+    private void applyDegradationLevel(StreamerGL streamer, DegradationPolicy policy, int index) {
+        final DegradationPolicy.Level level = policy.getLevel(index);
+        final Streamer.Size cameraSize = new Streamer.Size(level.width, level.height);
+
+        final VideoConfig videoConfig = new VideoConfig();
+        videoConfig.type = mVideoConfig.type;
+        videoConfig.keyFrameInterval = mVideoConfig.keyFrameInterval;
+        videoConfig.profileLevel = mVideoConfig.profileLevel;
+        videoConfig.bitRateMode = mVideoConfig.bitRateMode;
+        videoConfig.discardCameraTimestamp = mVideoConfig.discardCameraTimestamp;
+        videoConfig.videoSize = mVerticalVideo ? new Streamer.Size(level.height, level.width) : cameraSize;
+        videoConfig.fps = level.fps;
+        final int ceiling = levelCeiling(policy, index);
+        final AbrController abr = mAbr;
+        int bitrate;
+        if (abr != null) {
+            // otherwise the next ABR step would take the encoder back above the cap
+            bitrate = abr.setCeiling(ceiling);
+        } else {
+            bitrate = ceiling > 0 ? Math.min(mVideoConfig.bitRate, ceiling) : mVideoConfig.bitRate;
+        }
+        videoConfig.bitRate = bitrate;
+        streamer.changeVideoConfig(videoConfig);
+        mEncoderBitrate = bitrate;
+
+        final CameraConfig cameraConfig = new CameraConfig();
+        cameraConfig.cameraId = mCameraId;
+        cameraConfig.videoSize = cameraSize;
+        cameraConfig.fpsRange = new Streamer.FpsRange(level.fpsMin, level.fpsMax);
+        streamer.changeCameraConfig(cameraConfig);
+        Log.d(TAG, "Video level " + index + ": " + level);
+    }
+
+    // Encoder bitrate cap of a lower video level, 0 for the top one
+    private int levelCeiling(DegradationPolicy policy, int index) {
+        if (index == 0) {
+            return 0;
+        }
+        final DegradationPolicy.Level level = policy.getLevel(index);
+        return MediaCodecUtils.recommendedBitrateKbps(mVideoConfig.type, level.height, level.fps) * 1000;
+    }
+
+    private void notifyDegradationChange(DegradationPolicy policy) {
+        final DegradationPolicy.Level level = policy.getLevel();
+        WritableMap params = Arguments.createMap();
+        params.putInt("level", policy.getLevelIndex());
+        params.putInt("levelCount", policy.getLevelCount());
+        params.putInt("width", mVerticalVideo ? level.height : level.width);
+        params.putInt("height", mVerticalVideo ? level.width : level.height);
+        params.putInt("fps", level.fps);
+        mEventBus.post("onDegradationChanged", params);
+    }
+
+    // Reports the capture format negotiated for the camera
+    private void notifyFormat(String cameraId) {
+        final CameraInfo info = findCameraInfo(cameraId);
+        if (info == null) {
             return;
-        mStreamerGL.zoomTo(zoom);
+        }
+        final FormatNegotiator.Result format = mNegotiator.negotiate(info);
+        final Streamer.Size size = mVideoConfig.videoSize;
+        WritableMap params = FormatNegotiator.toReactMap(format, size, mVideoConfig.type);
+        final CodecCapabilityCache.EncoderInfo encoder = CodecCapabilityCache.getInstance(getContext())
+                .findHardwareEncoder(mVideoConfig.type, size.width, size.height, format.fps);
+        params.putBoolean("hardwareEncoder", encoder != null);
+        mEventBus.post("onFormatNegotiated", params);
     }
 
-    public void setUpdateInterval(float interval) {
-        if (mUpdateStatisticsTimer != null) {
-            mUpdateStatisticsTimer.cancel();
-            mUpdateStatisticsTimer = null;
+    @Nullable
+    private CameraInfo findCameraInfo(String cameraId) {
+        for (CameraInfo info : getCameraList()) {
+            if (info.cameraId.equals(cameraId)) {
+                return info;
+            }
         }
-        mUpdateStatsInteval = (int)(interval * 1000);
-        if (interval > 0) {
-            mUpdateStatisticsTimer = new Timer();
-            mUpdateStatisticsTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    mHandler.post(mUpdateStatistics);
-                }
-            }, mUpdateStatsInteval, mUpdateStatsInteval);
+        return null;
+    }
+
+    public void setAbrConfig(@Nullable ReadableMap config) {
+        mAbrSettings = config;
+        resetAbr();
+        cancelStatistics();
+        scheduleStatistics();
+    }
+
+    // New controller starts from the configured bitrate, so the encoder is reset to it as well,
+    // within the cap of the current video level
+    private void resetAbr() {
+        final AbrController previous = mAbr;
+        final AbrController.Config config = SettingsUtils.parseAbrConfig(mAbrSettings, mVideoConfig.bitRate / 1000);
+        final AbrController abr = config == null ? null : new AbrController(config, mVideoConfig.bitRate);
+        mAbr = abr;
+        if (previous == null && abr == null) {
+            return;
         }
+        final int configured = mVideoConfig.bitRate;
+        mEngine.post(streamer -> {
+            final DegradationPolicy degradation = mDegradation;
+            final int ceiling = degradation == null ? 0 : levelCeiling(degradation, degradation.getLevelIndex());
+            int bitrate;
+            if (abr != null) {
+                bitrate = abr.setCeiling(ceiling);
+            } else {
+                bitrate = ceiling > 0 ? Math.min(configured, ceiling) : configured;
+            }
+            if (bitrate != mEncoderBitrate) {
+                streamer.changeBitRate(bitrate);
+                mEncoderBitrate = bitrate;
+            }
+        });
+    }
+
+    private void notifyBitrateChange(AbrController abr, int previous, int bitrate) {
+        Log.d(TAG, "ABR " + previous + " -> " + bitrate + " (" + abr.getLastReason() + ")");
+        WritableMap params = Arguments.createMap();
+        params.putInt("bitrate", bitrate);
+        params.putInt("previousBitrate", previous);
+        params.putString("reason", abr.getLastReason());
+        params.putString("mode", abr.getMode() == AbrController.MODE_AIMD ? "aimd" : "ladder");
+        mEventBus.post("onBitrateChanged", params);
+    }
+
+    private void cancelStatistics() {
+        StreamerScheduler.getInstance().cancel(mUpdateStatisticsTask);
+        mUpdateStatisticsTask = null;
     }
 
     public void setCamera(String camId, String position) {
@@ -285,26 +569,33 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
                 break;
             }
         }
-        String currentCamId = null;
-        if (mStreamerGL != null) {
-            currentCamId = mStreamerGL.getActiveCameraId();
-        }
-        if (currentCamId == null) {
+        if (!mEngine.isActive()) {
             mCameraId = newCamera;
             return;
         }
-        if (currentCamId.equals(newCamera)) {
+        if (mCameraId.equals(newCamera)) {
             return;
         }
         final String nextCamera = newCamera;
-        mHandler.post(() -> {
+        final List<CameraInfo> infoList = cameraList;
+        mEngine.post(streamer -> {
+            if (nextCamera.equals(streamer.getActiveCameraId())) {
+                return;
+            }
+            // flip camera uses the configured size, levels are rebuilt for it afterwards
+            final DegradationPolicy degradation = mDegradation;
+            mDegradation = null;
+            if (degradation != null && degradation.getLevelIndex() > 0) {
+                applyDegradationLevel(streamer, degradation, 0);
+            }
             Log.d(TAG, "Flip to camera " + nextCamera);
-            mStreamerGL.flip(nextCamera, null);
-            mCameraId = mStreamerGL.getActiveCameraId();
+            streamer.flip(nextCamera, null);
+            mCameraId = streamer.getActiveCameraId();
             Log.d(TAG, "Active camera " + mCameraId);
+            if (mDegradationSettings != null) {
+                mHandler.post(mResetDegradation);
+            }
 
-            List<CameraInfo> infoList = getCameraList();
-            ReadableMap result = new WritableNativeMap();
             CameraInfo activeInfo = null;
             for (CameraInfo cameraInfo : infoList) {
                 if (cameraInfo.cameraId.equals(mCameraId)) {
@@ -313,13 +604,12 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
                 }
             }
             if (activeInfo != null) {
-                ReactContext context = (ReactContext) getContext();
-                context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(
-                        "onCameraChanged", CameraInfoReact.toReactMap(activeInfo));
+                mEventBus.post("onCameraChanged", CameraInfoReact.toReactMap(activeInfo));
+                // camera list and video config belong to the main thread
+                final String activeCamera = mCameraId;
+                mHandler.post(() -> notifyFormat(activeCamera));
             }
         });
-
-
     }
 
     public void setVideoConfig(ReadableMap config) {
@@ -332,20 +622,25 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
             }
         }
         if (config.hasKey("fps")) {
+            // "30" or "15-30", encoder runs at the upper bound
             String fpsStr = config.getString("fps");
+            String fpsMinStr = fpsStr;
             int sepPos = fpsStr.indexOf('-');
-            //TODO: set range instead of max value
             if (sepPos > 0) {
+                fpsMinStr = fpsStr.substring(0, sepPos);
                 fpsStr = fpsStr.substring(sepPos+1);
             }
             float fps = 0;
+            float fpsMin = 0;
             try {
                 fps = Float.parseFloat(fpsStr);
+                fpsMin = Float.parseFloat(fpsMinStr);
             } catch (NumberFormatException e) {
                 Log.e(TAG, "Invalid fps value");
             }
             if (fps > 0) {
-                mVideoConfig.fps = fps;
+                mFpsMax = fps;
+                mFpsMin = fpsMin > 0 ? Math.min(fpsMin, fps) : fps;
             }
         }
         if (config.hasKey("format")) {
@@ -353,17 +648,32 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
             if (videoCodec.equals("avc") || videoCodec.equals("h264")) {
                 mVideoConfig.type = MediaFormat.MIMETYPE_VIDEO_AVC;
             } else if (videoCodec.equals("hevc") || videoCodec.equals("h265")) {
-                mVideoConfig.type = MediaFormat.MIMETYPE_VIDEO_HEVC;
+                mVideoConfig.type = selectVideoType(false);
+            } else if (videoCodec.equals("auto")) {
+                mVideoConfig.type = selectVideoType(true);
             }
         }
         int bitrate = 0;
         if (config.hasKey("bitrate")) {
             bitrate = config.getInt("bitrate");
         }
+        mNegotiator.setRequest(mVideoSize, mFpsMin, mFpsMax, mVideoConfig.type);
+        mVideoConfig.fps = mFpsMax;
+        final CameraInfo cameraInfo = findCameraInfo(mCameraId);
+        if (cameraInfo != null) {
+            mVideoConfig.fps = mNegotiator.negotiate(cameraInfo).fps;
+        }
         if (bitrate == 0) {
             bitrate = MediaCodecUtils.recommendedBitrateKbps(mVideoConfig.type, mVideoConfig.videoSize.height, mVideoConfig.fps);
         }
         mVideoConfig.bitRate = bitrate * 1000;
+        if (mAbrSettings != null) {
+            // default ABR range follows the configured bitrate
+            resetAbr();
+        }
+        if (mDegradationSettings != null) {
+            resetDegradation();
+        }
         if (config.hasKey("keyframe")) {
             int interval = config.getInt("keyframe");
             if (interval > 0) {
@@ -406,31 +716,39 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
         }
     }
 
-    public void setResizeMode(String mode) {
-        if (mode.equals("fit")) {
+    public void setResizeMode(@Nullable String mode) {
+        if ("fit".equals(mode)) {
             mResizeMode = ResizeMode.FIT_ASPECT;
-        } else if (mode.equals("fill")) {
+        } else if ("fill".equals(mode)) {
             mResizeMode = ResizeMode.FILL_ASPECT;
-        } else if (mode.equals("stretch")) {
+        } else if ("stretch".equals(mode)) {
             mResizeMode = ResizeMode.FILL;
         }
         setResizeMode(mResizeMode);
     }
 
     public void setLockedOrientation(boolean locked, Activity activity) {
-        if (mStreamerGL != null) {
-            mStreamerGL.setDisplayRotation(displayRotation());
-            mStreamerGL.setVideoOrientation(videoOrientation());
-        }
+        final int rotation = displayRotation();
+        final int videoOrientation = videoOrientation();
+        mEngine.post(streamer -> {
+            streamer.setDisplayRotation(rotation);
+            streamer.setVideoOrientation(videoOrientation);
+        });
         if (mLiveRotation && mLockOrientation) {
             int orientation = locked ? ActivityInfo.SCREEN_ORIENTATION_LOCKED : ActivityInfo.SCREEN_ORIENTATION_SENSOR;
             activity.setRequestedOrientation(orientation);
         }
     }
 
+    public interface ConnectCallback {
+        // connection id, or -1 and the error code: no_streamer, invalid_url or connect_failed
+        void onResult(int connectionId, @Nullable String error);
+    }
+
+    // Blocks until the engine has created the connection, call it from the native modules thread
     public int connectTo(String urlStr, @Nullable ReadableMap settings) {
         int connectionId = -1;
-        if (mStreamerGL == null) {
+        if (!mEngine.isActive()) {
             Log.e(TAG, "No streamer");
             return connectionId;
         }
@@ -445,6 +763,56 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
         if (parsedUrl.error != null) {
             return connectionId;
         }
+        final ConnectionTarget target = createTarget(parsedUrl, settings);
+        // registered in the connect command itself: state callbacks come on the main looper,
+        // not through the engine, and drop ids that aren't registered yet
+        return mEngine.call(streamer -> {
+            final int id = target.connect(streamer);
+            if (id >= 0) {
+                addConnection(id, target);
+            }
+            return id;
+        }, -1);
+    }
+
+    // Returns at once: the destination is parsed and its host looked up on a connect worker,
+    // then it is connected on the engine as soon as it is ready, so destinations started together
+    // don't wait for each other. Callback comes on the engine thread, or on the worker if the
+    // destination is rejected. settings must not be used by the caller afterwards.
+    public void connectAsync(ReadableMap settings, ConnectCallback callback) {
+        if (!mEngine.isActive()) {
+            callback.onResult(-1, "no_streamer");
+            return;
+        }
+        try {
+            mConnectWorkers.execute(() -> {
+                final String urlStr = settings.hasKey("url") ? settings.getString("url") : null;
+                final UriResult parsedUrl = urlStr == null ? null : UriResult.parseUri(urlStr, false);
+                if (parsedUrl == null || parsedUrl.error != null) {
+                    Log.e(TAG, "Invalid URL " + urlStr);
+                    callback.onResult(-1, "invalid_url");
+                    return;
+                }
+                final ConnectionTarget target = createTarget(parsedUrl, settings);
+                lookup(parsedUrl.host);
+                mEngine.post(streamer -> {
+                    final int connectionId = target.connect(streamer);
+                    if (connectionId < 0) {
+                        callback.onResult(-1, "connect_failed");
+                        return;
+                    }
+                    // right after the connect, state callbacks on the main looper drop unknown ids
+                    addConnection(connectionId, target);
+                    callback.onResult(connectionId, null);
+                }, () -> callback.onResult(-1, "no_streamer"));
+            });
+        } catch (RejectedExecutionException e) {
+            // disposed meanwhile
+            callback.onResult(-1, "no_streamer");
+        }
+    }
+
+    private ConnectionTarget createTarget(UriResult parsedUrl, @Nullable ReadableMap settings) {
         Streamer.Mode streamMode = SettingsUtils.getStreamerMode(settings);
         if (parsedUrl.isSrt()) {
             final SrtConfig config = new SrtConfig();
@@ -452,107 +820,365 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
             config.port = parsedUrl.port;
             config.mode = streamMode;
             SettingsUtils.parseSrtParams(config, settings);
-            connectionId = mStreamerGL.createConnection(config);
+            return new ConnectionTarget(config);
 
         } else if (parsedUrl.isRist()) {
             final RistConfig config = new RistConfig();
             config.uri = parsedUrl.uri;
             config.mode = streamMode;
             SettingsUtils.parseRistParams(config, settings);
-            connectionId = mStreamerGL.createConnection(config);
+            return new ConnectionTarget(config);
 
-        } else {
-            ConnectionConfig config = new ConnectionConfig();
-            config.uri = parsedUrl.uri;
-            config.mode = streamMode;
-            SettingsUtils.parseTcpParams(config, settings, null); //parsedUrl.userInfo
-            connectionId = mStreamerGL.createConnection(config);
         }
+        ConnectionConfig config = new ConnectionConfig();
+        config.uri = parsedUrl.uri;
+        config.mode = streamMode;
+        SettingsUtils.parseTcpParams(config, settings, null); //parsedUrl.userInfo
+        return new ConnectionTarget(config);
+    }
 
-        if (connectionId >= 0) {
-            mConnectionActive = true;
-            connections.add(connectionId);
-            mConnectionStatistics.put(connectionId, new ConnectionStatistics());
+    private void addConnection(int connectionId, ConnectionTarget target) {
+        mConnectionActive = true;
+        mTimings.markConnection(connectionId, StreamerTimings.CONNECT);
+        mConnections.add(connectionId, target);
+    }
 
+    // Connect worker. The addresses aren't used, the lookup leaves them in the system resolver
+    // cache for the one libstream makes when the connection is created on the engine thread.
+    private static void lookup(@Nullable String host) {
+        if (host == null || host.isEmpty()) {
+            return;
+        }
+        try {
+            InetAddress.getAllByName(host);
+        } catch (UnknownHostException | SecurityException e) {
+            // the connection reports the failure
+            Log.w(TAG, "Lookup of " + host + " failed: " + e);
         }
-        return connectionId;
     }
 
     public void disconnectAll() {
         mConnectionActive = false;
-        List<Integer> connList = new ArrayList<>(connections);
-        for (Integer id : connList) {
-            releaseConnection(id);
+        // includes destinations waiting for a reconnect
+        final ConnectionRegistry.Snapshot snapshot = new ConnectionRegistry.Snapshot();
+        final int count = mConnections.snapshot(snapshot);
+        for (int i = 0; i < count; i++) {
+            releaseConnection(snapshot.ids[i]);
         }
     }
 
-    public void takeSnapshot(File path, String filename) {
+    // File is written in background, completion comes as onFileOperation
+    @Nullable
+    public File takeSnapshot(File path, String filename) {
         if (filename == null || filename.isEmpty()) {
-            Date now = new Date();
-            String baseName = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(now);
-            filename = "IMG_" + baseName + ".jpg";
+            filename = defaultSnapshotPrefix() + "." + mSnapshots.getConfig().extension;
         }
-        File file = new File(path, filename);
-        try {
-            mStreamerGL.takeSnapshot(file, Bitmap.CompressFormat.JPEG, 90, false);
-        } catch (SecurityException | IOException e) {
-            Log.e(TAG, Log.getStackTraceString(e));
+        final File file = new File(path, filename);
+        return mSnapshots.capture(file, null, 0) ? file : null;
+    }
+
+    public void setSnapshotConfig(@Nullable ReadableMap config) {
+        mSnapshots.setConfig(SettingsUtils.parseSnapshotConfig(config));
+    }
+
+    // count frames interval seconds apart, count 0 keeps taking them until stopped.
+    // Returns the series id reported with every frame, null without a streamer.
+    @Nullable
+    public String startSnapshotSeries(File path, int count, double interval, @Nullable String prefix) {
+        if (!mEngine.isActive()) {
+            return null;
+        }
+        final String id = Long.toString(SystemClock.elapsedRealtime(), 36);
+        final String filePrefix = prefix == null || prefix.isEmpty() ? defaultSnapshotPrefix() : prefix;
+        mHandler.post(() -> mSnapshots.startSeries(id, path, filePrefix, Math.max(0, count), (long) (interval * 1000)));
+        return id;
+    }
+
+    public void stopSnapshotSeries() {
+        mHandler.post(mSnapshots::stopSeries);
+    }
+
+    private static String defaultSnapshotPrefix() {
+        Date now = new Date();
+        return "IMG_" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(now);
+    }
+
+    // Frames are read from JS with global.__larixPreviewFrame, see PreviewFrameFeed
+    public void startPreviewFrames(int maxWidth, int maxHeight, double fps) {
+        mHandler.post(() -> mPreviewFrames.start(maxWidth, maxHeight, fps));
+    }
+
+    public void stopPreviewFrames() {
+        mHandler.post(mPreviewFrames::stop);
+    }
+
+    // Only the latest frame matters, older notifications are coalesced
+    private void notifyPreviewFrame(long sequence, int width, int height, long timestamp) {
+        mEventBus.postTelemetry("previewFrame", "onPreviewFrame", () -> {
+            WritableMap params = Arguments.createMap();
+            params.putDouble("sequence", sequence);
+            params.putInt("width", width);
+            params.putInt("height", height);
+            params.putDouble("timestamp", timestamp);
+            return params;
+        });
+    }
+
+    private void notifySnapshot(String status, File file, String format, @Nullable String seriesId, int index) {
+        if ("success".equals(status)) {
+            mStorage.onFileWritten(file);
         }
+        WritableMap params = Arguments.createMap();
+        params.putString("status", status);
+        params.putString("url", Uri.fromFile(file).toString());
+        params.putString("type", "image");
+        params.putString("format", format);
+        if (seriesId != null) {
+            params.putString("seriesId", seriesId);
+            params.putInt("index", index);
+        }
+        mEventBus.post("onFileOperation", params);
     }
 
     public void startRecord(File path, String filename) {
-        if (mStreamerGL == null) {
+        if (!mEngine.isActive()) {
             return;
         }
         if (filename == null || filename.isEmpty()) {
-            Date now = new Date();
-            String baseName = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(now);
-            filename = baseName + ".mp4";
-        }
-        File file = new File(path, filename);
-        if (!mWriting) {
-            mStreamerGL.startRecord(file);
-            mWriting = true;
-        } else {
-            mStreamerGL.splitRecord(file);
+            filename = defaultVideoFilename();
+        }
+        final File file = new File(path, filename);
+        final boolean split = mWriting;
+        mWriting = true;
+        mStorage.reserve(() -> {
+            if (mWriting) {
+                beginRecord(file, split);
+            }
+        }, () -> {
+            // a running recording goes on in its current file
+            mWriting = split;
+            WritableMap params = Arguments.createMap();
+            params.putString("status", "failed");
+            params.putString("url", Uri.fromFile(file).toString());
+            params.putString("type", "video");
+            params.putString("format", "mp4");
+            params.putString("error", "no_space");
+            mEventBus.post("onFileOperation", params);
+        });
+    }
+
+    // Main thread
+    private void beginRecord(File file, boolean split) {
+        mStorage.onRecordStarted(file);
+        if (mReplay != null) {
+            startReplayRecord(file);
+            return;
         }
+        mEngine.post(streamer -> {
+            if (split) {
+                streamer.splitRecord(file);
+            } else {
+                streamer.startRecord(file);
+            }
+        });
     }
 
     public void stopRecord() {
-        if (mStreamerGL == null) {
+        mWriting = false;
+        mStorage.onRecordStopped();
+        mHandler.post(() -> {
+            if (mReplay != null) {
+                stopReplayRecord(mReplay);
+                return;
+            }
+            mEngine.post(StreamerGL::stopRecord);
+        });
+    }
+
+    public void setStorageConfig(@Nullable ReadableMap config) {
+        mStorage.setConfig(SettingsUtils.parseStorageConfig(config));
+    }
+
+    private final StorageManager.Listener mStorageListener = new StorageManager.Listener() {
+        @Override
+        public void onStorageState(int state) {
+            if (!mWriting) {
+                return;
+            }
+            if (state == StorageManager.STATE_LOW && mStorage.getConfig().splitOnLowSpace) {
+                // closes the file written so far while there is room to finalize it
+                beginRecord(new File(getContext().getCacheDir(), defaultVideoFilename()), true);
+                return;
+            }
+            Log.w(TAG, "Stopping record, storage is low");
+            stopRecord();
+        }
+
+        @Override
+        public void onEvicted(File file) {
+            WritableMap params = Arguments.createMap();
+            params.putString("status", "evicted");
+            params.putString("url", Uri.fromFile(file).toString());
+            params.putString("type", file.getName().endsWith(".mp4") ? "video" : "image");
+            mEventBus.post("onFileOperation", params);
+        }
+    };
+
+    private static String defaultVideoFilename() {
+        Date now = new Date();
+        String baseName = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(now);
+        return baseName + ".mp4";
+    }
+
+    public void setReplayConfig(@Nullable ReadableMap config) {
+        final ReplayBuffer.Config parsed = SettingsUtils.parseReplayConfig(config);
+        if (parsed != null) {
+            // segments have to hold at least one key frame
+            parsed.segmentMs = Math.max(parsed.segmentMs, mVideoConfig.keyFrameInterval * 1000L);
+        }
+        stopReplay();
+        mReplayConfig = parsed;
+        if (mVideoCaptureState == Streamer.CaptureState.STARTED) {
+            startReplay();
+        }
+    }
+
+    // Main thread, on video capture start
+    private void startReplay() {
+        if (mReplayConfig == null || mReplay != null || !mEngine.isActive()) {
+            return;
+        }
+        if (mWriting) {
+            // a plain recording owns the recorder, replay starts with the next capture
+            Log.w(TAG, "Replay buffer is off while recording");
             return;
         }
+        final File parent = new File(getContext().getCacheDir(), "replay");
+        mReplay = new ReplayBuffer(mReplayConfig, parent, mHandler);
+        final File file = mReplay.nextSegment();
+        mEngine.post(streamer -> streamer.startRecord(file));
+        mHandler.postDelayed(mSplitReplay, mReplay.getSegmentMs());
+    }
 
-        mStreamerGL.stopRecord();
-        mWriting = false;
+    private void stopReplay() {
+        mHandler.removeCallbacks(mSplitReplay);
+        final ReplayBuffer replay = mReplay;
+        if (replay == null) {
+            return;
+        }
+        mReplay = null;
+        if (replay.isRecording()) {
+            stopReplayRecord(replay);
+            mWriting = false;
+        }
+        mEngine.post(StreamerGL::stopRecord);
+        replay.release();
+        mReplayDraining = replay.hasOpenSegments() ? replay : null;
     }
 
-    private void updateConnectionInfo() {
-        WritableNativeMap stats = new WritableNativeMap();
-        boolean isEmpty = true;
-        for(Integer connId: mConnectionStatistics.keySet()) {
-            WritableNativeMap connStats = new WritableNativeMap();
-            ConnectionStatistics sts = mConnectionStatistics.get(connId);
-            Streamer.ConnectionState state = mConnectionState.get(connId);
-            if (state != Streamer.ConnectionState.RECORD) {
-                continue;
+    private final Runnable mSplitReplay = new Runnable() {
+        @Override
+        public void run() {
+            if (mReplay != null) {
+                splitReplay();
+                mHandler.postDelayed(this, mReplay.getSegmentMs());
+            }
+        }
+    };
+
+    private void splitReplay() {
+        final File file = mReplay.nextSegment();
+        mEngine.post(streamer -> streamer.splitRecord(file));
+    }
+
+    // Recording continues the replay segments and starts with the pre-roll already buffered
+    private void startReplayRecord(File file) {
+        if (mReplay.isRecording()) {
+            // split by the app, the next file continues without pre-roll
+            stopReplayRecord(mReplay);
+        }
+        mReplay.startRecording();
+        mRecordFile = file;
+        notifyReplayRecord("started", file);
+    }
+
+    // Active buffer is split to close the current segment, a stopped one is closed by stopRecord
+    private void stopReplayRecord(ReplayBuffer replay) {
+        final File file = mRecordFile;
+        mRecordFile = null;
+        if (file == null) {
+            return;
+        }
+        // every part of a recording that spans format changes is reported
+        replay.stopRecording(file, (written, success, durationMs) -> {
+            mStorage.onFileWritten(written);
+            notifyReplayRecord(success ? "success" : "failed", written);
+        });
+        if (replay == mReplay) {
+            splitReplay();
+        }
+    }
+
+    private void notifyReplayRecord(String status, File file) {
+        WritableMap params = Arguments.createMap();
+        params.putString("status", status);
+        params.putString("url", Uri.fromFile(file).toString());
+        params.putString("type", "video");
+        params.putString("format", "mp4");
+        mEventBus.post("onFileOperation", params);
+    }
+
+    public interface ReplayCallback {
+        void onReplay(@Nullable File file, long durationMs);
+    }
+
+    // Dumps the buffered seconds into path/filename, callback runs on the main thread
+    public void saveReplay(File path, @Nullable String filename, double seconds, ReplayCallback callback) {
+        final File file = new File(path, filename == null || filename.isEmpty()
+                ? "REPLAY_" + defaultVideoFilename() : filename);
+        mHandler.post(() -> {
+            final ReplayBuffer replay = mReplay;
+            final ReplayBuffer.Callback written = (result, success, durationMs) -> {
+                if (success) {
+                    mStorage.onFileWritten(result);
+                }
+                callback.onReplay(success ? result : null, durationMs);
+            };
+            if (replay == null || !replay.saveReplay(file, (long) (seconds * 1000), written)) {
+                callback.onReplay(null, 0);
+                return;
             }
+            splitReplay();
+        });
+    }
 
-            String key = Integer.toString(connId);
-            connStats.putInt("duration", (int)sts.getDuration());
-            connStats.putDouble("bytesDelivered", (double)sts.getTraffic());
-            connStats.putDouble("bitrate", (double) sts.getBandwidth());
-            connStats.putBoolean("lostIncreased", sts.isDataLossIncreasing());
-            stats.putMap(key, connStats);
-            isEmpty = false;
+    private void updateConnectionInfo() {
+        final ConnectionRegistry.Snapshot snapshot = mPublishedStats;
+        if (snapshot == null) {
+            return;
         }
-        if (!isEmpty || mWriting) {
-            ReactContext context = (ReactContext) getContext();
-            context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(
-                    "onStreamerStats", stats);
+        mStatsEmitter.begin();
+        synchronized (snapshot) {
+            for (int i = 0; i < snapshot.size; i++) {
+                if (snapshot.states[i] != Streamer.ConnectionState.RECORD || snapshot.statistics[i] == null) {
+                    continue;
+                }
+                mStatsEmitter.add(snapshot.ids[i], snapshot.duration[i], snapshot.traffic[i],
+                        snapshot.bandwidth[i], snapshot.loss[i]);
+            }
         }
+        // payload is built when the bus flushes, superseded ticks are never serialized
+        mEventBus.postTelemetry("stats", "onStreamerStats", mBuildStats);
+    }
+
+    private final StreamerEventBus.PayloadSource mBuildStats = () -> mStatsEmitter.build(mWriting);
 
+    public void setStatsMode(String mode) {
+        mStatsEmitter.setMode(mode);
+    }
 
+    public void setStatsThreshold(float threshold) {
+        mStatsEmitter.setThreshold(threshold);
     }
 
     public void updateOrientation(int orientation) {
@@ -560,16 +1186,20 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
         final String orientationStr = portrait ? "portrait" : "landscape";
         Log.i(TAG, "Rotated to " + orientationStr);
 
-        if (mStreamerGL == null) {
+        if (!mEngine.isActive()) {
             return;
         }
 
-        if (shouldUpdateVideoOrientation()) {
-            mStreamerGL.setVideoOrientation(videoOrientation());
-        }
-
-        // Set display rotation to flip image correctly, should be called always
-        mStreamerGL.setDisplayRotation(displayRotation());
+        final boolean updateVideoOrientation = shouldUpdateVideoOrientation();
+        final int videoOrientation = videoOrientation();
+        final int rotation = displayRotation();
+        mEngine.post(streamer -> {
+            if (updateVideoOrientation) {
+                streamer.setVideoOrientation(videoOrientation);
+            }
+            // Set display rotation to flip image correctly, should be called always
+            streamer.setDisplayRotation(rotation);
+        });
 
         updatePreviewRatio(mVideoSize);
     }
@@ -580,6 +1210,14 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
 
         builder.setAudioConfig(mAudioConfig);
 
+        final List<CameraInfo> cameraList = getCameraList();
+        CameraInfo activeInfo = findCameraInfo(mCameraId);
+        if (activeInfo == null) {
+            activeInfo = cameraList.get(0);
+        }
+        // encoder runs at the rate the active camera can deliver
+        final FormatNegotiator.Result format = mNegotiator.negotiate(activeInfo);
+        mVideoConfig.fps = format.fps;
         builder.setVideoConfig(mVideoConfig);
 
         builder.setCamera2(mUseCamera2);
@@ -591,47 +1229,105 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
         // streamer will start capture from this camera id
         builder.setCameraId(mCameraId);
 
-        final List<CameraInfo> cameraList = getCameraList();
-        CameraInfo activeInfo = cameraList.get(0);
-        for(CameraInfo i: cameraList) {
-            if (i.cameraId == mCameraId) {
-                activeInfo = i;
-                break;
-            }
-        }
-        SettingsUtils.addDefaultCameras(builder, cameraList, activeInfo, mVideoSize, mVideoConfig.fps);
+        SettingsUtils.addDefaultCameras(builder, cameraList, activeInfo, mNegotiator);
         builder.setVideoOrientation(videoOrientation());
         builder.setDisplayRotation(displayRotation());
     }
 
+    private void emitTimings() {
+        if (EventListenerTracker.hasListeners("onStreamerTimings")) {
+            mEventBus.post("onStreamerTimings", mTimings.toReactMap());
+        }
+    }
+
+    public WritableMap getTimings() {
+        WritableMap result = mTimings.toReactMap();
+        result.putMap("layout", layoutScheduler().toReactMap());
+        return result;
+    }
+
+    public String getConnectionStateName(int connectionId) {
+        Streamer.ConnectionState state = mConnections.getState(connectionId);
+        if (state != null) {
+            return connectionStateToStr(state);
+        }
+        if (mConnections.isActive(connectionId)) {
+            return "connecting";
+        }
+        return mConnections.contains(connectionId) ? "reconnecting" : "disconnected";
+    }
+
+    // Shared by all connections, 0 without a streamer
+    public int getEncoderBitrate() {
+        return mEngine.isActive() ? mEncoderBitrate : 0;
+    }
+
+    // As of the last statistics tick
+    public long getBandwidth(int connectionId) {
+        final ConnectionRegistry.Snapshot snapshot = mPublishedStats;
+        if (snapshot == null) {
+            return 0;
+        }
+        synchronized (snapshot) {
+            for (int i = 0; i < snapshot.size; i++) {
+                if (snapshot.ids[i] == connectionId) {
+                    return snapshot.bandwidth[i];
+                }
+            }
+        }
+        return 0;
+    }
+
+    public String getActiveCameraId() {
+        return mCameraId;
+    }
+
     public boolean isStreamerActive() {
         return mStreamerActive;
     }
 
+    // Live connections are up, background transfers should give way
+    public boolean isLive() {
+        return mConnectionActive && mEngine.isActive();
+    }
+
+    public boolean isUplinkCongested() {
+        return mUplinkCongested;
+    }
+
     public void releaseStreamer() {
         mStreamerActive = false;
 
-        if (mStreamerGL != null) {
-            mHandler.post(() -> {
-                releaseStreamerInternal();
-            });
-        }
+        mHandler.post(() -> {
+            releaseStreamerInternal();
+        });
 
     }
 
     private void releaseStreamerInternal() {
-        if (mStreamerGL == null) {
-            return;
-        }
         // stop broadcast
         disconnectAll();
-        // stop mp4 recording
-        mStreamerGL.stopRecord();
-        // cancel audio and video capture
-        mStreamerGL.stopAudioCapture();
-        mStreamerGL.stopVideoCapture();
-        mStreamerGL.release();
-        mStreamerGL = null;
+        stopReplay();
+        mSnapshots.reset();
+        mPreviewFrames.reset();
+        mWriting = false;
+        mPublishedStats = null;
+        // recording, capture and the streamer itself are stopped on the engine thread
+        mEngine.release();
+    }
+
+    // View is dropped by React, stop the engine thread
+    public void dispose() {
+        mStreamerActive = false;
+        cancelStatistics();
+        disconnectAll();
+        stopReplay();
+        mSnapshots.release();
+        mPreviewFrames.release();
+        mStorage.release();
+        mConnectWorkers.shutdown();
+        layoutScheduler().release();
+        mEngine.quit();
     }
 
 
@@ -674,39 +1370,153 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
     }
 
     private void updatePreviewRatio(Streamer.Size size) {
-        setAspectRatio(isPortrait() ? size.getVerticalRatio() : size.getRatio());
+        final double ratio = isPortrait() ? size.getVerticalRatio() : size.getRatio();
+        if (ratio == mAspectRatio) {
+            // setAspectRatio would request a layout that changes nothing
+            layoutScheduler().onRatioUnchanged();
+            return;
+        }
+        mAspectRatio = ratio;
+        setAspectRatio(ratio);
     }
 
     @Override
     public void onConnectionStateChanged(int connectionId, Streamer.ConnectionState state, Streamer.Status status, JSONObject info) {
         Log.d(TAG, "onConnectionStateChanged, connectionId=" + connectionId + ", state=" + state + ", status=" + status);
-        if (!connections.contains(connectionId)) {
+        if (!mConnections.isActive(connectionId)) {
             return;
         }
         if (state == Streamer.ConnectionState.CONNECTED) {
-            ConnectionStatistics statistics = mConnectionStatistics.get(connectionId);
+            mTimings.markConnection(connectionId, StreamerTimings.CONNECTED);
+            ConnectionStatistics statistics = mConnections.getStatistics(connectionId);
             if (statistics != null) {
-                statistics.init();
+                // updated by the statistics tick on the engine thread, it is not thread-safe
+                mEngine.post(streamer -> statistics.init());
+            }
+        } else if (state == Streamer.ConnectionState.RECORD) {
+            if (mTimings.markConnection(connectionId, StreamerTimings.RECORD)) {
+                emitTimings();
             }
+            final ConnectionTarget target = mConnections.getTarget(connectionId);
+            if (target != null && target.attempts > 0) {
+                notifyReconnect("restored", connectionId, -1, target, null, 0);
+                target.attempts = 0;
+            }
+        }
+        if (state == Streamer.ConnectionState.DISCONNECTED && scheduleReconnect(connectionId, status)) {
+            // JS keeps the destination, it learns about the new connection from onReconnect
+            return;
         }
         notifiyConnectionStateChange(connectionId, state, status, info);
         if (state == Streamer.ConnectionState.DISCONNECTED) {
             releaseConnection(connectionId);
         } else {
-            mConnectionState.put(connectionId, state);
+            mConnections.setState(connectionId, state);
         }
     }
 
     public void releaseConnection(int connectionId) {
-        if (mStreamerGL == null || connectionId == -1) {
+        if (connectionId == -1) {
             return;
         }
-        Integer connID = connectionId;
-        connections.remove(connID);
-        mConnectionState.remove(connID);
-        mConnectionStatistics.remove(connID);
-        mStreamerGL.releaseConnection(connectionId);
+        final boolean active = mConnections.isActive(connectionId);
+        final ConnectionTarget target = mConnections.remove(connectionId);
+        if (target != null && target.retry != null) {
+            mHandler.removeCallbacks(target.retry);
+        }
+        if (active) {
+            dropConnection(connectionId);
+        }
+    }
+
+    private void dropConnection(int connectionId) {
+        mHandler.post(() -> mStatsEmitter.remove(connectionId));
+        mEngine.post(streamer -> streamer.releaseConnection(connectionId));
+    }
+
+    public void setReconnectConfig(@Nullable ReadableMap config) {
+        final ReconnectPolicy.Config parsed = SettingsUtils.parseReconnectConfig(config);
+        mReconnect = parsed == null ? null : new ReconnectPolicy(parsed, new Random());
+    }
 
+    // Main thread. Releases the dropped connection and re-creates it from the remembered
+    // settings after a backoff delay. The encoder keeps running meanwhile, the new
+    // connection starts sending from the next keyframe.
+    // Returns false if the destination should be reported as disconnected.
+    private boolean scheduleReconnect(int connectionId, Streamer.Status status) {
+        final ConnectionTarget target = mConnections.getTarget(connectionId);
+        final ReconnectPolicy policy = mReconnect;
+        if (target == null || policy == null || !mConnectionActive || !mEngine.isActive()) {
+            return false;
+        }
+        if (!policy.shouldRetry(status, target.attempts + 1)) {
+            if (target.attempts > 0) {
+                notifyReconnect("failed", connectionId, -1, target, status, 0);
+            }
+            return false;
+        }
+        if (target.attempts == 0) {
+            target.downSince = SystemClock.elapsedRealtime();
+        }
+        target.attempts++;
+        if (mConnections.suspend(connectionId)) {
+            dropConnection(connectionId);
+        }
+        final long delay = policy.delayMs(target.attempts);
+        target.retry = () -> reconnect(connectionId, target);
+        mHandler.postDelayed(target.retry, delay);
+        Log.d(TAG, "Reconnect " + connectionId + " in " + delay + "ms, attempt " + target.attempts);
+        notifyReconnect("scheduled", connectionId, -1, target, status, delay);
+        return true;
+    }
+
+    private void reconnect(int previousId, ConnectionTarget target) {
+        target.retry = null;
+        mEngine.post(streamer -> {
+            // disconnected by the app meanwhile
+            if (mConnections.getTarget(previousId) != target) {
+                return;
+            }
+            final int connectionId = target.connect(streamer);
+            if (connectionId < 0) {
+                mHandler.post(() -> {
+                    if (mConnections.getTarget(previousId) == target
+                            && !scheduleReconnect(previousId, Streamer.Status.CONN_FAIL)) {
+                        mConnections.remove(previousId);
+                        notifiyConnectionStateChange(previousId, Streamer.ConnectionState.DISCONNECTED,
+                                Streamer.Status.CONN_FAIL, null);
+                    }
+                });
+                return;
+            }
+            if (!mConnections.replace(previousId, target, connectionId)) {
+                streamer.releaseConnection(connectionId);
+                return;
+            }
+            mTimings.markConnection(connectionId, StreamerTimings.CONNECT);
+            mHandler.post(() -> notifyReconnect("connecting", connectionId, previousId, target, null, 0));
+        });
+    }
+
+    private void notifyReconnect(String phase, int connectionId, int previousId, ConnectionTarget target,
+                                 @Nullable Streamer.Status status, long delayMs) {
+        WritableMap params = Arguments.createMap();
+        params.putString("phase", phase);
+        params.putInt("connectionId", connectionId);
+        if (previousId >= 0) {
+            params.putInt("previousConnectionId", previousId);
+        }
+        params.putInt("attempt", target.attempts);
+        if (status != null) {
+            params.putString("status", connectionStatusToStr(status));
+        }
+        if (delayMs > 0) {
+            params.putDouble("delayMs", delayMs);
+        }
+        if (!phase.equals("scheduled")) {
+            params.putDouble("downtimeMs", SystemClock.elapsedRealtime() - target.downSince);
+        }
+        mEventBus.post("onReconnect", params);
     }
 
     @Override
@@ -718,6 +1528,12 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
     public void onVideoCaptureStateChanged(Streamer.CaptureState state) {
         Log.d(TAG, "onVideoCaptureStateChanged, state=" + state);
         mVideoCaptureState = state;
+        if (state == Streamer.CaptureState.STARTED && mTimings.mark(StreamerTimings.CAPTURE_STARTED)) {
+            emitTimings();
+        }
+        if (state == Streamer.CaptureState.STARTED) {
+            startReplay();
+        }
         String message = "";
         if (mVideoCaptureState == Streamer.CaptureState.STARTED &&
                 mAudioCaptureState == Streamer.CaptureState.STARTED) {
@@ -753,6 +1569,17 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
 
     @Override
     public void onRecordStateChanged(Streamer.RecordState state, Uri uri, Streamer.SaveMethod method) {
+        // replay segments are not reported, recordings made of them are
+        final ReplayBuffer replay = mReplay != null ? mReplay : mReplayDraining;
+        if (replay != null && replay.hasOpenSegments()) {
+            if (state == Streamer.RecordState.STOPPED || state == Streamer.RecordState.FAILED) {
+                replay.onSegmentClosed(state == Streamer.RecordState.STOPPED);
+                if (replay == mReplayDraining && !replay.hasOpenSegments()) {
+                    mReplayDraining = null;
+                }
+            }
+            return;
+        }
         String statusStr = null;
         if (state == Streamer.RecordState.STOPPED) {
             statusStr = "success";
@@ -765,14 +1592,14 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
             WritableMap params = Arguments.createMap();
             params.putString("status", statusStr);
             if (uri != null) {
+                if (state != Streamer.RecordState.STARTED && uri.getPath() != null) {
+                    mStorage.onFileWritten(new File(uri.getPath()));
+                }
                 params.putString("url", uri.toString());
                 params.putString("type", "video");
                 params.putString("format", "mp4");
             }
-            ReactContext context = (ReactContext) getContext();
-
-            context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(
-                    "onFileOperation", params);
+            mEventBus.post("onFileOperation", params);
         }
 
     }
@@ -793,16 +1620,13 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
                 params.putString("type", "image");
                 params.putString("format", "jpg");
             }
-            ReactContext context = (ReactContext) getContext();
-
-            context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(
-                    "onFileOperation", params);
+            mEventBus.post("onFileOperation", params);
         }
     }
 
     private List<CameraInfo> getCameraList() {
         if (mCameraList == null) {
-            mCameraList = CameraRegistry.getCameraList(getContext(), mUseCamera2);
+            mCameraList = CameraCapabilityCache.getInstance(getContext()).getCameraList(mUseCamera2);
         }
         return mCameraList;
     }
@@ -812,9 +1636,7 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
         String stateStr = captureStateToString(state);
         params.putString("state", stateStr);
         params.putString("status", statusMessage);
-        ReactContext context = (ReactContext)getContext();
-        context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(
-                "onCaptureStateChanged", params);
+        mEventBus.post("onCaptureStateChanged", params);
     }
 
     private void notifiyConnectionStateChange(int connId, Streamer.ConnectionState state, Streamer.Status status, JSONObject info) {
@@ -823,22 +1645,13 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
         String statusStr = connectionStatusToStr(status);
 
         if (info != null) {
-            try {
-                WritableMap infoMap = JsonConvert.jsonToReact(info);
-                params.putMap("info", infoMap);
-            } catch (JSONException e) {
-                Log.e(TAG, "Unable to parse info");
-            }
+            params.putMap("info", JsonConvert.jsonToReact(info));
         }
 
         params.putInt("connectionId", connId);
         params.putString("state", stateStr);
         params.putString("status", statusStr);
-        ReactContext context = (ReactContext)getContext();
-
-        context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(
-                "onConnectionStateChanged", params);
-
+        mEventBus.post("onConnectionStateChanged", params);
     }
 
     private String captureStateToString(Streamer.CaptureState statue) {
@@ -886,17 +1699,35 @@ public class StreamerView extends AspectFrameLayout implements Streamer.Listener
     }
 
 
-    //Fixed updating layout in AspectFrameLayout since React refuse to re-layout:
-    // https://github.com/facebook/react-native/issues/17968#issuecomment-721958427
-    private Runnable refresher = () -> {
+    // Props of a transaction are laid out together right away
+    void relayoutIfNeeded() {
+        layoutScheduler().runNow();
+    }
+
+    private boolean relayoutPass() {
+        if (!isLayoutRequested() || getWidth() == 0 || getHeight() == 0) {
+            return false;
+        }
         measure(MeasureSpec.makeMeasureSpec(getWidth(), MeasureSpec.EXACTLY),
                 MeasureSpec.makeMeasureSpec(getHeight(), MeasureSpec.EXACTLY));
         layout(getLeft(), getTop(), getRight(), getBottom());
-    };
+        return true;
+    }
 
+    //Fixed updating layout in AspectFrameLayout since React refuse to re-layout:
+    // https://github.com/facebook/react-native/issues/17968#issuecomment-721958427
+    // Passes are coalesced per frame by LayoutScheduler.
     @Override
     public void requestLayout() {
         super.requestLayout();
-        post(refresher);
+        layoutScheduler().request();
+    }
+
+    // Created on first use: the super constructor already requests a layout
+    private LayoutScheduler layoutScheduler() {
+        if (mLayout == null) {
+            mLayout = new LayoutScheduler(this::relayoutPass);
+        }
+        return mLayout;
     }
 }
@@ -18,12 +18,15 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.ViewGroupManager;
+import com.facebook.react.uimanager.ViewManagerDelegate;
 import com.facebook.react.uimanager.annotations.ReactProp;
+import com.facebook.react.viewmanagers.StreamerViewManagerDelegate;
+import com.facebook.react.viewmanagers.StreamerViewManagerInterface;
 
 import java.lang.ref.WeakReference;
 
 public class StreamerViewManager extends ViewGroupManager<StreamerView>
-        implements LifecycleEventListener {
+        implements LifecycleEventListener, StreamerViewManagerInterface<StreamerView> {
 
     public static final String REACT_CLASS = "StreamerView";
     public static final String TAG = "StreamerViewManager";
@@ -32,15 +35,19 @@ public class StreamerViewManager extends ViewGroupManager<StreamerView>
 
 
     protected ReactApplicationContext mCallerContext;
+    private final StreamerEventBus mEventBus;
+    private final ViewManagerDelegate<StreamerView> mDelegate;
     private BroadcastReceiver mReceiver;
 
     public static @Nullable StreamerView getView() {
         return mView == null ? null : mView.get();
     }
 
-    public StreamerViewManager(ReactApplicationContext reactContext) {
+    public StreamerViewManager(ReactApplicationContext reactContext, StreamerEventBus eventBus) {
         super();
         mCallerContext = reactContext;
+        mEventBus = eventBus;
+        mDelegate = new StreamerViewManagerDelegate<>(this);
         reactContext.addLifecycleEventListener(this);
         mReceiver = new BroadcastReceiver() {
             @Override
@@ -62,9 +69,15 @@ public class StreamerViewManager extends ViewGroupManager<StreamerView>
         return REACT_CLASS;
     }
 
+    // Used by Fabric to apply codegen'd props, Paper keeps using @ReactProp setters
+    @Override
+    protected ViewManagerDelegate<StreamerView> getDelegate() {
+        return mDelegate;
+    }
+
     @Override
     public StreamerView createViewInstance(ThemedReactContext context) {
-        StreamerView view = new StreamerView(context);
+        StreamerView view = new StreamerView(context, mEventBus);
         Log.d(TAG, "createViewInstance");
         if (mView != null) {
             mView.clear();
@@ -92,38 +105,57 @@ public class StreamerViewManager extends ViewGroupManager<StreamerView>
         return view;
     }
 
+    @Override
     @ReactProp(name="autoStart", defaultBoolean = true)
     public void setAutoStart(StreamerView view, boolean autostart) {
         view.mAutostart = autostart;
     }
 
+    @Override
     @ReactProp(name="torch", defaultBoolean = false)
     public void setTorch(StreamerView view, boolean isOn) {
         view.setTorch(isOn);
     }
 
+    @Override
     @ReactProp(name="mute", defaultBoolean = false)
     public void setMute(StreamerView view, boolean isMute) {
         view.setSilence(isMute);
     }
 
+    @Override
     @ReactProp(name="zoom", defaultFloat = 1.0f)
     public void setZoom(StreamerView view, float zoom) {
         view.setZoom(zoom);
     }
 
+    @Override
     @ReactProp(name="statsUpdateInterval", defaultFloat = 0.0f)
-    public void setUpdateInterval(StreamerView view, float interval) {
+    public void setStatsUpdateInterval(StreamerView view, float interval) {
         view.setUpdateInterval(interval);
     }
 
+    @Override
+    @ReactProp(name="statsMode")
+    public void setStatsMode(StreamerView view, String mode) {
+        view.setStatsMode(mode);
+    }
+
+    @Override
+    @ReactProp(name="statsThreshold", defaultFloat = 0.0f)
+    public void setStatsThreshold(StreamerView view, float threshold) {
+        view.setStatsThreshold(threshold);
+    }
+
+    @Override
     @ReactProp(name="previewScale")
-    public void setScaleMode(StreamerView view, String mode) {
+    public void setPreviewScale(StreamerView view, String mode) {
         view.setResizeMode(mode);
     }
 
+    @Override
     @ReactProp(name="cameraId")
-    public void setCamera(StreamerView view, String cameraId) {
+    public void setCameraId(StreamerView view, String cameraId) {
         if (cameraId == null || cameraId.isEmpty()) {
             return;
         }
@@ -145,8 +177,12 @@ public class StreamerViewManager extends ViewGroupManager<StreamerView>
         view.setCamera(cameraId, "");
     }
 
+    @Override
     @ReactProp(name="videoConfig")
-    public void setVideoConfig(StreamerView view, ReadableMap config) {
+    public void setVideoConfig(StreamerView view, @Nullable ReadableMap config) {
+        if (config == null) {
+            return;
+        }
 
         if (config.hasKey("orientation")) {
             String orientation = config.getString("orientation");
@@ -163,11 +199,65 @@ public class StreamerViewManager extends ViewGroupManager<StreamerView>
         view.setVideoConfig(config);
     }
 
+    @Override
+    @ReactProp(name="abrConfig")
+    public void setAbrConfig(StreamerView view, @Nullable ReadableMap config) {
+        view.setAbrConfig(config);
+    }
+
+    @Override
+    @ReactProp(name="degradationConfig")
+    public void setDegradationConfig(StreamerView view, @Nullable ReadableMap config) {
+        view.setDegradationConfig(config);
+    }
+
+    @Override
+    @ReactProp(name="reconnectConfig")
+    public void setReconnectConfig(StreamerView view, @Nullable ReadableMap config) {
+        view.setReconnectConfig(config);
+    }
+
+    @Override
+    @ReactProp(name="replayConfig")
+    public void setReplayConfig(StreamerView view, @Nullable ReadableMap config) {
+        view.setReplayConfig(config);
+    }
+
+    @Override
+    @ReactProp(name="snapshotConfig")
+    public void setSnapshotConfig(StreamerView view, @Nullable ReadableMap config) {
+        view.setSnapshotConfig(config);
+    }
+
+    @Override
+    @ReactProp(name="storageConfig")
+    public void setStorageConfig(StreamerView view, @Nullable ReadableMap config) {
+        view.setStorageConfig(config);
+    }
+
+    @Override
     @ReactProp(name="audioConfig")
-    public void setAudioConfig(StreamerView view, ReadableMap config) {
+    public void setAudioConfig(StreamerView view, @Nullable ReadableMap config) {
+        if (config == null) {
+            return;
+        }
         view.setAudioConfig(config);
     }
 
+    // Props of a transaction are applied together, so the aspect ratio they changed
+    // is laid out once here instead of on a later posted pass
+    @Override
+    protected void onAfterUpdateTransaction(StreamerView view) {
+        super.onAfterUpdateTransaction(view);
+        view.relayoutIfNeeded();
+    }
+
+    @Override
+    public void onDropViewInstance(StreamerView view) {
+        super.onDropViewInstance(view);
+        view.dispose();
+    }
+
     @Override
     public void onHostResume() {
         Log.d(TAG, "onHostResume");
@@ -0,0 +1,158 @@
+package com.wmspanel.reactstreamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Uploads that are not finished yet, one small binary file per upload. The offset is
+// rewritten after every chunk the server has acknowledged, so an upload interrupted by
+// a network error, process death or reboot continues from the last acknowledged chunk.
+// Header values may carry credentials and are kept in memory only, the journal stores
+// header names, so a resumed upload knows it has to get them from JS again.
+final class UploadJournal {
+
+    private static final String SUFFIX = ".upl";
+    private static final int MAGIC = 0x4c55504c; // "LUPL"
+    // version 1 stored header values, such files are rewritten without them on load
+    private static final int VERSION_1 = 1;
+    private static final int VERSION = 2;
+
+    static final class Entry {
+        final String id;
+        final String path;
+        final String url;
+        final String method;
+        final List<String> headerNames;
+        // not journaled, empty for a loaded entry until JS supplies them
+        Map<String, String> headers;
+        final int chunkSize;
+        // file state at the time offset was acknowledged, a changed file starts over
+        long length;
+        long lastModified;
+        long offset;
+
+        Entry(String id, String path, String url, String method, Map<String, String> headers, int chunkSize) {
+            this(id, path, url, method, new ArrayList<>(headers.keySet()), chunkSize);
+            this.headers = headers;
+        }
+
+        private Entry(String id, String path, String url, String method, List<String> headerNames, int chunkSize) {
+            this.id = id;
+            this.path = path;
+            this.url = url;
+            this.method = method;
+            this.headerNames = headerNames;
+            this.headers = Collections.emptyMap();
+            this.chunkSize = chunkSize;
+        }
+
+        boolean hasHeaders() {
+            return headers.keySet().containsAll(headerNames);
+        }
+    }
+
+    private final File mDir;
+
+    UploadJournal(File dir) {
+        mDir = dir;
+        if (!mDir.exists()) {
+            mDir.mkdirs();
+        }
+    }
+
+    void save(Entry entry) throws IOException {
+        final File file = new File(mDir, entry.id + SUFFIX);
+        final File tmp = new File(mDir, entry.id + SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(entry.id);
+            out.writeUTF(entry.path);
+            out.writeUTF(entry.url);
+            out.writeUTF(entry.method);
+            out.writeInt(entry.headerNames.size());
+            for (String name : entry.headerNames) {
+                out.writeUTF(name);
+            }
+            out.writeInt(entry.chunkSize);
+            out.writeLong(entry.length);
+            out.writeLong(entry.lastModified);
+            out.writeLong(entry.offset);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    void remove(String id) {
+        new File(mDir, id + SUFFIX).delete();
+    }
+
+    // Unreadable entries are dropped
+    List<Entry> load() {
+        final File[] files = mDir.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        final List<Entry> entries = new ArrayList<>();
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                }
+                continue;
+            }
+            try {
+                entries.add(read(file));
+            } catch (IOException | RuntimeException e) {
+                file.delete();
+            }
+        }
+        return entries;
+    }
+
+    private Entry read(File file) throws IOException {
+        final Entry entry;
+        final int version;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != VERSION_1) {
+                throw new IOException("Unknown journal format");
+            }
+            final String id = in.readUTF();
+            final String path = in.readUTF();
+            final String url = in.readUTF();
+            final String method = in.readUTF();
+            final int count = in.readInt();
+            final List<String> headerNames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                headerNames.add(in.readUTF());
+                if (version == VERSION_1) {
+                    // value
+                    in.readUTF();
+                }
+            }
+            entry = new Entry(id, path, url, method, headerNames, in.readInt());
+            entry.length = in.readLong();
+            entry.lastModified = in.readLong();
+            entry.offset = in.readLong();
+        }
+        if (version == VERSION_1) {
+            save(entry);
+        }
+        return entry;
+    }
+}
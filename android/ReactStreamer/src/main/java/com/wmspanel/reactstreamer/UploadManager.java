@@ -0,0 +1,297 @@
+package com.wmspanel.reactstreamer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Uploads recorded files in background, one at a time, with ChunkedUpload.
+// Unfinished uploads live in an UploadJournal under filesDir and are resumed when the
+// module is created again. Network and server errors are retried with backoff; when
+// retries run out the upload is paused, it stays in the journal until resume().
+// Header values are not journaled: an upload that had headers and was loaded from the
+// journal is paused until resume() gets them from JS (the same session remembers them).
+// The queue is kept on the manager thread, the running upload blocks a separate worker,
+// so queueing, cancelling and resuming are never held up by a transfer.
+// Bandwidth is shared with the live stream: while a StreamerView has connections the
+// upload rate is capped at liveRate, and it stops while a connection is losing data.
+final class UploadManager {
+
+    private static final String TAG = "UploadManager";
+
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    static final long DEFAULT_LIVE_RATE = 64 * 1024;
+
+    private static final long PROGRESS_INTERVAL_MS = 250;
+    private static final long RETRY_INITIAL_MS = 2_000;
+    private static final long RETRY_MAX_MS = 60_000;
+    private static final int MAX_RETRIES = 5;
+
+    // paths of journaled uploads, kept from eviction by StorageManager
+    private static final Set<String> sPending = ConcurrentHashMap.newKeySet();
+
+    private final StreamerEventBus mEventBus;
+    private final UploadJournal mJournal;
+    private final Handler mHandler;
+    private final ExecutorService mWorker = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        r.run();
+    }, "UploadWorker"));
+
+    // manager thread only
+    private final ArrayDeque<UploadJournal.Entry> mQueue = new ArrayDeque<>();
+    // header values of this session's uploads by id
+    private final Map<String, Map<String, String>> mHeaders = new HashMap<>();
+    private int mRetries = 0;
+    // waiting for mRetry
+    @Nullable private UploadJournal.Entry mRetrying;
+    // set on the manager thread, cancelled from the native modules thread
+    @Nullable private volatile ChunkedUpload mCurrent;
+
+    // worker thread only
+    private long mLastProgressMs = 0;
+
+    // bytes per second
+    private volatile long mIdleRate = ChunkedUpload.UNLIMITED;
+    private volatile long mLiveRate = DEFAULT_LIVE_RATE;
+
+    private final ChunkedUpload.Throttle mThrottle = () -> {
+        final StreamerView streamer = StreamerViewManager.getView();
+        if (streamer == null || !streamer.isLive()) {
+            return mIdleRate;
+        }
+        // live video goes first, hold the upload until the uplink recovers
+        return streamer.isUplinkCongested() ? 0 : Math.min(mIdleRate, mLiveRate);
+    };
+
+    private final ChunkedUpload.Listener mListener = (entry, sent) -> {
+        final long now = SystemClock.elapsedRealtime();
+        if (sent > 0 && now - mLastProgressMs < PROGRESS_INTERVAL_MS) {
+            return;
+        }
+        mLastProgressMs = now;
+        notify(entry, "progress", entry.offset + sent, null);
+    };
+
+    UploadManager(Context context, StreamerEventBus eventBus) {
+        mEventBus = eventBus;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mJournal = new UploadJournal(new File(context.getFilesDir(), "uploads"));
+        resume(null);
+    }
+
+    static boolean isPending(String path) {
+        return sPending.contains(path);
+    }
+
+    // Rates in bytes per second, 0 for no limit
+    void setLimits(long idleRate, long liveRate) {
+        mIdleRate = idleRate > 0 ? idleRate : ChunkedUpload.UNLIMITED;
+        mLiveRate = liveRate > 0 ? liveRate : DEFAULT_LIVE_RATE;
+    }
+
+    String upload(String path, String url, String method, Map<String, String> headers, int chunkSize) {
+        final String id = UUID.randomUUID().toString();
+        final UploadJournal.Entry entry = new UploadJournal.Entry(id, path, url, method, headers, chunkSize);
+        sPending.add(path);
+        mHandler.post(() -> {
+            mHeaders.put(id, headers);
+            try {
+                mJournal.save(entry);
+            } catch (IOException e) {
+                // still uploads, just can't resume after a restart
+                Log.w(TAG, "Failed to journal upload", e);
+            }
+            mQueue.add(entry);
+            notify(entry, "queued", 0, null);
+            next();
+        });
+        return id;
+    }
+
+    void cancel(String id) {
+        final ChunkedUpload current = mCurrent;
+        if (current != null && current.getEntry().id.equals(id)) {
+            current.cancel();
+        }
+        mHandler.post(() -> {
+            final Iterator<UploadJournal.Entry> it = mQueue.iterator();
+            while (it.hasNext()) {
+                final UploadJournal.Entry entry = it.next();
+                if (entry.id.equals(id)) {
+                    it.remove();
+                    notify(entry, "cancelled", entry.offset, null);
+                }
+            }
+            if (mRetrying != null && mRetrying.id.equals(id)) {
+                mHandler.removeCallbacks(mRetry);
+                notify(mRetrying, "cancelled", mRetrying.offset, null);
+                mRetrying = null;
+            }
+            mHeaders.remove(id);
+            mJournal.remove(id);
+        });
+    }
+
+    // Picks up journaled uploads that are neither queued nor running. headers, if any,
+    // go to every upload that has no header values in this session yet.
+    void resume(@Nullable Map<String, String> headers) {
+        mHandler.post(() -> {
+            for (UploadJournal.Entry entry : mJournal.load()) {
+                sPending.add(entry.path);
+                if (isKnown(entry.id)) {
+                    continue;
+                }
+                Map<String, String> values = mHeaders.get(entry.id);
+                if (values == null && headers != null && !headers.isEmpty()) {
+                    values = headers;
+                    mHeaders.put(entry.id, values);
+                }
+                if (values != null) {
+                    entry.headers = values;
+                }
+                if (!entry.hasHeaders()) {
+                    // an unauthorized request would fail the upload for good
+                    notify(entry, "paused", entry.offset, "Headers required");
+                    continue;
+                }
+                mQueue.add(entry);
+            }
+            mRetries = 0;
+            next();
+        });
+    }
+
+    private boolean isKnown(String id) {
+        final ChunkedUpload current = mCurrent;
+        if (current != null && current.getEntry().id.equals(id)) {
+            return true;
+        }
+        if (mRetrying != null && mRetrying.id.equals(id)) {
+            return true;
+        }
+        for (UploadJournal.Entry entry : mQueue) {
+            if (entry.id.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Manager thread, runs the head of the queue on the worker
+    private void next() {
+        if (mCurrent != null || mQueue.isEmpty()) {
+            return;
+        }
+        final UploadJournal.Entry entry = mQueue.poll();
+        final ChunkedUpload upload = new ChunkedUpload(mJournal, entry, mThrottle, mListener);
+        mCurrent = upload;
+        mWorker.execute(() -> {
+            IOException error = null;
+            try {
+                upload.run();
+            } catch (IOException e) {
+                error = e;
+            }
+            final IOException result = error;
+            mHandler.post(() -> onFinished(upload, result));
+        });
+    }
+
+    // Manager thread
+    private void onFinished(ChunkedUpload upload, @Nullable IOException e) {
+        mCurrent = null;
+        final UploadJournal.Entry entry = upload.getEntry();
+        if (e == null) {
+            mRetries = 0;
+            mHeaders.remove(entry.id);
+            notify(entry, "completed", entry.length, null);
+        } else if (upload.isCancelled()) {
+            // the worker may have saved the entry after cancel() removed it
+            mJournal.remove(entry.id);
+            mHeaders.remove(entry.id);
+            notify(entry, "cancelled", entry.offset, null);
+        } else if (e instanceof ChunkedUpload.HttpException) {
+            if (((ChunkedUpload.HttpException) e).isPermanent()) {
+                mJournal.remove(entry.id);
+                mHeaders.remove(entry.id);
+                notify(entry, "failed", entry.offset, e.getMessage());
+            } else {
+                retry(entry, e);
+            }
+        } else if (e instanceof FileNotFoundException) {
+            // recording was deleted meanwhile
+            mJournal.remove(entry.id);
+            mHeaders.remove(entry.id);
+            notify(entry, "failed", entry.offset, e.getMessage());
+        } else if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            Log.d(TAG, "Upload interrupted");
+        } else {
+            retry(entry, e);
+        }
+        next();
+    }
+
+    private void retry(UploadJournal.Entry entry, IOException e) {
+        Log.w(TAG, "Upload " + entry.id + " failed at " + entry.offset + ": " + e.getMessage());
+        if (mRetries >= MAX_RETRIES) {
+            // stays in the journal, continues on resume() or the next app start
+            mRetries = 0;
+            notify(entry, "paused", entry.offset, e.getMessage());
+            return;
+        }
+        final long delay = Math.min(RETRY_MAX_MS, RETRY_INITIAL_MS << mRetries);
+        mRetries++;
+        notify(entry, "retrying", entry.offset, e.getMessage());
+        mRetrying = entry;
+        mHandler.postDelayed(mRetry, delay);
+    }
+
+    private final Runnable mRetry = () -> {
+        if (mRetrying != null) {
+            mQueue.addFirst(mRetrying);
+            mRetrying = null;
+        }
+        next();
+    };
+
+    private void notify(UploadJournal.Entry entry, String state, long sent, @Nullable String error) {
+        if ("completed".equals(state) || "failed".equals(state) || "cancelled".equals(state)) {
+            sPending.remove(entry.path);
+        }
+        WritableMap params = new WritableNativeMap();
+        params.putString("uploadId", entry.id);
+        params.putString("path", entry.path);
+        params.putString("state", state);
+        params.putDouble("sent", sent);
+        params.putDouble("total", entry.length);
+        if (error != null) {
+            params.putString("error", error);
+        }
+        mEventBus.post("onUploadProgress", params);
+    }
+}
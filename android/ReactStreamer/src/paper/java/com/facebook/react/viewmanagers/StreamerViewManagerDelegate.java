@@ -0,0 +1,80 @@
+/**
+* This code was generated by [react-native-codegen](https://www.npmjs.com/package/react-native-codegen).
+*
+* Do not edit this file as changes may cause incorrect behavior and will be lost
+* once the code is regenerated.
+*
+* @generated by codegen project: GeneratePropsJavaDelegate.js
+*/
+
+package com.facebook.react.viewmanagers;
+
+import android.view.View;
+import androidx.annotation.Nullable;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.uimanager.BaseViewManagerDelegate;
+import com.facebook.react.uimanager.BaseViewManagerInterface;
+
+public class StreamerViewManagerDelegate<T extends View, U extends BaseViewManagerInterface<T> & StreamerViewManagerInterface<T>> extends BaseViewManagerDelegate<T, U> {
+  public StreamerViewManagerDelegate(U viewManager) {
+    super(viewManager);
+  }
+  @Override
+  public void setProperty(T view, String propName, @Nullable Object value) {
+    switch (propName) {
+      case "videoConfig":
+        mViewManager.setVideoConfig(view, (ReadableMap) value);
+        break;
+      case "audioConfig":
+        mViewManager.setAudioConfig(view, (ReadableMap) value);
+        break;
+      case "zoom":
+        mViewManager.setZoom(view, value == null ? 1.0f : ((Double) value).floatValue());
+        break;
+      case "torch":
+        mViewManager.setTorch(view, value == null ? false : (boolean) value);
+        break;
+      case "cameraId":
+        mViewManager.setCameraId(view, value == null ? null : (String) value);
+        break;
+      case "autoStart":
+        mViewManager.setAutoStart(view, value == null ? true : (boolean) value);
+        break;
+      case "mute":
+        mViewManager.setMute(view, value == null ? false : (boolean) value);
+        break;
+      case "statsUpdateInterval":
+        mViewManager.setStatsUpdateInterval(view, value == null ? 0.0f : ((Double) value).floatValue());
+        break;
+      case "statsMode":
+        mViewManager.setStatsMode(view, value == null ? null : (String) value);
+        break;
+      case "statsThreshold":
+        mViewManager.setStatsThreshold(view, value == null ? 0.0f : ((Double) value).floatValue());
+        break;
+      case "previewScale":
+        mViewManager.setPreviewScale(view, value == null ? null : (String) value);
+        break;
+      case "abrConfig":
+        mViewManager.setAbrConfig(view, (ReadableMap) value);
+        break;
+      case "degradationConfig":
+        mViewManager.setDegradationConfig(view, (ReadableMap) value);
+        break;
+      case "reconnectConfig":
+        mViewManager.setReconnectConfig(view, (ReadableMap) value);
+        break;
+      case "replayConfig":
+        mViewManager.setReplayConfig(view, (ReadableMap) value);
+        break;
+      case "snapshotConfig":
+        mViewManager.setSnapshotConfig(view, (ReadableMap) value);
+        break;
+      case "storageConfig":
+        mViewManager.setStorageConfig(view, (ReadableMap) value);
+        break;
+      default:
+        super.setProperty(view, propName, value);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/**
+* This code was generated by [react-native-codegen](https://www.npmjs.com/package/react-native-codegen).
+*
+* Do not edit this file as changes may cause incorrect behavior and will be lost
+* once the code is regenerated.
+*
+* @generated by codegen project: GeneratePropsJavaInterface.js
+*/
+
+package com.facebook.react.viewmanagers;
+
+import android.view.View;
+import androidx.annotation.Nullable;
+import com.facebook.react.bridge.ReadableMap;
+
+public interface StreamerViewManagerInterface<T extends View> {
+  void setVideoConfig(T view, @Nullable ReadableMap value);
+  void setAudioConfig(T view, @Nullable ReadableMap value);
+  void setZoom(T view, float value);
+  void setTorch(T view, boolean value);
+  void setCameraId(T view, @Nullable String value);
+  void setAutoStart(T view, boolean value);
+  void setMute(T view, boolean value);
+  void setStatsUpdateInterval(T view, float value);
+  void setStatsMode(T view, @Nullable String value);
+  void setStatsThreshold(T view, float value);
+  void setPreviewScale(T view, @Nullable String value);
+  void setAbrConfig(T view, @Nullable ReadableMap value);
+  void setDegradationConfig(T view, @Nullable ReadableMap value);
+  void setReconnectConfig(T view, @Nullable ReadableMap value);
+  void setReplayConfig(T view, @Nullable ReadableMap value);
+  void setSnapshotConfig(T view, @Nullable ReadableMap value);
+  void setStorageConfig(T view, @Nullable ReadableMap value);
+}
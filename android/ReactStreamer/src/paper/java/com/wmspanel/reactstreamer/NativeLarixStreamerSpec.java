@@ -0,0 +1,187 @@
+
+/**
+ * This code was generated by [react-native-codegen](https://www.npmjs.com/package/react-native-codegen).
+ *
+ * Do not edit this file as changes may cause incorrect behavior and will be lost
+ * once the code is regenerated.
+ *
+ * @generated by codegen project: GenerateModuleJavaSpec.js
+ *
+ * @nolint
+ */
+
+package com.wmspanel.reactstreamer;
+
+import com.facebook.proguard.annotations.DoNotStrip;
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReactModuleWithSpec;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.turbomodule.core.interfaces.TurboModule;
+import javax.annotation.Nullable;
+
+public abstract class NativeLarixStreamerSpec extends ReactContextBaseJavaModule implements ReactModuleWithSpec, TurboModule {
+  public NativeLarixStreamerSpec(ReactApplicationContext reactContext) {
+    super(reactContext);
+  }
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void getCameraInfo(double apiVersion, Callback callback);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void startCapture();
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void stopCapture();
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void connectTo(String url, Callback callback);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void connect(ReadableArray config, Callback callback);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void disconnect(double connectionId);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void disconnectAll();
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void takeSnapshot(@Nullable String filename);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void startRecord(@Nullable String filename);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void stopRecord();
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void startSnapshotSeries(ReadableMap options, Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void stopSnapshotSeries();
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  @DoNotStrip
+  public abstract boolean installPreviewFrames();
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void startPreviewFrames(ReadableMap options);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void stopPreviewFrames();
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void saveReplay(double seconds, @Nullable String filename, Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void startUpload(ReadableMap options, Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void cancelUpload(String uploadId);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void resumeUploads(@Nullable ReadableMap headers);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void setUploadLimits(ReadableMap limits);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void requestPermissions(Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void getCameraInfoAsync(double apiVersion, Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void queryCameraInfo(ReadableMap query, Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void connectToAsync(String url, Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void connectAsync(ReadableArray config, Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void connectDestination(ReadableMap config, Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void takeSnapshotAsync(@Nullable String filename, Promise promise);
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  @DoNotStrip
+  public abstract String getConnectionState(double connectionId);
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  @DoNotStrip
+  public abstract double getBitrate(double connectionId);
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  @DoNotStrip
+  public abstract @Nullable String getActiveCameraId();
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void getSchedulerMetrics(Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void getEventBusMetrics(Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void getTimings(Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void getCodecCapabilities(Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void runEncoderBenchmark(Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void getEncoderBenchmark(Promise promise);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void addListener(String eventName);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void removeListeners(double count);
+
+  @ReactMethod
+  @DoNotStrip
+  public abstract void removeListener(String eventName);
+}
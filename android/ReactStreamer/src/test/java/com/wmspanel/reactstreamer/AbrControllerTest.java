@@ -0,0 +1,202 @@
+package com.wmspanel.reactstreamer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ladder and AIMD steps with their hysteresis, simulated one statistics tick at a time.
+ */
+public class AbrControllerTest {
+
+    private static final long PLENTY = 10_000_000;
+
+    private AbrController.Config mConfig;
+
+    @Before
+    public void setUp() {
+        mConfig = new AbrController.Config();
+        mConfig.ladder = new int[]{1_000_000, 2_000_000, 3_000_000, 4_000_000};
+        mConfig.minBitrate = 1_000_000;
+        mConfig.maxBitrate = 4_000_000;
+    }
+
+    // Ticks until the controller switches, fails if it doesn't within limit
+    private static int ticksUntilChange(AbrController abr, long bandwidth, int limit) {
+        for (int tick = 1; tick <= limit; tick++) {
+            if (abr.onTick(bandwidth, false) != AbrController.NO_CHANGE) {
+                return tick;
+            }
+        }
+        fail("no switch within " + limit + " ticks");
+        return -1;
+    }
+
+    private static void idle(AbrController abr, long bandwidth, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            assertEquals(AbrController.NO_CHANGE, abr.onTick(bandwidth, false));
+        }
+    }
+
+    @Test
+    public void singleCongestedTickIsIgnored() {
+        final AbrController abr = new AbrController(mConfig, 4_000_000);
+        assertEquals(AbrController.NO_CHANGE, abr.onTick(1_000_000, false));
+        assertEquals(AbrController.NO_CHANGE, abr.onTick(PLENTY, false));
+        assertEquals(AbrController.NO_CHANGE, abr.onTick(1_000_000, false));
+        assertEquals(4_000_000, abr.getBitrate());
+    }
+
+    @Test
+    public void ladderStepsDownToStepFittingBandwidth() {
+        final AbrController abr = new AbrController(mConfig, 4_000_000);
+        assertEquals(AbrController.NO_CHANGE, abr.onTick(2_500_000, false));
+        assertEquals(2_000_000, abr.onTick(2_500_000, false));
+        assertEquals("bandwidth", abr.getLastReason());
+    }
+
+    @Test
+    public void ladderStepsDownOneStepOnLoss() {
+        final AbrController abr = new AbrController(mConfig, 4_000_000);
+        abr.onTick(PLENTY, true);
+        assertEquals(3_000_000, abr.onTick(PLENTY, true));
+        assertEquals("loss", abr.getLastReason());
+    }
+
+    @Test
+    public void nothingChangesDuringCooldown() {
+        final AbrController abr = new AbrController(mConfig, 4_000_000);
+        abr.onTick(2_500_000, false);
+        abr.onTick(2_500_000, false);
+        idle(abr, 500_000, mConfig.cooldownTicks);
+        assertEquals(mConfig.downTicks, ticksUntilChange(abr, 500_000, mConfig.downTicks));
+        assertEquals(1_000_000, abr.getBitrate());
+    }
+
+    @Test
+    public void ladderStepsUpOneStepAfterUpTicks() {
+        final AbrController abr = new AbrController(mConfig, 2_000_000);
+        assertEquals(mConfig.upTicks, ticksUntilChange(abr, PLENTY, 100));
+        assertEquals(3_000_000, abr.getBitrate());
+        assertEquals("probe", abr.getLastReason());
+    }
+
+    @Test
+    public void ladderStaysWithinBounds() {
+        final AbrController abr = new AbrController(mConfig, 4_000_000);
+        idle(abr, PLENTY, 100);
+        assertEquals(4_000_000, abr.getBitrate());
+
+        final AbrController low = new AbrController(mConfig, 1_000_000);
+        idle(low, 0, 100);
+        assertEquals(1_000_000, low.getBitrate());
+    }
+
+    @Test
+    public void aimdDecreasesByFactorAndIncreasesByStep() {
+        mConfig.mode = AbrController.MODE_AIMD;
+        final AbrController abr = new AbrController(mConfig, 4_000_000);
+        abr.onTick(1_000_000, false);
+        assertEquals(2_800_000, abr.onTick(1_000_000, false));
+
+        idle(abr, PLENTY, mConfig.cooldownTicks);
+        assertEquals(mConfig.upTicks, ticksUntilChange(abr, PLENTY, 100));
+        assertEquals(2_900_000, abr.getBitrate());
+    }
+
+    @Test
+    public void aimdClampsToMinBitrate() {
+        mConfig.mode = AbrController.MODE_AIMD;
+        final AbrController abr = new AbrController(mConfig, 1_200_000);
+        abr.onTick(0, true);
+        assertEquals(1_000_000, abr.onTick(0, true));
+        idle(abr, 0, 20);
+        assertEquals(1_000_000, abr.getBitrate());
+    }
+
+    @Test
+    public void failedProbeDoublesBackoff() {
+        final AbrController abr = new AbrController(mConfig, 2_000_000);
+        assertEquals(mConfig.upTicks, ticksUntilChange(abr, PLENTY, 100));
+        idle(abr, PLENTY, mConfig.cooldownTicks);
+        // congestion right after the probe
+        abr.onTick(2_200_000, false);
+        assertEquals(2_000_000, abr.onTick(2_200_000, false));
+        assertEquals(2, abr.getProbeBackoff());
+
+        idle(abr, PLENTY, mConfig.cooldownTicks);
+        assertEquals(mConfig.upTicks * 2, ticksUntilChange(abr, PLENTY, 100));
+    }
+
+    @Test
+    public void backoffIsCappedAtMax() {
+        final AbrController abr = new AbrController(mConfig, 2_000_000);
+        for (int i = 0; i < 6; i++) {
+            ticksUntilChange(abr, PLENTY, 1000);
+            idle(abr, PLENTY, mConfig.cooldownTicks);
+            abr.onTick(2_200_000, false);
+            assertEquals(2_000_000, abr.onTick(2_200_000, false));
+            idle(abr, PLENTY, mConfig.cooldownTicks);
+        }
+        assertEquals(mConfig.maxProbeBackoff, abr.getProbeBackoff());
+    }
+
+    @Test
+    public void heldProbeHalvesBackoff() {
+        final AbrController abr = new AbrController(mConfig, 2_000_000);
+        for (int i = 0; i < 3; i++) {
+            ticksUntilChange(abr, PLENTY, 1000);
+            idle(abr, PLENTY, mConfig.cooldownTicks);
+            abr.onTick(2_200_000, false);
+            abr.onTick(2_200_000, false);
+            idle(abr, PLENTY, mConfig.cooldownTicks);
+        }
+        assertEquals(8, abr.getProbeBackoff());
+
+        // the probe to 3M holds for upTicks
+        assertEquals(mConfig.upTicks * 8, ticksUntilChange(abr, PLENTY, 1000));
+        idle(abr, PLENTY, mConfig.upTicks);
+        assertEquals(4, abr.getProbeBackoff());
+
+        // and so does the one to 4M, after a shorter wait
+        ticksUntilChange(abr, PLENTY, 1000);
+        assertEquals(4_000_000, abr.getBitrate());
+        idle(abr, PLENTY, mConfig.upTicks);
+        assertEquals(2, abr.getProbeBackoff());
+    }
+
+    @Test
+    public void ceilingCapsBitrateAndProbes() {
+        final AbrController abr = new AbrController(mConfig, 4_000_000);
+        // lower video level
+        assertEquals(2_500_000, abr.setCeiling(2_500_000));
+        assertEquals(2_500_000, abr.getBitrate());
+        idle(abr, PLENTY, 100);
+        assertEquals(2_500_000, abr.getBitrate());
+
+        // back to the top level, probing resumes from the capped bitrate
+        assertEquals(2_500_000, abr.setCeiling(0));
+        assertEquals(mConfig.upTicks, ticksUntilChange(abr, PLENTY, 100));
+        assertEquals(3_000_000, abr.getBitrate());
+    }
+
+    @Test
+    public void ceilingKeepsMinBitrate() {
+        final AbrController abr = new AbrController(mConfig, 2_000_000);
+        assertEquals(1_000_000, abr.setCeiling(500_000));
+        abr.onTick(0, true);
+        abr.onTick(0, true);
+        assertEquals(1_000_000, abr.getBitrate());
+    }
+
+    @Test
+    public void lateCongestionDoesNotCountAsFailedProbe() {
+        final AbrController abr = new AbrController(mConfig, 2_000_000);
+        ticksUntilChange(abr, PLENTY, 100);
+        idle(abr, PLENTY, mConfig.upTicks);
+        abr.onTick(2_200_000, false);
+        assertEquals(2_000_000, abr.onTick(2_200_000, false));
+        assertEquals(1, abr.getProbeBackoff());
+    }
+}
@@ -0,0 +1,291 @@
+package com.wmspanel.reactstreamer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs ChunkedUpload against a local HTTP server standing in for the upload endpoint.
+ */
+public class ChunkedUploadTest {
+
+    private static final int CHUNK = 256 * 1024;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private UploadJournal mJournal;
+    private byte[] mContent;
+    private File mFile;
+
+    // server side
+    private byte[] mReceived;
+    private long mStored;
+    private final List<String> mRanges = Collections.synchronizedList(new ArrayList<>());
+    // 1-based request number answered with failCode, 0 for none
+    private volatile int mFailRequest;
+    private volatile int mFailCode = 503;
+    // server keeps only this part of every chunk, 1 keeps all
+    private volatile double mKeepRatio = 1.0;
+    // runs once the request body is read, before the response
+    private volatile Runnable mOnRequest;
+
+    @Before
+    public void setUp() throws IOException {
+        mContent = new byte[CHUNK * 4 + 1234];
+        new Random(42).nextBytes(mContent);
+        mFile = mFolder.newFile("record.mp4");
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(mContent);
+        }
+        mReceived = new byte[mContent.length];
+        mJournal = new UploadJournal(mFolder.newFolder("journal"));
+
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/upload", this::handle);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final String range = exchange.getRequestHeaders().getFirst("Content-Range");
+        mRanges.add(range);
+        final byte[] body = readAll(exchange.getRequestBody());
+        final Runnable onRequest = mOnRequest;
+        if (onRequest != null) {
+            onRequest.run();
+        }
+        if (mFailRequest == mRanges.size()) {
+            respond(exchange, mFailCode);
+            return;
+        }
+        final Matcher matcher = CONTENT_RANGE.matcher(range == null ? "" : range);
+        if (!matcher.matches() || !"PUT".equals(exchange.getRequestMethod())) {
+            respond(exchange, 400);
+            return;
+        }
+        final int first = Integer.parseInt(matcher.group(1));
+        final int total = Integer.parseInt(matcher.group(3));
+        if (first > mStored) {
+            // gap, tell the client where to continue
+            exchange.getResponseHeaders().add("Range", "bytes=0-" + (mStored - 1));
+            respond(exchange, 308);
+            return;
+        }
+        int keep = body.length;
+        if (first + body.length < total) {
+            keep = (int) Math.max(1, body.length * mKeepRatio);
+        }
+        System.arraycopy(body, 0, mReceived, first, keep);
+        mStored = Math.max(mStored, first + keep);
+        if (mStored == total) {
+            respond(exchange, 201);
+            return;
+        }
+        exchange.getResponseHeaders().add("Range", "bytes=0-" + (mStored - 1));
+        respond(exchange, 308);
+    }
+
+    private static void respond(HttpExchange exchange, int code) throws IOException {
+        exchange.sendResponseHeaders(code, -1);
+        exchange.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private UploadJournal.Entry newEntry() throws IOException {
+        final UploadJournal.Entry entry = new UploadJournal.Entry("test", mFile.getPath(),
+                "http://127.0.0.1:" + mServer.getAddress().getPort() + "/upload", "PUT",
+                new LinkedHashMap<>(), CHUNK);
+        mJournal.save(entry);
+        return entry;
+    }
+
+    private static ChunkedUpload upload(UploadJournal journal, UploadJournal.Entry entry, long rate) {
+        return new ChunkedUpload(journal, entry, () -> rate, (e, sent) -> { });
+    }
+
+    @Test
+    public void sendsFileInChunks() throws IOException {
+        final int code = upload(mJournal, newEntry(), ChunkedUpload.UNLIMITED).run();
+
+        assertEquals(201, code);
+        assertArrayEquals(mContent, mReceived);
+        assertEquals(5, mRanges.size());
+        assertEquals("bytes 0-" + (CHUNK - 1) + "/" + mContent.length, mRanges.get(0));
+        assertTrue("finished upload leaves the journal", mJournal.load().isEmpty());
+    }
+
+    @Test
+    public void resumesFromJournalAfterFailure() throws IOException {
+        mFailRequest = 3;
+        try {
+            upload(mJournal, newEntry(), ChunkedUpload.UNLIMITED).run();
+            fail("server error expected");
+        } catch (ChunkedUpload.HttpException e) {
+            assertEquals(503, e.code);
+            assertFalse(e.isPermanent());
+        }
+
+        // as after a restart: only the journal survives
+        final List<UploadJournal.Entry> pending = new UploadJournal(journalDir()).load();
+        assertEquals(1, pending.size());
+        assertEquals(2L * CHUNK, pending.get(0).offset);
+
+        mRanges.clear();
+        mFailRequest = 0;
+        assertEquals(201, upload(mJournal, pending.get(0), ChunkedUpload.UNLIMITED).run());
+        assertEquals("bytes " + 2 * CHUNK + "-" + (3 * CHUNK - 1) + "/" + mContent.length, mRanges.get(0));
+        assertArrayEquals(mContent, mReceived);
+    }
+
+    @Test
+    public void continuesFromServerRange() throws IOException {
+        mKeepRatio = 0.5;
+
+        assertEquals(201, upload(mJournal, newEntry(), ChunkedUpload.UNLIMITED).run());
+        assertArrayEquals(mContent, mReceived);
+        assertTrue(mRanges.size() > 5);
+    }
+
+    @Test
+    public void restartsChangedFile() throws IOException {
+        final UploadJournal.Entry entry = newEntry();
+        entry.length = mContent.length;
+        entry.lastModified = mFile.lastModified() - 1000;
+        entry.offset = 3L * CHUNK;
+
+        assertEquals(201, upload(mJournal, entry, ChunkedUpload.UNLIMITED).run());
+        assertTrue(mRanges.get(0).startsWith("bytes 0-"));
+        assertArrayEquals(mContent, mReceived);
+    }
+
+    @Test
+    public void clientErrorIsPermanent() throws IOException {
+        mFailRequest = 1;
+        mFailCode = 403;
+        final UploadJournal.Entry entry = newEntry();
+        try {
+            upload(mJournal, entry, ChunkedUpload.UNLIMITED).run();
+            fail("client error expected");
+        } catch (ChunkedUpload.HttpException e) {
+            assertTrue(e.isPermanent());
+        }
+        assertEquals(0, entry.offset);
+    }
+
+    @Test
+    public void throttleLimitsRate() throws IOException {
+        final long rate = 2L * 1024 * 1024;
+        final long start = System.nanoTime();
+        assertEquals(201, upload(mJournal, newEntry(), rate).run());
+        final long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // the first 64 KB slice goes out without waiting
+        final long expectedMs = (mContent.length - 64 * 1024) * 1000L / rate;
+        assertTrue("took " + elapsedMs + " ms, expected " + expectedMs, elapsedMs >= expectedMs * 9 / 10);
+        assertArrayEquals(mContent, mReceived);
+    }
+
+    @Test
+    public void pausedUploadCanBeCancelled() throws Exception {
+        final ChunkedUpload upload = upload(mJournal, newEntry(), 0);
+        final Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {
+            }
+            upload.cancel();
+        });
+        canceller.start();
+        try {
+            upload.run();
+            fail("cancel expected");
+        } catch (InterruptedIOException e) {
+            assertTrue(upload.isCancelled());
+        }
+        canceller.join();
+        assertEquals(0, mStored);
+    }
+
+    @Test
+    public void uploadCancelledDuringRequestStaysRemoved() throws IOException {
+        final UploadJournal.Entry entry = newEntry();
+        final ChunkedUpload upload = upload(mJournal, entry, ChunkedUpload.UNLIMITED);
+        // as UploadManager.cancel: flag the upload, drop its entry while the chunk is in flight
+        mOnRequest = () -> {
+            upload.cancel();
+            mJournal.remove(entry.id);
+        };
+        try {
+            upload.run();
+            fail("cancel expected");
+        } catch (InterruptedIOException e) {
+            assertTrue(upload.isCancelled());
+        }
+        assertEquals(1, mRanges.size());
+        assertTrue("acknowledged chunk must not bring the entry back", mJournal.load().isEmpty());
+    }
+
+    @Test
+    public void journalKeepsHeaderNamesOnly() throws IOException {
+        final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        headers.put("Authorization", "Bearer secret-token");
+        final UploadJournal.Entry entry = new UploadJournal.Entry("auth", mFile.getPath(),
+                "http://127.0.0.1/upload", "PUT", headers, CHUNK);
+        assertTrue(entry.hasHeaders());
+        mJournal.save(entry);
+
+        final byte[] stored = Files.readAllBytes(new File(journalDir(), "auth.upl").toPath());
+        assertFalse(new String(stored, StandardCharsets.ISO_8859_1).contains("secret-token"));
+
+        final UploadJournal.Entry loaded = new UploadJournal(journalDir()).load().get(0);
+        assertEquals(Collections.singletonList("Authorization"), loaded.headerNames);
+        assertFalse("values come from JS again", loaded.hasHeaders());
+        loaded.headers = headers;
+        assertTrue(loaded.hasHeaders());
+    }
+
+    private File journalDir() {
+        return new File(mFolder.getRoot(), "journal");
+    }
+}
@@ -0,0 +1,135 @@
+package com.wmspanel.reactstreamer;
+
+import com.wmspanel.libstream.ConnectionConfig;
+import com.wmspanel.libstream.Streamer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Slot bookkeeping of ConnectionRegistry: connect, drop for a reconnect, retry and disconnect.
+ */
+public class ConnectionRegistryTest {
+
+    private ConnectionRegistry mRegistry;
+    private ConnectionTarget mTarget;
+
+    @Before
+    public void setUp() {
+        mRegistry = new ConnectionRegistry();
+        mTarget = new ConnectionTarget(new ConnectionConfig());
+    }
+
+    @Test
+    public void addedConnectionIsActive() {
+        mRegistry.add(1, mTarget);
+
+        assertTrue(mRegistry.isActive(1));
+        assertTrue(mRegistry.contains(1));
+        assertSame(mTarget, mRegistry.getTarget(1));
+        assertNotNull(mRegistry.getStatistics(1));
+        assertNull("connecting", mRegistry.getState(1));
+        assertFalse(mRegistry.isActive(2));
+    }
+
+    @Test
+    public void stateIsKeptPerConnection() {
+        mRegistry.add(1, mTarget);
+        mRegistry.add(2, null);
+
+        assertTrue(mRegistry.setState(2, Streamer.ConnectionState.RECORD));
+        assertNull(mRegistry.getState(1));
+        assertEquals(Streamer.ConnectionState.RECORD, mRegistry.getState(2));
+        assertFalse(mRegistry.setState(3, Streamer.ConnectionState.RECORD));
+    }
+
+    @Test
+    public void removeReturnsTarget() {
+        mRegistry.add(1, mTarget);
+        mRegistry.add(2, null);
+
+        assertSame(mTarget, mRegistry.remove(1));
+        assertFalse(mRegistry.contains(1));
+        assertTrue("last slot moved into the freed one", mRegistry.isActive(2));
+        assertNull(mRegistry.remove(1));
+    }
+
+    @Test
+    public void suspendedDestinationStaysRegistered() {
+        mRegistry.add(1, mTarget);
+        mRegistry.setState(1, Streamer.ConnectionState.RECORD);
+
+        assertTrue(mRegistry.suspend(1));
+        assertFalse(mRegistry.isActive(1));
+        assertTrue(mRegistry.contains(1));
+        assertNull(mRegistry.getStatistics(1));
+        assertNull(mRegistry.getState(1));
+        assertFalse("reconnecting ids take no state", mRegistry.setState(1, Streamer.ConnectionState.RECORD));
+        assertFalse("already suspended", mRegistry.suspend(1));
+    }
+
+    @Test
+    public void connectionWithoutTargetIsNotSuspended() {
+        mRegistry.add(1, null);
+        assertFalse(mRegistry.suspend(1));
+        assertTrue(mRegistry.isActive(1));
+    }
+
+    @Test
+    public void replaceMovesDestinationToNewId() {
+        mRegistry.add(1, mTarget);
+        mRegistry.suspend(1);
+
+        assertTrue(mRegistry.replace(1, mTarget, 5));
+        assertFalse(mRegistry.contains(1));
+        assertTrue(mRegistry.isActive(5));
+        assertSame(mTarget, mRegistry.getTarget(5));
+        assertNotNull(mRegistry.getStatistics(5));
+    }
+
+    @Test
+    public void replaceFailsAfterAppDisconnect() {
+        mRegistry.add(1, mTarget);
+        mRegistry.suspend(1);
+        mRegistry.remove(1);
+        assertFalse(mRegistry.replace(1, mTarget, 5));
+        assertFalse(mRegistry.contains(5));
+
+        // slot reused by another destination meanwhile
+        mRegistry.add(1, new ConnectionTarget(new ConnectionConfig()));
+        assertFalse(mRegistry.replace(1, mTarget, 5));
+    }
+
+    @Test
+    public void snapshotGrowsPastInitialCapacity() {
+        final ConnectionRegistry.Snapshot snapshot = new ConnectionRegistry.Snapshot();
+        for (int id = 0; id < 20; id++) {
+            mRegistry.add(id, null);
+        }
+        mRegistry.setState(13, Streamer.ConnectionState.RECORD);
+
+        assertEquals(20, mRegistry.snapshot(snapshot));
+        assertEquals(20, snapshot.size);
+        assertTrue(snapshot.duration.length >= 20);
+        assertTrue(snapshot.loss.length >= 20);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, snapshot.ids[i]);
+            assertNotNull(snapshot.statistics[i]);
+            assertEquals(i == 13 ? Streamer.ConnectionState.RECORD : null, snapshot.states[i]);
+        }
+
+        // reused, removed connections don't stay reachable
+        final int[] ids = snapshot.ids;
+        for (int id = 3; id < 20; id++) {
+            mRegistry.remove(id);
+        }
+        assertEquals(3, mRegistry.snapshot(snapshot));
+        assertSame(ids, snapshot.ids);
+        for (int i = 3; i < 20; i++) {
+            assertNull(snapshot.statistics[i]);
+            assertNull(snapshot.states[i]);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.wmspanel.reactstreamer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives DegradationPolicy with a simulated statistics feed, one sample per second.
+ */
+public class DegradationPolicyTest {
+
+    private static final long TICK_MS = 1000;
+
+    private static final List<DegradationPolicy.Level> LEVELS = Arrays.asList(
+            new DegradationPolicy.Level(1920, 1080, 60, 60, 60),
+            new DegradationPolicy.Level(1920, 1080, 30, 30, 30),
+            new DegradationPolicy.Level(1280, 720, 30, 30, 30),
+            new DegradationPolicy.Level(960, 540, 30, 30, 30),
+            new DegradationPolicy.Level(960, 540, 15, 15, 15));
+
+    private DegradationPolicy.Config mConfig;
+    private DegradationPolicy mPolicy;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mConfig = new DegradationPolicy.Config();
+        mConfig.degradeAfterMs = 5_000;
+        mConfig.recoverAfterMs = 20_000;
+        mConfig.maxRecoverAfterMs = 80_000;
+        mConfig.minDwellMs = 10_000;
+        mPolicy = new DegradationPolicy(mConfig, LEVELS);
+        mNow = 0;
+    }
+
+    // Feeds the same sample for the given duration, returns level changes seen
+    private int feed(boolean loss, long durationMs) {
+        int changes = 0;
+        for (long t = 0; t < durationMs; t += TICK_MS) {
+            mNow += TICK_MS;
+            if (mPolicy.onSample(mNow, loss) != DegradationPolicy.NO_CHANGE) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    @Test
+    public void cleanLinkKeepsFullQuality() {
+        assertEquals(0, feed(false, 120_000));
+        assertEquals(0, mPolicy.getLevelIndex());
+    }
+
+    @Test
+    public void sustainedLossDegradesAfterDelay() {
+        assertEquals(0, feed(true, 5_000));
+        assertEquals(1, feed(true, 1_000));
+        assertEquals(1, mPolicy.getLevelIndex());
+        assertEquals(30, mPolicy.getLevel().fps);
+    }
+
+    @Test
+    public void shortLossBurstsDoNotDegrade() {
+        for (int i = 0; i < 30; i++) {
+            feed(true, 3_000);
+            feed(false, 1_000);
+        }
+        assertEquals(0, mPolicy.getLevelIndex());
+    }
+
+    @Test
+    public void stepsDownRespectMinimumDwell() {
+        // first step after 6 s, next ones no sooner than minDwell apart
+        feed(true, 6_000);
+        assertEquals(1, mPolicy.getLevelIndex());
+        feed(true, 9_000);
+        assertEquals(1, mPolicy.getLevelIndex());
+        feed(true, 1_000);
+        assertEquals(2, mPolicy.getLevelIndex());
+    }
+
+    @Test
+    public void neverGoesBelowLastLevel() {
+        feed(true, 600_000);
+        assertEquals(LEVELS.size() - 1, mPolicy.getLevelIndex());
+        DegradationPolicy.Level level = mPolicy.getLevel();
+        assertEquals(960, level.width);
+        assertEquals(15, level.fps);
+    }
+
+    @Test
+    public void recoversOneStepAtATime() {
+        feed(true, 30_000);
+        final int degraded = mPolicy.getLevelIndex();
+        assertTrue(degraded >= 2);
+
+        // recovery needs recoverAfter of clean samples after the first clean one
+        feed(false, 20_000);
+        assertEquals(degraded, mPolicy.getLevelIndex());
+        feed(false, 1_000);
+        assertEquals(degraded - 1, mPolicy.getLevelIndex());
+
+        feed(false, 600_000);
+        assertEquals(0, mPolicy.getLevelIndex());
+    }
+
+    @Test
+    public void failedRecoveryBacksOff() {
+        feed(true, 6_000);
+        assertEquals(1, mPolicy.getLevelIndex());
+        feed(false, 21_000);
+        assertEquals(0, mPolicy.getLevelIndex());
+
+        // link can't hold the recovered level
+        feed(true, 10_000);
+        assertEquals(1, mPolicy.getLevelIndex());
+        assertEquals(40_000, mPolicy.getRecoverAfterMs());
+
+        feed(false, 40_000);
+        assertEquals(1, mPolicy.getLevelIndex());
+        feed(false, 1_000);
+        assertEquals(0, mPolicy.getLevelIndex());
+    }
+
+    @Test
+    public void oscillatingLinkSwitchesRarely() {
+        int changes = 0;
+        // 25 s of loss, 25 s clean, for 10 minutes
+        for (int i = 0; i < 12; i++) {
+            changes += feed(true, 25_000);
+            changes += feed(false, 25_000);
+        }
+        assertTrue("too many switches: " + changes, changes <= 24);
+        assertEquals(mConfig.maxRecoverAfterMs, mPolicy.getRecoverAfterMs());
+    }
+}
@@ -0,0 +1,66 @@
+package com.wmspanel.reactstreamer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per-event counters with named and count-only removal.
+ */
+public class EventListenerTrackerTest {
+
+    @Before
+    public void setUp() {
+        EventListenerTracker.reset();
+    }
+
+    @Test
+    public void namedRemoveDropsOnlyThatEvent() {
+        EventListenerTracker.add("onStreamerEventBatch");
+        EventListenerTracker.add("onStreamerStats");
+        EventListenerTracker.add("onConnectionStateChanged");
+
+        EventListenerTracker.remove("onStreamerStats");
+
+        assertFalse(EventListenerTracker.hasListeners("onStreamerStats"));
+        assertTrue(EventListenerTracker.hasListeners("onConnectionStateChanged"));
+        assertTrue(EventListenerTracker.hasListeners("onStreamerEventBatch"));
+    }
+
+    @Test
+    public void eventStaysWhileOtherSubscriptionsDeclareIt() {
+        EventListenerTracker.add("onStreamerStats");
+        EventListenerTracker.add("onStreamerStats");
+
+        EventListenerTracker.remove("onStreamerStats");
+        assertTrue(EventListenerTracker.hasListeners("onStreamerStats"));
+        EventListenerTracker.remove("onStreamerStats");
+        assertFalse(EventListenerTracker.hasListeners("onStreamerStats"));
+    }
+
+    @Test
+    public void countOnlyRemoveClearsWhenAllAreGone() {
+        EventListenerTracker.add("onStreamerStats");
+        EventListenerTracker.add("onStorageStats");
+
+        EventListenerTracker.remove(1);
+        // names are unknown, both may still be subscribed
+        assertTrue(EventListenerTracker.hasListeners("onStreamerStats"));
+        assertTrue(EventListenerTracker.hasListeners("onStorageStats"));
+
+        EventListenerTracker.remove(1);
+        assertFalse(EventListenerTracker.hasListeners("onStreamerStats"));
+        assertFalse(EventListenerTracker.hasListeners("onStorageStats"));
+    }
+
+    @Test
+    public void namedRemoveAfterResetIsIgnored() {
+        EventListenerTracker.add("onStreamerStats");
+        EventListenerTracker.reset();
+        EventListenerTracker.remove("onStreamerStats");
+
+        EventListenerTracker.add("onStorageStats");
+        assertTrue(EventListenerTracker.hasListeners("onStorageStats"));
+    }
+}
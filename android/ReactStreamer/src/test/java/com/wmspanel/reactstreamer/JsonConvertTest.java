@@ -0,0 +1,101 @@
+package com.wmspanel.reactstreamer;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Converts connection info shaped payloads into JavaOnlyMap / JavaOnlyArray.
+ */
+public class JsonConvertTest {
+
+    private static final BridgeFactory FACTORY = new BridgeFactory() {
+        @Override
+        public WritableMap createMap() {
+            return new JavaOnlyMap();
+        }
+
+        @Override
+        public WritableArray createArray() {
+            return new JavaOnlyArray();
+        }
+    };
+
+    private static ReadableMap convert(String json) throws JSONException {
+        return JsonConvert.jsonToReact(new JSONObject(json), FACTORY);
+    }
+
+    @Test
+    public void keepsScalarTypes() throws JSONException {
+        final ReadableMap map = convert("{\"host\": \"example.com\", \"port\": 1935, \"rtt\": 12.5,"
+                + " \"encrypted\": true, \"streamId\": null}");
+
+        assertEquals("example.com", map.getString("host"));
+        assertEquals(ReadableType.Number, map.getType("port"));
+        assertEquals(1935, map.getInt("port"));
+        assertEquals(12.5, map.getDouble("rtt"), 0.0);
+        assertTrue(map.getBoolean("encrypted"));
+        assertTrue(map.isNull("streamId"));
+    }
+
+    @Test
+    public void longsAreNotTruncated() throws JSONException {
+        final ReadableMap map = convert("{\"bytesSent\": 8589934592, \"small\": 42, \"counters\": [4294967296, 7]}");
+
+        assertEquals(8589934592.0, map.getDouble("bytesSent"), 0.0);
+        assertEquals(42, map.getInt("small"));
+        final ReadableArray counters = map.getArray("counters");
+        assertEquals(4294967296.0, counters.getDouble(0), 0.0);
+        assertEquals(7, counters.getInt(1));
+    }
+
+    @Test
+    public void convertsNestedContainers() throws JSONException {
+        final ReadableMap map = convert("{\"srt\": {\"stats\": {\"pktSent\": 10, \"links\": [{\"id\": 1},"
+                + " [2, \"b\", false], {}]}}, \"after\": \"x\", \"empty\": []}");
+
+        final ReadableMap stats = map.getMap("srt").getMap("stats");
+        assertEquals(10, stats.getInt("pktSent"));
+        final ReadableArray links = stats.getArray("links");
+        assertEquals(3, links.size());
+        assertEquals(1, links.getMap(0).getInt("id"));
+        final ReadableArray inner = links.getArray(1);
+        assertEquals(2, inner.getInt(0));
+        assertEquals("b", inner.getString(1));
+        assertFalse(inner.getBoolean(2));
+        assertFalse(links.getMap(2).keySetIterator().hasNextKey());
+        assertEquals("x", map.getString("after"));
+        assertEquals(0, map.getArray("empty").size());
+    }
+
+    @Test
+    public void deepNestingDoesNotOverflow() {
+        final int depth = 20_000;
+        final JSONArray root = new JSONArray();
+        JSONArray level = root;
+        for (int i = 1; i < depth; i++) {
+            final JSONArray child = new JSONArray();
+            level.put(child);
+            level = child;
+        }
+
+        ReadableArray list = JsonConvert.jsonToReact(root, FACTORY);
+        int levels = 1;
+        while (list.size() > 0) {
+            list = list.getArray(0);
+            levels++;
+        }
+        assertEquals(depth, levels);
+    }
+}
@@ -0,0 +1,88 @@
+package com.wmspanel.reactstreamer;
+
+import com.wmspanel.libstream.Streamer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Retry decisions and backoff delays, jitter drawn from a seeded Random.
+ */
+public class ReconnectPolicyTest {
+
+    private ReconnectPolicy.Config mConfig;
+
+    @Before
+    public void setUp() {
+        mConfig = new ReconnectPolicy.Config();
+        mConfig.initialDelayMs = 1_000;
+        mConfig.maxDelayMs = 30_000;
+        mConfig.multiplier = 2.0f;
+        mConfig.jitter = 0.3f;
+    }
+
+    @Test
+    public void authFailureIsNeverRetried() {
+        final ReconnectPolicy policy = new ReconnectPolicy(mConfig, new Random(1));
+        assertFalse(policy.shouldRetry(Streamer.Status.AUTH_FAIL, 1));
+        assertTrue(policy.shouldRetry(Streamer.Status.CONN_FAIL, 1));
+        assertTrue(policy.shouldRetry(Streamer.Status.UNKNOWN_FAIL, 1));
+    }
+
+    @Test
+    public void unlimitedWithoutMaxAttempts() {
+        final ReconnectPolicy policy = new ReconnectPolicy(mConfig, new Random(1));
+        assertTrue(policy.shouldRetry(Streamer.Status.CONN_FAIL, 1_000));
+    }
+
+    @Test
+    public void stopsAfterMaxAttempts() {
+        mConfig.maxAttempts = 3;
+        final ReconnectPolicy policy = new ReconnectPolicy(mConfig, new Random(1));
+        assertTrue(policy.shouldRetry(Streamer.Status.CONN_FAIL, 3));
+        assertFalse(policy.shouldRetry(Streamer.Status.CONN_FAIL, 4));
+    }
+
+    @Test
+    public void delayGrowsUpToMaxWithoutJitter() {
+        mConfig.jitter = 0;
+        final ReconnectPolicy policy = new ReconnectPolicy(mConfig, new Random(1));
+        assertEquals(1_000, policy.delayMs(1));
+        assertEquals(2_000, policy.delayMs(2));
+        assertEquals(16_000, policy.delayMs(5));
+        assertEquals(30_000, policy.delayMs(6));
+        assertEquals(30_000, policy.delayMs(100));
+    }
+
+    @Test
+    public void jitterStaysWithinBounds() {
+        final ReconnectPolicy policy = new ReconnectPolicy(mConfig, new Random(42));
+        final long[] base = {1_000, 2_000, 4_000, 8_000, 16_000, 30_000, 30_000};
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < base.length; i++) {
+                final long delay = policy.delayMs(i + 1);
+                final long spread = Math.round(base[i] * mConfig.jitter);
+                assertTrue("attempt " + (i + 1) + ": " + delay,
+                        delay >= base[i] - spread && delay <= base[i] + spread);
+            }
+        }
+    }
+
+    @Test
+    public void jitterSpreadsDelays() {
+        final ReconnectPolicy a = new ReconnectPolicy(mConfig, new Random(7));
+        final ReconnectPolicy b = new ReconnectPolicy(mConfig, new Random(7));
+        final ReconnectPolicy c = new ReconnectPolicy(mConfig, new Random(8));
+        boolean differs = false;
+        for (int i = 0; i < 10; i++) {
+            final long delay = a.delayMs(3);
+            assertEquals("same seed, same delays", delay, b.delayMs(3));
+            differs |= delay != c.delayMs(3);
+        }
+        assertTrue("destinations don't reconnect in lockstep", differs);
+    }
+}
@@ -0,0 +1,166 @@
+package com.wmspanel.reactstreamer;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * onStreamerStats payloads in full, delta and compact modes.
+ */
+public class StatsEmitterTest {
+
+    private static final BridgeFactory FACTORY = new BridgeFactory() {
+        @Override
+        public WritableMap createMap() {
+            return new JavaOnlyMap();
+        }
+
+        @Override
+        public WritableArray createArray() {
+            return new JavaOnlyArray();
+        }
+    };
+
+    private static StatsEmitter emitter(String mode, float threshold) {
+        final StatsEmitter emitter = new StatsEmitter(FACTORY);
+        emitter.setMode(mode);
+        emitter.setThreshold(threshold);
+        return emitter;
+    }
+
+    @Test
+    public void fullSendsEveryFieldEveryTick() {
+        final StatsEmitter emitter = emitter("full", 0.1f);
+        for (int tick = 0; tick < 2; tick++) {
+            emitter.begin();
+            emitter.add(1, 10, 1000, 500, false);
+            final ReadableMap stats = (ReadableMap) emitter.build(false);
+            final ReadableMap conn = stats.getMap("1");
+            assertEquals(10, conn.getInt("duration"));
+            assertEquals(1000.0, conn.getDouble("bytesDelivered"), 0.0);
+            assertEquals(500.0, conn.getDouble("bitrate"), 0.0);
+            assertFalse(conn.getBoolean("lostIncreased"));
+        }
+    }
+
+    @Test
+    public void fullSendsEmptyMapOnlyWhenAsked() {
+        final StatsEmitter emitter = emitter("full", 0.0f);
+        emitter.begin();
+        assertNull(emitter.build(false));
+        final ReadableMap stats = (ReadableMap) emitter.build(true);
+        assertFalse(stats.keySetIterator().hasNextKey());
+    }
+
+    @Test
+    public void deltaSuppressesChangesUnderThreshold() {
+        final StatsEmitter emitter = emitter("delta", 0.1f);
+        emitter.begin();
+        emitter.add(1, 10, 1000, 500, false);
+        final ReadableMap first = ((ReadableMap) emitter.build(false)).getMap("1");
+        assertTrue(first.hasKey("duration"));
+        assertTrue(first.hasKey("bytesDelivered"));
+        assertTrue(first.hasKey("bitrate"));
+        assertTrue(first.hasKey("lostIncreased"));
+
+        // bytes +5% and bitrate +20% against the last sent values, lost flag flips
+        emitter.begin();
+        emitter.add(1, 10, 1050, 600, true);
+        final ReadableMap second = ((ReadableMap) emitter.build(false)).getMap("1");
+        assertFalse(second.hasKey("duration"));
+        assertFalse(second.hasKey("bytesDelivered"));
+        assertEquals(600.0, second.getDouble("bitrate"), 0.0);
+        assertTrue(second.getBoolean("lostIncreased"));
+
+        // small steps don't add up unnoticed, they are compared with the value JS has
+        emitter.begin();
+        emitter.add(1, 10, 1110, 600, true);
+        final ReadableMap third = ((ReadableMap) emitter.build(false)).getMap("1");
+        assertEquals(1110.0, third.getDouble("bytesDelivered"), 0.0);
+        assertEquals(1, countKeys(third));
+    }
+
+    @Test
+    public void deltaSendsNothingWithoutChanges() {
+        final StatsEmitter emitter = emitter("delta", 0.0f);
+        emitter.begin();
+        emitter.add(1, 10, 1000, 500, false);
+        assertNotNull(emitter.build(false));
+        emitter.begin();
+        emitter.add(1, 10, 1000, 500, false);
+        assertNull(emitter.build(false));
+    }
+
+    @Test
+    public void compactListsChangedConnections() {
+        final StatsEmitter emitter = emitter("compact", 0.1f);
+        emitter.begin();
+        emitter.add(1, 10, 1000, 500, false);
+        emitter.add(2, 20, 4000, 800, true);
+        final ReadableArray first = (ReadableArray) emitter.build(false);
+        assertEquals(10, first.size());
+        assertEquals(1, first.getInt(0));
+        assertEquals(10.0, first.getDouble(1), 0.0);
+        assertEquals(1000.0, first.getDouble(2), 0.0);
+        assertEquals(500.0, first.getDouble(3), 0.0);
+        assertEquals(0, first.getInt(4));
+        assertEquals(2, first.getInt(5));
+        assertEquals(1, first.getInt(9));
+
+        // connection 1 within the threshold is left out, 2 is sent with all its values
+        emitter.begin();
+        emitter.add(1, 10, 1040, 510, false);
+        emitter.add(2, 21, 4000, 1000, true);
+        final ReadableArray second = (ReadableArray) emitter.build(false);
+        assertEquals(5, second.size());
+        assertEquals(2, second.getInt(0));
+        assertEquals(21.0, second.getDouble(1), 0.0);
+        assertEquals(1000.0, second.getDouble(3), 0.0);
+    }
+
+    @Test
+    public void switchingModeResendsEverything() {
+        final StatsEmitter emitter = emitter("delta", 0.0f);
+        emitter.begin();
+        emitter.add(1, 10, 1000, 500, false);
+        emitter.build(false);
+
+        emitter.setMode("compact");
+        emitter.begin();
+        emitter.add(1, 10, 1000, 500, false);
+        final ReadableArray stats = (ReadableArray) emitter.build(false);
+        assertEquals(5, stats.size());
+    }
+
+    @Test
+    public void removedConnectionIsNotReported() {
+        final StatsEmitter emitter = emitter("full", 0.0f);
+        emitter.begin();
+        emitter.add(1, 10, 1000, 500, false);
+        emitter.add(2, 20, 2000, 700, false);
+        emitter.build(false);
+        emitter.remove(1);
+        emitter.begin();
+        emitter.add(2, 21, 2100, 700, false);
+        final ReadableMap stats = (ReadableMap) emitter.build(false);
+        assertFalse(stats.hasKey("1"));
+        assertEquals(21, stats.getMap("2").getInt("duration"));
+    }
+
+    private static int countKeys(ReadableMap map) {
+        int count = 0;
+        for (ReadableMapKeySetIterator it = map.keySetIterator(); it.hasNextKey(); ) {
+            it.nextKey();
+            count++;
+        }
+        return count;
+    }
+}
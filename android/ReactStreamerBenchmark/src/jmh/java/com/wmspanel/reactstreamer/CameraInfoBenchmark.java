@@ -0,0 +1,47 @@
+package com.wmspanel.reactstreamer;
+
+import com.facebook.react.bridge.WritableMap;
+import com.wmspanel.libcommon.CameraInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Camera info sent to JS by getCameraInfo, queryCameraInfo and onCameraChanged
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CameraInfoBenchmark {
+
+    private CameraInfo mCamera;
+    private List<CameraInfo> mCameraList;
+    private CameraInfoReact.Query mHd;
+
+    @Setup
+    public void setUp() {
+        mCamera = Fakes.backCamera();
+        mCameraList = Collections.singletonList(mCamera);
+        mHd = new CameraInfoReact.Query();
+        mHd.minHeight = 720;
+        mHd.maxWidth = 3840;
+        mHd.maxHeight = 2160;
+    }
+
+    @Benchmark
+    public WritableMap toReactMap() {
+        return CameraInfoReact.toReactMap(mCamera, Fakes.JAVA_ONLY);
+    }
+
+    @Benchmark
+    public WritableMap queryHd() {
+        return CameraInfoReact.query(mCameraList, mHd, Fakes.JAVA_ONLY);
+    }
+}
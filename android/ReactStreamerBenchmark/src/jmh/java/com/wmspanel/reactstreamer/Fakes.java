@@ -0,0 +1,106 @@
+package com.wmspanel.reactstreamer;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.wmspanel.libcommon.CameraInfo;
+import com.wmspanel.libstream.Streamer;
+
+// Inputs for the benchmarks that otherwise come from the device, libstream or JS
+final class Fakes {
+
+    static final BridgeFactory JAVA_ONLY = new BridgeFactory() {
+        @Override
+        public WritableMap createMap() {
+            return new JavaOnlyMap();
+        }
+
+        @Override
+        public WritableArray createArray() {
+            return new JavaOnlyArray();
+        }
+    };
+
+    // libcommon's ConnectionStatistics is final and updated from a live Streamer,
+    // this one advances like a connection sending at a steady rate with occasional loss
+    static final class ConnectionStatistics {
+        private final long mBandwidth;
+        private long mDuration = 0;
+        private long mTraffic = 0;
+        private long mTicks = 0;
+
+        ConnectionStatistics(long bandwidth) {
+            mBandwidth = bandwidth;
+        }
+
+        // One stats tick
+        void advance() {
+            mTicks++;
+            mDuration = mTicks;
+            mTraffic += mBandwidth / 8 + (mTicks % 7) * 1024;
+        }
+
+        long getDuration() {
+            return mDuration;
+        }
+
+        long getTraffic() {
+            return mTraffic;
+        }
+
+        long getBandwidth() {
+            // jitters by a few percent between ticks
+            return mBandwidth + (mTicks % 5 - 2) * (mBandwidth / 50);
+        }
+
+        boolean isDataLossIncreasing() {
+            return mTicks % 11 == 0;
+        }
+    }
+
+    // Back camera of a current phone: 4:3, 16:9 and odd record sizes, fixed and variable fps ranges
+    static CameraInfo backCamera() {
+        final CameraInfo info = new CameraInfo();
+        info.cameraId = "0";
+        info.lensFacing = CameraInfo.LENS_FACING_BACK;
+        info.isTorchSupported = true;
+        info.isZoomSupported = true;
+        info.maxZoom = 8.0f;
+        final int[][] sizes = {
+                {4032, 3024}, {3840, 2160}, {3264, 2448}, {2560, 1440}, {2048, 1536}, {1920, 1440},
+                {1920, 1080}, {1600, 1200}, {1440, 1080}, {1280, 960}, {1280, 720}, {1024, 768},
+                {960, 720}, {800, 600}, {720, 480}, {640, 480}, {640, 360}, {352, 288}, {320, 240}, {176, 144}
+        };
+        for (int[] size : sizes) {
+            info.recordSizes.add(new Streamer.Size(size[0], size[1]));
+        }
+        final int[][] ranges = {
+                {15, 15}, {7, 20}, {20, 20}, {7, 24}, {24, 24}, {7, 30}, {15, 30}, {30, 30}, {60, 60}
+        };
+        for (int[] range : ranges) {
+            info.fpsRanges.add(new Streamer.FpsRange(range[0], range[1]));
+        }
+        return info;
+    }
+
+    static JavaOnlyMap srtSettings() {
+        return JavaOnlyMap.of(
+                "connectMode", "caller",
+                "pbkeylen", 16,
+                "passphrase", "0123456789abcdef",
+                "latency", 2000,
+                "maxbw", 0,
+                "streamid", "#!::r=live/stream,m=publish");
+    }
+
+    static JavaOnlyMap tcpSettings() {
+        return JavaOnlyMap.of(
+                "user", "publisher",
+                "pass", "secret",
+                "target", "akamai");
+    }
+
+    private Fakes() {
+    }
+}
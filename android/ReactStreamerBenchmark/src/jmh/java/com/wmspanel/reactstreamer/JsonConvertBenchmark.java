@@ -0,0 +1,71 @@
+package com.wmspanel.reactstreamer;
+
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Connection info conversion, done on every state change of every destination
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonConvertBenchmark {
+
+    // Shaped like the info of a connection state change: rtmp auth result, srt link
+    // statistics with 64-bit counters, a bonded destination with one entry per link
+    private static final String RTMP = "{\"type\": \"rtmp\", \"url\": \"rtmp://live.example.com/app\","
+            + " \"stream\": \"key\", \"auth\": {\"mode\": \"llnw\", \"result\": \"ok\", \"nonce\": \"a8f3c1\"},"
+            + " \"reconnect\": false}";
+
+    private static final String SRT = "{\"type\": \"srt\", \"mode\": \"caller\", \"latency\": 2000,"
+            + " \"streamid\": \"#!::r=live/stream,m=publish\", \"passphrase\": null, \"stats\": {"
+            + " \"msTimeStamp\": 4294967396, \"pktSentTotal\": 1843921, \"byteSentTotal\": 2451937782,"
+            + " \"pktSndLossTotal\": 112, \"pktRetransTotal\": 358, \"mbpsSendRate\": 6.12,"
+            + " \"msRTT\": 48.25, \"mbpsBandwidth\": 38.4, \"pktFlightSize\": 22, \"byteAvailSndBuf\": 12058624}}";
+
+    private static final String BONDED = "{\"type\": \"srt\", \"group\": \"broadcast\", \"links\": ["
+            + "{\"id\": 1, \"interface\": \"wlan0\", \"state\": \"running\", \"msRTT\": 31.5, \"byteSentTotal\": 3221225472},"
+            + "{\"id\": 2, \"interface\": \"rmnet0\", \"state\": \"running\", \"msRTT\": 74.0, \"byteSentTotal\": 1073741824},"
+            + "{\"id\": 3, \"interface\": \"rmnet1\", \"state\": \"broken\", \"msRTT\": 0.0, \"byteSentTotal\": 0}],"
+            + " \"weights\": [50, 30, 20], \"active\": true}";
+
+    @Param({"rtmp", "srt", "bonded"})
+    public String payload;
+
+    private JSONObject mInfo;
+
+    @Setup
+    public void setUp() throws JSONException {
+        switch (payload) {
+            case "srt":
+                mInfo = new JSONObject(SRT);
+                break;
+            case "bonded":
+                mInfo = new JSONObject(BONDED);
+                break;
+            default:
+                mInfo = new JSONObject(RTMP);
+                break;
+        }
+    }
+
+    @Benchmark
+    public WritableMap legacy() throws JSONException {
+        return LegacyJsonConvert.jsonToReact(mInfo, Fakes.JAVA_ONLY);
+    }
+
+    @Benchmark
+    public WritableMap singlePass() {
+        return JsonConvert.jsonToReact(mInfo, Fakes.JAVA_ONLY);
+    }
+}
@@ -0,0 +1,79 @@
+package com.wmspanel.reactstreamer;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.wmspanel.libcommon.CameraInfo;
+import com.wmspanel.libstream.ConnectionConfig;
+import com.wmspanel.libstream.SrtConfig;
+import com.wmspanel.libstream.Streamer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Settings parsing and format negotiation, done for every camera on each streamer start and flip
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SettingsUtilsBenchmark {
+
+    private CameraInfo mCamera;
+    private Streamer.Size mFullHd;
+    // no exact match, found by the aspect ratio pass
+    private Streamer.Size mUnlisted;
+    private ReadableMap mSrtSettings;
+    private ReadableMap mTcpSettings;
+
+    @Setup
+    public void setUp() {
+        mCamera = Fakes.backCamera();
+        mFullHd = new Streamer.Size(1920, 1080);
+        mUnlisted = new Streamer.Size(2400, 1350);
+        mSrtSettings = Fakes.srtSettings();
+        mTcpSettings = Fakes.tcpSettings();
+    }
+
+    @Benchmark
+    public Streamer.FpsRange nearestFpsRange() {
+        return SettingsUtils.nearestFpsRange(mCamera.fpsRanges, 29.97f, false);
+    }
+
+    @Benchmark
+    public Streamer.FpsRange nearestFpsRangeStrict() {
+        return SettingsUtils.nearestFpsRange(mCamera.fpsRanges, 30.0f, true);
+    }
+
+    @Benchmark
+    public Streamer.Size findFlipSize() {
+        return SettingsUtils.findFlipSize(mCamera, mFullHd);
+    }
+
+    @Benchmark
+    public Streamer.Size findFlipSizeByAspect() {
+        return SettingsUtils.findFlipSize(mCamera, mUnlisted);
+    }
+
+    @Benchmark
+    public Streamer.Size strToSize() {
+        return SettingsUtils.strToSize("1920x1080", true);
+    }
+
+    @Benchmark
+    public SrtConfig parseSrtParams() {
+        final SrtConfig config = new SrtConfig();
+        SettingsUtils.parseSrtParams(config, mSrtSettings);
+        return config;
+    }
+
+    @Benchmark
+    public ConnectionConfig parseTcpParams() {
+        final ConnectionConfig config = new ConnectionConfig();
+        SettingsUtils.parseTcpParams(config, mTcpSettings, "publisher:secret");
+        return config;
+    }
+}
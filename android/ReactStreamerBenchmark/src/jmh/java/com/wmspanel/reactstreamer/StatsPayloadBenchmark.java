@@ -0,0 +1,51 @@
+package com.wmspanel.reactstreamer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// onStreamerStats tick as in StreamerView.updateConnectionInfo: statistics of every
+// recording connection are added to the emitter, then the payload is built
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatsPayloadBenchmark {
+
+    @Param({"full", "delta", "compact"})
+    public String mode;
+
+    @Param({"1", "4"})
+    public int connections;
+
+    private StatsEmitter mEmitter;
+    private Fakes.ConnectionStatistics[] mStatistics;
+
+    @Setup
+    public void setUp() {
+        mEmitter = new StatsEmitter(Fakes.JAVA_ONLY);
+        mEmitter.setMode(mode);
+        mEmitter.setThreshold(0.05f);
+        mStatistics = new Fakes.ConnectionStatistics[connections];
+        for (int i = 0; i < connections; i++) {
+            mStatistics[i] = new Fakes.ConnectionStatistics(2_000_000L * (i + 1));
+        }
+    }
+
+    @Benchmark
+    public Object tick() {
+        mEmitter.begin();
+        for (int i = 0; i < mStatistics.length; i++) {
+            final Fakes.ConnectionStatistics sts = mStatistics[i];
+            sts.advance();
+            mEmitter.add(i + 1, sts.getDuration(), sts.getTraffic(), sts.getBandwidth(), sts.isDataLossIncreasing());
+        }
+        return mEmitter.build(false);
+    }
+}
@@ -22,6 +22,7 @@ import com.facebook.react.uimanager.ViewManagerRegistry;
 import com.paiecashbroadcaster.BuildConfig;
 import com.paiecashbroadcaster.newarchitecture.components.MainComponentsRegistry;
 import com.paiecashbroadcaster.newarchitecture.modules.MainApplicationTurboModuleManagerDelegate;
+import com.wmspanel.reactstreamer.StreamerPackage;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,6 +52,7 @@ public class MainApplicationReactNativeHost extends ReactNativeHost {
     //     packages.add(new TurboReactPackage() { ... });
     // If you have custom Fabric Components, their ViewManagers should also be loaded here
     // inside a ReactPackage.
+    packages.add(new StreamerPackage());
     return packages;
   }
 
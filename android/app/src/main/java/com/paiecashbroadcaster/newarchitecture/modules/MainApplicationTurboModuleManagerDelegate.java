@@ -41,7 +41,7 @@ public class MainApplicationTurboModuleManagerDelegate
     if (!sIsSoLibraryLoaded) {
       // If you change the name of your application .so file in the Android.mk file,
       // make sure you update the name here as well.
-      SoLoader.loadLibrary("paiecashplay_appmodules");
+      SoLoader.loadLibrary("paiecashbroadcaster_appmodules");
       sIsSoLibraryLoaded = true;
     }
   }
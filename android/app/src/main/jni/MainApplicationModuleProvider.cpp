@@ -1,6 +1,7 @@
 #include "MainApplicationModuleProvider.h"
 
 #include <rncore.h>
+#include <reactstreamer.h>
 
 namespace facebook {
 namespace react {
@@ -17,6 +18,10 @@ std::shared_ptr<TurboModule> MainApplicationModuleProvider(
   //    return module;
   // }
   // return rncore_ModuleProvider(moduleName, params);
+  auto module = reactstreamer_ModuleProvider(moduleName, params);
+  if (module != nullptr) {
+    return module;
+  }
   return rncore_ModuleProvider(moduleName, params);
 }
 
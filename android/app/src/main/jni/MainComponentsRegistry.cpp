@@ -4,6 +4,7 @@
 #include <fbjni/fbjni.h>
 #include <react/renderer/componentregistry/ComponentDescriptorProviderRegistry.h>
 #include <react/renderer/components/rncore/ComponentDescriptors.h>
+#include <react/renderer/components/reactstreamer/ComponentDescriptors.h>
 
 namespace facebook {
 namespace react {
@@ -19,6 +20,8 @@ MainComponentsRegistry::sharedProviderRegistry() {
   //
   // providerRegistry->add(concreteComponentDescriptorProvider<
   //        AocViewerComponentDescriptor>());
+  providerRegistry->add(
+      concreteComponentDescriptorProvider<StreamerViewComponentDescriptor>());
   return providerRegistry;
 }
 
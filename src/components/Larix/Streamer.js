@@ -3,18 +3,19 @@ import React from "react";
 import {
 	NativeModules,
 	NativeEventEmitter,
-	requireNativeComponent,
 	View,
 	Text,
+	Platform,
 } from "react-native";
 import Toast from "react-native-toast-message";
 import { activateKeepAwake, deactivateKeepAwake } from "expo-keep-awake";
 
 import { LarixUtils } from "./LarixUtils";
 import { CameraInfo } from "./CameraInfo";
+import NativeLarixStreamer from "../../specs/NativeLarixStreamer";
+import StreamerView from "../../specs/StreamerViewNativeComponent";
 
-var StreamerView = requireNativeComponent("StreamerView", StreamerView);
-const { LarixStreamer } = NativeModules;
+const LarixStreamer = NativeLarixStreamer ?? NativeModules.LarixStreamer;
 
 const CAMERA_API_VERSION = 2; //For Android
 
@@ -24,8 +25,22 @@ const streamListeners = [
 	"onCameraChanged",
 	"onStreamerStats",
 	"onFileOperation",
+	"onStreamerTimings",
+	"onBitrateChanged",
+	"onDegradationChanged",
+	"onReconnect",
+	"onFormatNegotiated",
+	"onUploadProgress",
+	"onPreviewFrame",
+	"onStorageStats",
 ];
 
+// Handlers that only pass the event on to the prop of the same name
+const forwardedEvents = ["onStreamerTimings", "onUploadProgress", "onPreviewFrame", "onStorageStats"];
+
+// Android delivers all streamer events in one batch per frame
+const BATCH_EVENT = "onStreamerEventBatch";
+
 export default class Streamer extends React.Component {
 	static defaultProps = {
 		retryTimeout: 5000,
@@ -58,15 +73,28 @@ export default class Streamer extends React.Component {
 			connectionState: {},
 			cameraInfo: [],
 		};
+		// Android: connectDestination calls not settled yet, and connections that were
+		// disconnected before their promise resolved (id -> retry wanted)
+		this.pendingConnects = 0;
+		this.closedConnections = new Map();
 
 		const onGranted = (result) => {
 			console.log("Permissions granted: " + result);
 			if (result != 0) {
-				console.log("calling getCameraInfo ");
-				LarixStreamer.getCameraInfo(CAMERA_API_VERSION, (info) => {
+				const onCameraInfo = (info) => {
 					console.log(info);
 					this.cameraInfo = new CameraInfo(info.cameraInfo);
-				});
+				};
+				if (Platform.OS == "android") {
+					// sizes the settings can't use are filtered natively
+					this.queryCameraInfo({
+						maxWidth: CameraInfo.maxWidth,
+						maxHeight: CameraInfo.maxHeight,
+					}).then(onCameraInfo, (error) => console.log(`Camera info failed: ${error}`));
+				} else {
+					console.log("calling getCameraInfo ");
+					LarixStreamer.getCameraInfo(CAMERA_API_VERSION, onCameraInfo);
+				}
 				activateKeepAwake("streamer");
 				this.setState({
 					authorized: true,
@@ -102,6 +130,17 @@ export default class Streamer extends React.Component {
 		}
 		const eventEmitter = this.eventEmitter ?? new NativeEventEmitter(LarixStreamer);
 		let listeners = [];
+		if (Platform.OS == "android") {
+			listeners.push(eventEmitter.addListener(BATCH_EVENT, this.onStreamerEventBatch));
+			// events come in the batch, declare the ones consumed here so that native
+			// side only produces (and polls for) those
+			const declared = streamListeners.filter(this.consumesEvent);
+			declared.forEach((name) => LarixStreamer.addListener(name));
+			listeners.push({ remove: () => declared.forEach((name) => LarixStreamer.removeListener(name)) });
+			this.eventEmitter = eventEmitter;
+			this.listeners = listeners;
+			return;
+		}
 		streamListeners.forEach((name) => {
 			if (typeof this[name] == "function") {
 				listeners.push(eventEmitter.addListener(name, this[name]));
@@ -113,6 +152,14 @@ export default class Streamer extends React.Component {
 		this.listeners = listeners;
 	};
 
+	// Events only forwarded to a prop are consumed if the prop is set
+	consumesEvent = (name) => {
+		if (forwardedEvents.includes(name)) {
+			return this.props[name] != null;
+		}
+		return typeof this[name] == "function";
+	};
+
 	removeLarixListeners = () => {
 		const eventEmitter = this.eventEmitter;
 		const listeners = this.listeners;
@@ -142,6 +189,12 @@ export default class Streamer extends React.Component {
 				statsUpdateInterval={this.state.statsUpdateInterval}
 				videoConfig={this.props.videoConfig}
 				audioConfig={this.props.audioConfig}
+				abrConfig={this.props.abrConfig}
+				degradationConfig={this.props.degradationConfig}
+				reconnectConfig={this.props.reconnectConfig}
+				replayConfig={this.props.replayConfig}
+				snapshotConfig={this.props.snapshotConfig}
+				storageConfig={this.props.storageConfig}
 				torch={this.state.torch}
 				mute={this.props.mute}
 			></StreamerView>
@@ -191,7 +244,27 @@ export default class Streamer extends React.Component {
 			console.log("Creating connections");
 
 			if (configList.length > 0) {
-				LarixStreamer.connect(configList, this.onConnect);
+				if (Platform.OS == "android") {
+					const pending = this.connectParallel(configList);
+					this.pendingConnects += pending.length;
+					// one toast and one retry for the destinations that failed to connect
+					Promise.all(
+						pending.map((promise) =>
+							promise.then(
+								() => null,
+								(error) => error
+							)
+						)
+					).then((results) => {
+						this.pendingConnects -= results.length;
+						const failed = configList.filter((config, idx) => results[idx] != null);
+						if (failed.length > 0) {
+							this.onDestinationsFailed(failed);
+						}
+					});
+				} else {
+					LarixStreamer.connect(configList, this.onConnect);
+				}
 			}
 			this.setState({
 				configList: configList,
@@ -246,6 +319,73 @@ export default class Streamer extends React.Component {
 		LarixStreamer.takeSnapshot(filename);
 	};
 
+	// count frames interval seconds apart, count 0 for a timelapse until stopSnapshotSeries;
+	// every frame comes as onFileOperation with seriesId and index
+	startSnapshotSeries = (count, interval) => {
+		return LarixStreamer.startSnapshotSeries({ count: count, interval: interval });
+	};
+
+	stopSnapshotSeries = () => {
+		LarixStreamer.stopSnapshotSeries();
+	};
+
+	// Low resolution RGBA frames of the stream, {width, height, fps}; returns false if the
+	// JS runtime has no JSI (remote debugging). Read them with readPreviewFrame on onPreviewFrame.
+	startPreviewFrames = (options) => {
+		if (global.__larixPreviewFrame == null && !LarixStreamer.installPreviewFrames()) {
+			return false;
+		}
+		LarixStreamer.startPreviewFrames(options ?? {});
+		return true;
+	};
+
+	stopPreviewFrames = () => {
+		LarixStreamer.stopPreviewFrames();
+	};
+
+	// {width, height, format, timestamp, sequence, data: ArrayBuffer} or null if there is no
+	// frame newer than since; pass the previous data as target to reuse its buffer
+	readPreviewFrame = (since, target) => {
+		return global.__larixPreviewFrame?.(since ?? 0, target) ?? null;
+	};
+
+	onPreviewFrame = (event) => {
+		this.props.onPreviewFrame?.(event);
+	};
+
+	// {state, free, total, used, quota, session, recording, headroom, headroomSeconds} in bytes
+	onStorageStats = (event) => {
+		this.props.onStorageStats?.(event);
+	};
+
+	// Android only. Resolves with {cameraInfo, total}; query is {minWidth, minHeight, maxWidth,
+	// maxHeight, minFps, maxSizes, lensFacing, physical, offset, limit}, all optional
+	queryCameraInfo = (query) => {
+		return LarixStreamer.queryCameraInfo({ api: CAMERA_API_VERSION, ...query });
+	};
+
+	// Resolves with the upload id, progress comes as onUploadProgress
+	uploadFile = (path, url, options) => {
+		return LarixStreamer.startUpload({ ...options, path: path, url: url });
+	};
+
+	// Continues paused uploads. Header values are not stored with unfinished uploads, so
+	// uploads started with headers before an app restart stay paused until they come here
+	resumeUploads = (headers) => {
+		LarixStreamer.resumeUploads(headers ?? null);
+	};
+
+	onUploadProgress = (event) => {
+		this.props.onUploadProgress?.(event);
+	};
+
+	// Requires replayConfig, resolves with {path, duration}
+	saveReplay = (seconds) => {
+		let filename = this.props.recordConfig?.getVideoFilename?.();
+		console.log(`Replay filename: ${filename}`);
+		return LarixStreamer.saveReplay(seconds, filename);
+	};
+
 	clearStreamingState = () => {
 		if (this.state.retryTimer != null) {
 			clearInterval(this.state.retryTimer);
@@ -268,8 +408,24 @@ export default class Streamer extends React.Component {
 		if (oldProps.camera != this.props.camera) {
 			console.log("Camera value changed");
 		}
+		if (
+			this.listeners != null &&
+			forwardedEvents.some((name) => (oldProps[name] != null) != (this.props[name] != null))
+		) {
+			// declared events have changed
+			this.removeLarixListeners();
+			this.addLarixListeners();
+		}
 	}
 
+	onStreamerEventBatch = (batch) => {
+		batch.forEach(({ event, body }) => {
+			if (streamListeners.includes(event) && typeof this[event] == "function") {
+				this[event](body);
+			}
+		});
+	};
+
 	onCaptureStateChanged = (event) => {
 		console.log("onCaptureStateChanged");
 		console.log(event);
@@ -311,7 +467,8 @@ export default class Streamer extends React.Component {
 		var errorMessage = null;
 		var retry = false;
 		const retryTimeout = this.props.retryTimeout;
-		let configList = this.state.connectionConfig;
+		// events may come before connectDestination resolves, the config is unknown then
+		let configList = this.state.connectionConfig ?? {};
 		let retryList = this.state.retryList ?? [];
 
 		if (state == "disconnected" && broadcasting) {
@@ -340,7 +497,9 @@ export default class Streamer extends React.Component {
 			if (retry) {
 				console.log("retrying");
 				let config = configList[connId];
-				retryList.push(config);
+				if (config != null) {
+					retryList.push(config);
+				}
 				console.log(retryList);
 				delete configList[connId];
 				let timer = this.state.retryTimer;
@@ -363,14 +522,27 @@ export default class Streamer extends React.Component {
 			Toast.show({ type: "error", text2: errorMessage });
 		}
 		if (state == "disconnected") {
+			if (connectionState[connId] == null || configList[connId] == null) {
+				// onDestinationConnected must not bring it back, it retries then if asked to
+				this.closedConnections.set(connId, retry && configList[connId] == null);
+			}
 			delete connectionState[connId];
 		} else {
+			if (connectionState[connId] == null) {
+				// named by onDestinationConnected
+				connectionState[connId] = { state: state, name: "", url: "" };
+			}
 			connectionState[connId].state = state;
 		}
 
 		const activeConns = Object.keys(connectionState);
 
-		if (activeConns.length == 0 && retryList.length == 0 && this.recordActive != true) {
+		if (
+			activeConns.length == 0 &&
+			retryList.length == 0 &&
+			this.pendingConnects == 0 &&
+			this.recordActive != true
+		) {
 			console.log("No active connections");
 			this.disconnectAll();
 		}
@@ -413,6 +585,51 @@ export default class Streamer extends React.Component {
 		this.props.setStats?.(statsStr);
 	};
 
+	onBitrateChanged = (event) => {
+		this.props.onBitrateChanged?.(event);
+	};
+
+	onDegradationChanged = (event) => {
+		this.props.onDegradationChanged?.(event);
+	};
+
+	// Native reconnect replaces a dropped connection with a new id,
+	// move the destination state over so later events find it
+	onReconnect = (event) => {
+		console.log("onReconnect", event);
+		const connectionState = this.state.connectionState ?? {};
+		const connectionConfig = this.state.connectionConfig ?? {};
+		const connId = event.connectionId;
+		const prevId = event.previousConnectionId;
+		if (event.phase == "connecting" && prevId != null) {
+			if (connectionState[prevId] != null) {
+				connectionState[connId] = connectionState[prevId];
+				delete connectionState[prevId];
+			}
+			if (connectionConfig[prevId] != null) {
+				connectionConfig[connId] = connectionConfig[prevId];
+				delete connectionConfig[prevId];
+			}
+		}
+		if (connectionState[connId] != null && event.phase == "scheduled") {
+			connectionState[connId].state = "reconnecting";
+		}
+		this.setState({
+			connectionState: connectionState,
+			connectionConfig: connectionConfig,
+		});
+		this.props.onReconnect?.(event);
+	};
+
+	onFormatNegotiated = (format) => {
+		console.log("onFormatNegotiated", format);
+		this.props.onFormatNegotiated?.(format);
+	};
+
+	onStreamerTimings = (timings) => {
+		this.props.onStreamerTimings?.(timings);
+	};
+
 	onCameraChanged = (info) => {
 		console.log("camera changed");
 		console.log(info);
@@ -440,6 +657,78 @@ export default class Streamer extends React.Component {
 		}
 	};
 
+	// Android only. Destinations are prepared and connected in parallel, returns a promise
+	// per destination that resolves with its connection id; connect handles rejections
+	connectParallel = (configList) => {
+		return configList.map((config) =>
+			LarixStreamer.connectDestination(config).then(
+				(id) => {
+					this.onDestinationConnected(id, config);
+					return id;
+				},
+				(error) => {
+					console.log(`Failed to connect to ${config.url}: ${error.code}`);
+					throw error;
+				}
+			)
+		);
+	};
+
+	onDestinationConnected = (id, config) => {
+		if (this.closedConnections.has(id)) {
+			// disconnected before the promise resolved
+			const retry = this.closedConnections.get(id);
+			this.closedConnections.delete(id);
+			if (retry) {
+				this.queueRetry([config]);
+			}
+			return;
+		}
+		this.setState((state) => ({
+			configList: undefined,
+			connectionConfig: { ...state.connectionConfig, [id]: config },
+			connectionState: {
+				...state.connectionState,
+				// state events of the connection may come before the promise resolves
+				[id]: {
+					state: state.connectionState?.[id]?.state ?? "connecting",
+					name: config?.name ?? "",
+					url: config?.url ?? "",
+				},
+			},
+		}));
+	};
+
+	onDestinationsFailed = (configList) => {
+		if (!this.state.broadcasting) {
+			return;
+		}
+		const names = configList.map((config) => config?.name ?? config?.url ?? "").join(", ");
+		const retrySec = this.props.retryTimeout / 1000;
+		Toast.show({
+			type: "error",
+			text2: `${names}: Could not connect to server. Retrying in ${retrySec} seconds.`,
+		});
+		this.queueRetry(configList);
+	};
+
+	queueRetry = (configList) => {
+		if (!this.state.broadcasting) {
+			return;
+		}
+		let retryList = this.state.retryList ?? [];
+		retryList.push(...configList);
+		let timer = this.state.retryTimer;
+		if (timer != null) {
+			clearInterval(timer);
+		}
+		timer = setInterval(this.retry, this.props.retryTimeout);
+		this.setState({
+			retryTimer: timer,
+			retryList: retryList,
+		});
+	};
+
 	onConnect = (connId) => {
 		let idList = connId;
 		if (!Array.isArray(connId)) {
@@ -0,0 +1,60 @@
+// @flow
+import type { TurboModule } from "react-native/Libraries/TurboModule/RCTExport";
+import * as TurboModuleRegistry from "react-native/Libraries/TurboModule/TurboModuleRegistry";
+
+// Codegen spec of the LarixStreamer native module (Android).
+// Falls back to the legacy NativeModules.LarixStreamer when TurboModules are disabled.
+export interface Spec extends TurboModule {
+	+getCameraInfo: (apiVersion: number, callback: (info: Object) => void) => void;
+	+startCapture: () => void;
+	+stopCapture: () => void;
+	+connectTo: (url: string, callback: (connectionId: number) => void) => void;
+	+connect: (config: Array<Object>, callback: (result: Object) => void) => void;
+	+disconnect: (connectionId: number) => void;
+	+disconnectAll: () => void;
+	+takeSnapshot: (filename: ?string) => void;
+	+startRecord: (filename: ?string) => void;
+	+stopRecord: () => void;
+	+startSnapshotSeries: (options: Object) => Promise<string>;
+	+stopSnapshotSeries: () => void;
+	// Low resolution frames read with global.__larixPreviewFrame, installPreviewFrames runs on the JS thread
+	+installPreviewFrames: () => boolean;
+	+startPreviewFrames: (options: Object) => void;
+	+stopPreviewFrames: () => void;
+	+saveReplay: (seconds: number, filename: ?string) => Promise<Object>;
+
+	// Background upload of recordings, progress comes as onUploadProgress
+	+startUpload: (options: Object) => Promise<string>;
+	+cancelUpload: (uploadId: string) => void;
+	+resumeUploads: (headers: ?Object) => void;
+	+setUploadLimits: (limits: Object) => void;
+	+requestPermissions: () => Promise<number>;
+
+	// Promise based variants
+	+getCameraInfoAsync: (apiVersion: number) => Promise<Object>;
+	// Filtered and paged camera info, resolves with {cameraInfo, total}
+	+queryCameraInfo: (query: Object) => Promise<Object>;
+	+connectToAsync: (url: string) => Promise<number>;
+	+connectAsync: (config: Array<Object>) => Promise<Array<number>>;
+	// One destination, resolves once it is connected without waiting for others started with it
+	+connectDestination: (config: Object) => Promise<number>;
+	+takeSnapshotAsync: (filename: ?string) => Promise<string>;
+
+	// Synchronous getters for values polled by the UI
+	+getConnectionState: (connectionId: number) => string;
+	+getBitrate: (connectionId: number) => number;
+	+getActiveCameraId: () => ?string;
+
+	+getSchedulerMetrics: () => Promise<Array<Object>>;
+	+getEventBusMetrics: () => Promise<Object>;
+	+getTimings: () => Promise<Object>;
+	+getCodecCapabilities: () => Promise<Object>;
+	+runEncoderBenchmark: () => Promise<Object>;
+	+getEncoderBenchmark: () => Promise<?Object>;
+
+	+addListener: (eventName: string) => void;
+	+removeListeners: (count: number) => void;
+	+removeListener: (eventName: string) => void;
+}
+
+export default (TurboModuleRegistry.get<Spec>("LarixStreamer"): ?Spec);
@@ -0,0 +1,103 @@
+// @flow
+import type { ViewProps } from "react-native/Libraries/Components/View/ViewPropTypes";
+import type { HostComponent } from "react-native";
+import type {
+	Float,
+	Int32,
+	WithDefault,
+} from "react-native/Libraries/Types/CodegenTypes";
+import codegenNativeComponent from "react-native/Libraries/Utilities/codegenNativeComponent";
+
+// Codegen spec of the StreamerView native component.
+// Falls back to requireNativeComponent("StreamerView") when Fabric is disabled.
+type VideoConfig = $ReadOnly<{|
+	res?: string,
+	fps?: string,
+	format?: string,
+	bitrate?: Int32,
+	keyframe?: Int32,
+	liveRotation?: string,
+	orientation?: string,
+	apiVersion?: Int32,
+|}>;
+
+type AudioConfig = $ReadOnly<{|
+	bitrate?: Int32,
+	channels?: Int32,
+	samples?: Int32,
+|}>;
+
+type AbrConfig = $ReadOnly<{|
+	mode?: string,
+	ladder?: $ReadOnlyArray<Int32>,
+	minBitrate?: Int32,
+	maxBitrate?: Int32,
+	additiveStep?: Int32,
+	decreaseFactor?: Float,
+	congestionRatio?: Float,
+	downTicks?: Int32,
+	upTicks?: Int32,
+	cooldownTicks?: Int32,
+|}>;
+
+type DegradationConfig = $ReadOnly<{|
+	enabled?: boolean,
+	degradeAfter?: Float,
+	recoverAfter?: Float,
+	minDwell?: Float,
+	minHeight?: Int32,
+	minFps?: Int32,
+|}>;
+
+type ReconnectConfig = $ReadOnly<{|
+	enabled?: boolean,
+	initialDelay?: Float,
+	maxDelay?: Float,
+	multiplier?: Float,
+	jitter?: Float,
+	maxAttempts?: Int32,
+|}>;
+
+type ReplayConfig = $ReadOnly<{|
+	enabled?: boolean,
+	duration?: Float,
+	preRoll?: Float,
+	maxSize?: Float,
+	segmentDuration?: Float,
+|}>;
+
+type SnapshotConfig = $ReadOnly<{|
+	format?: string,
+	quality?: Int32,
+	width?: Int32,
+	height?: Int32,
+|}>;
+
+type StorageConfig = $ReadOnly<{|
+	quota?: Float,
+	minFree?: Float,
+	onLowSpace?: string,
+|}>;
+
+type NativeProps = $ReadOnly<{|
+	...ViewProps,
+	videoConfig?: VideoConfig,
+	audioConfig?: AudioConfig,
+	zoom?: WithDefault<Float, 1.0>,
+	torch?: WithDefault<boolean, false>,
+	cameraId?: string,
+	autoStart?: WithDefault<boolean, true>,
+	mute?: WithDefault<boolean, false>,
+	statsUpdateInterval?: WithDefault<Float, 0.0>,
+	statsMode?: string,
+	statsThreshold?: WithDefault<Float, 0.0>,
+	previewScale?: string,
+	abrConfig?: AbrConfig,
+	degradationConfig?: DegradationConfig,
+	reconnectConfig?: ReconnectConfig,
+	replayConfig?: ReplayConfig,
+	snapshotConfig?: SnapshotConfig,
+	storageConfig?: StorageConfig,
+|}>;
+
+export default (codegenNativeComponent<NativeProps>("StreamerView"): HostComponent<NativeProps>);